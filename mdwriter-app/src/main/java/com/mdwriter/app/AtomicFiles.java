@@ -0,0 +1,107 @@
+package com.mdwriter.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Replaces files the user owns, for the autosave and for the links rewritten after a rename.
+ *
+ * Responsibilities:
+ * - Writing to a temporary file next to the target, forcing it to disk and renaming it over
+ *   the target, so a crash mid-write never leaves a truncated file.
+ * - Keeping the permissions the target had (temporary files are created owner-only).
+ * - Refusing to replace a target whose content is no longer what the caller read or wrote
+ *   last, i.e. changed by another program meanwhile.
+ *
+ * Must not be called on the FX thread.
+ */
+public final class AtomicFiles {
+
+    /**
+     * Writes the new content of a file.
+     */
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * The file on disk is not the one the new content was meant to replace.
+     */
+    public static final class ConflictException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        // Only read by the thread that caught it; never serialized
+        private final transient ContentHash onDisk;
+
+        ConflictException(Path file, ContentHash onDisk) {
+            super(file.getFileName() + " was changed by another program");
+            this.onDisk = onDisk;
+        }
+
+        /**
+         * @return The hash of what the file holds instead.
+         */
+        public ContentHash getOnDisk() {
+            return onDisk;
+        }
+    }
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * @param expected The hash of what the target should hold now, or null to replace whatever it holds.
+     * @return The hash of the bytes written.
+     * @throws ConflictException if the target holds something else: it is left as it is.
+     */
+    public static ContentHash write(Path target, Content content, ContentHash expected) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+        try {
+            copyPermissions(target, temp);
+            MessageDigest digest = ContentHash.newDigest();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 OutputStream out = new DigestOutputStream(Channels.newOutputStream(channel), digest)) {
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            // Checked last, to keep the window for another program's write as short as we can;
+            // a deleted file is simply written again
+            if (expected != null && Files.exists(target)) {
+                ContentHash onDisk = ContentHash.of(target);
+                if (!onDisk.equals(expected)) {
+                    throw new ConflictException(target, onDisk);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return ContentHash.of(digest);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (!Files.exists(from)) {
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.mdwriter.app;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves editor snapshots to disk on a background I/O thread.
+ *
+ * Responsibilities:
+ * - Skipping snapshots whose version is already saved (dirty tracking).
+ * - Writing through {@link AtomicFiles}, so a crash mid-write never leaves a truncated file.
+ * - Coalescing requests: while a write is running only the latest request per file is kept.
+ * - Compacting the file's edit journal once the text is on disk.
+ * - Remembering the content hash of what each file holds on disk, as far as we know, and
+ *   refusing to overwrite a file whose content no longer matches it (changed by another program).
+ * - Publishing the save status for the UI.
+ *
+ * Methods other than the background write must be called on the FX thread.
+ */
+public class AutoSaver {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /**
+     * Told on the FX thread when a snapshot has been written.
+     */
+    public interface SaveListener {
+        void saved(File file, DocumentSnapshot snapshot, long lastModified);
+    }
+
+    /**
+     * Told on the FX thread when a snapshot was not written because another program changed
+     * the file since we last loaded or saved it.
+     */
+    public interface ConflictListener {
+        void conflict(File file, ContentHash onDisk);
+    }
+
+    private static final class SaveRequest {
+        final File file;
+        final DocumentSnapshot snapshot;
+        final EditJournal journal;
+
+        SaveRequest(File file, DocumentSnapshot snapshot, EditJournal journal) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.journal = journal;
+        }
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The request waiting for the worker; replaced by newer requests until the worker takes it
+    private final AtomicReference<SaveRequest> queued = new AtomicReference<>();
+    private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper("");
+
+    // Last version handed to the worker (or loaded from disk), and last version known to be on disk
+    private File requestedFile;
+    private long requestedVersion = -1;
+    private File savedFile;
+    private long savedVersion = -1;
+    private SaveListener onSaved;
+    private ConflictListener onConflict;
+    // Hash of the content each file was last loaded with or saved with; the worker checks it
+    // before each write and updates it after
+    private final Map<File, ContentHash> diskContent = new ConcurrentHashMap<>();
+
+    /**
+     * Marks a snapshot as matching the file on disk, e.g. right after the file was loaded.
+     */
+    public void markSaved(File file, long version) {
+        requestedFile = file;
+        requestedVersion = version;
+        savedFile = file;
+        savedVersion = version;
+        status.set("");
+    }
+
+    /**
+     * Records the hash of what a file holds on disk, e.g. right after it was loaded.
+     */
+    public void recordDiskContent(File file, ContentHash hash) {
+        diskContent.put(file, hash);
+    }
+
+    /**
+     * @return The hash of what we last loaded from or saved to the file, or null if unknown.
+     */
+    public ContentHash getDiskContent(File file) {
+        return diskContent.get(file);
+    }
+
+    /**
+     * Follows a rename of a file: what is known about it now applies to its new location,
+     * and a save still waiting for the worker writes there.
+     */
+    public void renamed(File from, File to) {
+        if (from.equals(requestedFile)) {
+            requestedFile = to;
+        }
+        if (from.equals(savedFile)) {
+            savedFile = to;
+        }
+        ContentHash hash = diskContent.remove(from);
+        if (hash != null) {
+            diskContent.put(to, hash);
+        }
+        queued.updateAndGet(request -> request != null && request.file.equals(from)
+            ? new SaveRequest(to, request.snapshot, request.journal)
+            : request);
+    }
+
+    /**
+     * @return true if the snapshot is known to be what the file holds on disk.
+     */
+    public boolean isSaved(File file, DocumentSnapshot snapshot) {
+        return file.equals(savedFile) && snapshot.getVersion() == savedVersion;
+    }
+
+    public void setOnSaved(SaveListener listener) {
+        this.onSaved = listener;
+    }
+
+    public void setOnConflict(ConflictListener listener) {
+        this.onConflict = listener;
+    }
+
+    /**
+     * @return true if the snapshot differs from what was last saved or is being saved.
+     */
+    public boolean isDirty(File file, DocumentSnapshot snapshot) {
+        return !file.equals(requestedFile) || snapshot.getVersion() != requestedVersion;
+    }
+
+    /**
+     * Saves the snapshot to the file in the background, unless it is unchanged.
+     *
+     * @param journal The file's edit journal, compacted after the write; may be null.
+     */
+    public void save(File file, DocumentSnapshot snapshot, EditJournal journal) {
+        if (!isDirty(file, snapshot)) {
+            return;
+        }
+        requestedFile = file;
+        requestedVersion = snapshot.getVersion();
+        status.set("Saving…");
+        SaveRequest previous = queued.getAndSet(new SaveRequest(file, snapshot, journal));
+        if (previous == null) {
+            worker.execute(this::writeQueued);
+        } else if (!previous.file.equals(file)) {
+            // Replaced before the worker took it, but it is another file: it still has to be written
+            worker.execute(() -> write(previous));
+        }
+        // Otherwise the worker has not taken the previous request yet and will write this one instead
+    }
+
+    /**
+     * Waits until the saves requested so far have been written (or have failed). Called on exit:
+     * the worker is a daemon thread, so a save it has not done yet would be lost with the JVM.
+     * Can be called from any thread.
+     *
+     * @throws TimeoutException if the saves are still running after the timeout.
+     */
+    public void awaitIdle(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            // The worker runs tasks in order: this one runs after every save queued before it
+            worker.submit(() -> { }).get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // The task above does nothing
+        }
+    }
+
+    /**
+     * Human-readable save status ("Saving…", "Saved at 12:00:00", or the error).
+     */
+    public ReadOnlyStringProperty statusProperty() {
+        return status.getReadOnlyProperty();
+    }
+
+    private void writeQueued() {
+        SaveRequest request = queued.getAndSet(null);
+        if (request != null) {
+            write(request);
+        }
+    }
+
+    private void write(SaveRequest request) {
+        try {
+            ContentHash hash = AtomicFiles.write(request.file.toPath(), out -> {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                request.snapshot.writeTo(writer);
+                writer.flush();
+            }, diskContent.get(request.file));
+            diskContent.put(request.file, hash);
+            if (request.journal != null) {
+                request.journal.compact(request.snapshot);
+            }
+            long lastModified = request.file.lastModified();
+            Platform.runLater(() -> saved(request, lastModified));
+        } catch (AtomicFiles.ConflictException e) {
+            // The journal keeps the edits; the user decides which version wins
+            Platform.runLater(() -> {
+                failed(request, e);
+                if (onConflict != null) {
+                    onConflict.conflict(request.file, e.getOnDisk());
+                }
+            });
+        } catch (IOException e) {
+            // Shown as the save status
+            Platform.runLater(() -> failed(request, e));
+        }
+    }
+
+    private void saved(SaveRequest request, long lastModified) {
+        if (request.file.equals(requestedFile) && request.snapshot.getVersion() == requestedVersion) {
+            savedFile = request.file;
+            savedVersion = request.snapshot.getVersion();
+        }
+        if (onSaved != null) {
+            onSaved.saved(request.file, request.snapshot, lastModified);
+        }
+        if (queued.get() == null) {
+            status.set("Saved at " + LocalTime.now().format(TIME_FORMAT));
+        }
+    }
+
+    private void failed(SaveRequest request, IOException e) {
+        if (request.file.equals(requestedFile) && request.snapshot.getVersion() == requestedVersion) {
+            // Make the next save attempt write it again
+            requestedVersion = -1;
+        }
+        status.set((e instanceof AtomicFiles.ConflictException ? "Not saved: " : "Save failed: ") + e.getMessage());
+    }
+}
@@ -0,0 +1,111 @@
+package com.mdwriter.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text template parsed once into literal and slot segments.
+ * Slots are written as {{NAME}}; rendering only appends the literals and the slot values,
+ * so there is no repeated scanning or replacing of the template text.
+ */
+public final class CompiledTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    // literals.length == slots.length + 1; output is literals[0] slots[0] literals[1] ...
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private CompiledTemplate(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses the template source into segments.
+     *
+     * @param source The template text with {{NAME}} placeholders.
+     * @return The compiled template.
+     */
+    public static CompiledTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, position);
+            int close = open < 0 ? -1 : source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                literals.add(source.substring(position));
+                break;
+            }
+            literals.add(source.substring(position, open));
+            slots.add(source.substring(open + OPEN.length(), close).trim());
+            position = close + CLOSE.length();
+        }
+        return new CompiledTemplate(literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * Renders the template into a new string.
+     *
+     * @param values Slot name to value; missing slots render as empty text.
+     */
+    public String render(Map<String, String> values) {
+        StringBuilder out = new StringBuilder(literalLength + 64 * slots.length);
+        renderTo(out, values);
+        return out.toString();
+    }
+
+    /**
+     * Appends the rendered template to an existing buffer.
+     *
+     * @param out    The buffer to append to.
+     * @param values Slot name to value; missing slots render as empty text.
+     */
+    public void renderTo(StringBuilder out, Map<String, String> values) {
+        renderTo(out, (slot, target) -> {
+            String value = values.get(slot);
+            if (value != null) {
+                target.append(value);
+            }
+        });
+    }
+
+    /**
+     * Appends the rendered template to an existing buffer, letting the caller write
+     * each slot directly (e.g. a list of blocks) without building an intermediate string.
+     *
+     * @param out    The buffer to append to.
+     * @param writer Called once per slot, in order.
+     */
+    public void renderTo(StringBuilder out, SlotWriter writer) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            writer.write(slots[i], out);
+        }
+        out.append(literals[slots.length]);
+    }
+
+    /**
+     * Writes the value of a slot into the output buffer.
+     */
+    @FunctionalInterface
+    public interface SlotWriter {
+        void write(String slot, StringBuilder out);
+    }
+
+    /**
+     * @return The total length of the literal text, useful for pre-sizing buffers.
+     */
+    public int getLiteralLength() {
+        return literalLength;
+    }
+}
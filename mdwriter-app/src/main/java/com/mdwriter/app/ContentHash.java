@@ -0,0 +1,68 @@
+package com.mdwriter.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of the bytes of a file, used to tell whether a file on disk still holds what
+ * mdwriter last loaded or saved. Unlike the modification time, it does not change when a
+ * file is merely touched or rewritten with the same content (e.g. by git checkout).
+ */
+public final class ContentHash {
+
+    private static final int READ_CHUNK_BYTES = 64 << 10;
+
+    private final byte[] digest;
+
+    private ContentHash(byte[] digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return A digest to feed bytes into while reading or writing a file.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform provides SHA-256
+        }
+    }
+
+    /**
+     * @return The hash of the bytes fed into the digest so far.
+     */
+    public static ContentHash of(MessageDigest digest) {
+        return new ContentHash(digest.digest());
+    }
+
+    /**
+     * Reads a file and hashes its bytes. Must not be called on the FX thread.
+     */
+    public static ContentHash of(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[READ_CHUNK_BYTES];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return of(digest);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ContentHash && Arrays.equals(digest, ((ContentHash) other).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+}
@@ -0,0 +1,168 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of the documents the user switched away from.
+ *
+ * Responsibilities:
+ * - Keeping the text, mode, rendered preview (with its parsed chunks), caret and scroll
+ *   position of recently open files, so switching back needs no disk read, no parse and
+ *   no render.
+ * - Bounding the cache by number of entries and by their estimated size: the text, the
+ *   preview HTML and the parsed chunks with their ASTs.
+ * - Dropping entries whose file was modified on disk by someone else.
+ *
+ * Must only be used on the FX thread.
+ */
+public class DocumentCache {
+
+    private static final int MAX_ENTRIES = 8;
+    // Bound on the estimated size of all entries, in characters (two bytes each)
+    private static final long MAX_CHARACTERS = 32L << 20;
+    // A Flexmark AST takes several times the memory of the source it was parsed from
+    private static final int AST_CHARACTERS_PER_SOURCE_CHARACTER = 8;
+
+    /**
+     * The state of one document when the user switched away from it.
+     */
+    public static final class Entry {
+        private final File file;
+        private final DocumentSnapshot text;
+        private final boolean proposalMode;
+        private final PreviewDocument preview;
+        private final int caretPosition;
+        private final int topLine;
+        // Estimated size, in characters
+        private final long cost;
+        // Modification time the text corresponds to, once it is known to be on disk
+        private long lastModified;
+        private boolean saved;
+
+        public Entry(File file, DocumentSnapshot text, boolean proposalMode, PreviewDocument preview,
+                     int caretPosition, int topLine, boolean saved) {
+            this.file = file;
+            this.text = text;
+            this.proposalMode = proposalMode;
+            this.preview = preview;
+            this.caretPosition = caretPosition;
+            this.topLine = topLine;
+            this.cost = estimateCost(text, preview);
+            this.lastModified = file.lastModified();
+            this.saved = saved;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public DocumentSnapshot getText() {
+            return text;
+        }
+
+        public boolean isProposalMode() {
+            return proposalMode;
+        }
+
+        /**
+         * @return The preview rendered from exactly this text, or null if none was shown yet.
+         */
+        public PreviewDocument getPreview() {
+            return preview;
+        }
+
+        public int getCaretPosition() {
+            return caretPosition;
+        }
+
+        public int getTopLine() {
+            return topLine;
+        }
+
+        /**
+         * @return true if the file on disk holds this text.
+         */
+        public boolean isSaved() {
+            return saved;
+        }
+    }
+
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Estimated size of all entries
+    private long characters = 0;
+
+    /**
+     * Stores the state of a document, replacing any older entry for its file.
+     */
+    public void put(Entry entry) {
+        remove(entry.file);
+        entries.put(entry.file, entry);
+        characters += entry.cost;
+        evict();
+    }
+
+    /**
+     * Returns the cached state of a file, unless the file changed on disk since.
+     */
+    public Entry get(File file) {
+        Entry entry = entries.get(file);
+        if (entry != null && file.lastModified() != entry.lastModified) {
+            remove(file);
+            return null;
+        }
+        return entry;
+    }
+
+    public void remove(File file) {
+        Entry entry = entries.remove(file);
+        if (entry != null) {
+            characters -= entry.cost;
+        }
+    }
+
+    /**
+     * Records that a snapshot was written to its file by the autosave, so the entry holding
+     * it stays valid although the modification time changed.
+     */
+    public void saved(File file, DocumentSnapshot snapshot, long lastModified) {
+        Entry entry = entries.get(file);
+        if (entry != null && entry.text == snapshot) {
+            entry.lastModified = lastModified;
+            entry.saved = true;
+        }
+    }
+
+    /**
+     * Estimates what an entry keeps alive: its text, the page and block HTML of its preview,
+     * and the parsed chunks (source, HTML and AST). HTML shared by the blocks and the chunks
+     * is counted twice, which errs on the side of evicting.
+     */
+    static long estimateCost(DocumentSnapshot text, PreviewDocument preview) {
+        long cost = text.length();
+        if (preview == null) {
+            return cost;
+        }
+        cost += preview.getHtml().length();
+        for (String block : preview.getBlocks()) {
+            cost += block.length();
+        }
+        for (IncrementalMarkdownParser.ParsedChunk chunk : preview.getChunks()) {
+            cost += (long) chunk.getSource().length() * (1 + AST_CHARACTERS_PER_SOURCE_CHARACTER);
+            for (String html : chunk.getHtml()) {
+                cost += html.length();
+            }
+        }
+        return cost;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<File, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && (entries.size() > MAX_ENTRIES || characters > MAX_CHARACTERS)) {
+            characters -= eldest.next().getValue().cost;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.mdwriter.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Piece-table model of the text being edited.
+ *
+ * The text is described by a list of pieces that point either into the original text
+ * (as loaded) or into an append-only buffer that receives every inserted string.
+ * An edit only splits pieces and appends the inserted text; nothing is copied.
+ *
+ * Responsibilities:
+ * - Applying edit deltas (replace a range with a string).
+ * - Handing out immutable {@link DocumentSnapshot}s that share the buffers, for renderers,
+ *   autosave and plugins on any thread.
+ * - Keeping the line break positions of both buffers, for line/offset lookups.
+ *
+ * Must only be modified on the FX thread; snapshots can be read from anywhere.
+ */
+public class DocumentModel {
+
+    // Past this many pieces, lookups get slow enough that rebuilding the original pays off
+    private static final int MAX_PIECES = 2048;
+
+    static final int BLOCK_BITS = 14;
+    static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    /**
+     * A run of text in one of the two buffers. Immutable.
+     */
+    static final class Piece {
+        final boolean added;
+        final int start;
+        final int length;
+
+        Piece(boolean added, int start, int length) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private String original = "";
+    private int[] originalBreaks = new int[0];
+
+    // Append-only buffer of inserted text, in fixed-size blocks that are never reallocated,
+    // so snapshots can keep reading the part that existed when they were taken.
+    private char[][] addedBlocks = new char[0][];
+    private int addedLength = 0;
+    private int[] addedBreaks = new int[16];
+    private int addedBreakCount = 0;
+
+    private final List<Piece> pieces = new ArrayList<>();
+    private int length = 0;
+    private long version = 0;
+    private DocumentSnapshot snapshot;
+
+    /**
+     * Replaces the whole content, e.g. when a file is opened. Existing snapshots are unaffected.
+     */
+    public void reset(String text) {
+        original = text;
+        originalBreaks = lineBreaks(text);
+        addedBlocks = new char[0][];
+        addedLength = 0;
+        addedBreaks = new int[16];
+        addedBreakCount = 0;
+        pieces.clear();
+        if (!text.isEmpty()) {
+            pieces.add(new Piece(false, 0, text.length()));
+        }
+        length = text.length();
+        changed();
+    }
+
+    /**
+     * Applies an edit delta.
+     *
+     * @param start Start offset of the replaced range.
+     * @param end   End offset (exclusive) of the replaced range.
+     * @param text  The inserted text, possibly empty.
+     */
+    public void replace(int start, int end, String text) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") outside 0.." + length);
+        }
+        if (start == end && text.isEmpty()) return;
+
+        int first = split(start);
+        int last = split(end);
+        pieces.subList(first, last).clear();
+
+        if (!text.isEmpty()) {
+            int addedStart = append(text);
+            Piece previous = first > 0 ? pieces.get(first - 1) : null;
+            if (previous != null && previous.added && previous.start + previous.length == addedStart) {
+                // Typing: extend the piece that ends where the buffer ends
+                pieces.set(first - 1, new Piece(true, previous.start, previous.length + text.length()));
+            } else {
+                pieces.add(first, new Piece(true, addedStart, text.length()));
+            }
+        }
+        length += text.length() - (end - start);
+        changed();
+
+        if (pieces.size() > MAX_PIECES) {
+            reset(snapshot().toString());
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return A counter that changes on every edit.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns an immutable view of the current text. Costs O(pieces); the text is not copied.
+     */
+    public DocumentSnapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new DocumentSnapshot(version, original, originalBreaks,
+                Arrays.copyOf(addedBlocks, addedBlocks.length), addedBreaks, addedBreakCount,
+                pieces.toArray(new Piece[0]), length);
+        }
+        return snapshot;
+    }
+
+    private void changed() {
+        version++;
+        snapshot = null;
+    }
+
+    /**
+     * Makes a piece start at the offset, splitting the piece that contains it.
+     *
+     * @return The index of the piece that starts at the offset (pieces.size() at the end).
+     */
+    private int split(int offset) {
+        int position = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            if (position == offset) return i;
+            Piece piece = pieces.get(i);
+            if (offset < position + piece.length) {
+                int head = offset - position;
+                pieces.set(i, new Piece(piece.added, piece.start, head));
+                pieces.add(i + 1, new Piece(piece.added, piece.start + head, piece.length - head));
+                return i + 1;
+            }
+            position += piece.length;
+        }
+        return pieces.size();
+    }
+
+    /**
+     * Appends to the added buffer.
+     *
+     * @return The buffer offset of the appended text.
+     */
+    private int append(String text) {
+        int start = addedLength;
+        int copied = 0;
+        while (copied < text.length()) {
+            int block = addedLength >> BLOCK_BITS;
+            if (block == addedBlocks.length) {
+                addedBlocks = Arrays.copyOf(addedBlocks, block + 1);
+                addedBlocks[block] = new char[BLOCK_SIZE];
+            }
+            int offset = addedLength & (BLOCK_SIZE - 1);
+            int count = Math.min(BLOCK_SIZE - offset, text.length() - copied);
+            text.getChars(copied, copied + count, addedBlocks[block], offset);
+            copied += count;
+            addedLength += count;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (addedBreakCount == addedBreaks.length) {
+                    // Snapshots keep the old array, whose first entries stay valid
+                    addedBreaks = Arrays.copyOf(addedBreaks, addedBreakCount * 2);
+                }
+                addedBreaks[addedBreakCount++] = start + i;
+            }
+        }
+        return start;
+    }
+
+    private static int[] lineBreaks(String text) {
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            count++;
+        }
+        int[] breaks = new int[count];
+        int n = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            breaks[n++] = i;
+        }
+        return breaks;
+    }
+}
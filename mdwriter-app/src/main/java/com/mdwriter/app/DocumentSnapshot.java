@@ -0,0 +1,232 @@
+package com.mdwriter.app;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Immutable view of the editor text at one version of the {@link DocumentModel}.
+ *
+ * It shares the model's buffers instead of copying the text, so taking one is cheap and
+ * it can be handed to the render worker, the autosave thread or a plugin.
+ * Only {@link #toString()} and {@link #subSequence} copy characters.
+ *
+ * Offsets and line numbers are 0-based; lines are separated by '\n'.
+ */
+public final class DocumentSnapshot implements CharSequence {
+
+    private final long version;
+    private final String original;
+    private final int[] originalBreaks;
+    private final char[][] added;
+    private final int[] addedBreaks;
+    private final int addedBreakCount;
+    private final DocumentModel.Piece[] pieces;
+    // Document offset and number of line breaks before each piece; one extra entry for the end
+    private final int[] pieceOffsets;
+    private final int[] pieceLines;
+    private final int length;
+
+    DocumentSnapshot(long version, String original, int[] originalBreaks, char[][] added,
+                     int[] addedBreaks, int addedBreakCount, DocumentModel.Piece[] pieces, int length) {
+        this.version = version;
+        this.original = original;
+        this.originalBreaks = originalBreaks;
+        this.added = added;
+        this.addedBreaks = addedBreaks;
+        this.addedBreakCount = addedBreakCount;
+        this.pieces = pieces;
+        this.length = length;
+
+        this.pieceOffsets = new int[pieces.length + 1];
+        this.pieceLines = new int[pieces.length + 1];
+        for (int i = 0; i < pieces.length; i++) {
+            DocumentModel.Piece piece = pieces[i];
+            pieceOffsets[i + 1] = pieceOffsets[i] + piece.length;
+            pieceLines[i + 1] = pieceLines[i] + countBreaks(piece, piece.start, piece.start + piece.length);
+        }
+    }
+
+    /**
+     * @return The model version this snapshot was taken at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + length);
+        }
+        int p = pieceAt(index);
+        return charIn(pieces[p], pieces[p].start + index - pieceOffsets[p]);
+    }
+
+    /**
+     * Copies a range of the text.
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") outside 0.." + length);
+        }
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Copies the whole text. Prefer the other accessors for large documents.
+     */
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+
+    /**
+     * Copies characters [start, end) into dst, piece by piece.
+     */
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        int position = start;
+        int p = pieceAt(Math.min(start, Math.max(0, length - 1)));
+        while (position < end) {
+            DocumentModel.Piece piece = pieces[p];
+            int from = piece.start + position - pieceOffsets[p];
+            int count = Math.min(end, pieceOffsets[p + 1]) - position;
+            copy(piece, from, count, dst, dstBegin + position - start);
+            position += count;
+            p++;
+        }
+    }
+
+    /**
+     * Writes the text without materializing it as one string.
+     */
+    public void writeTo(Writer out) throws IOException {
+        for (DocumentModel.Piece piece : pieces) {
+            if (!piece.added) {
+                out.write(original, piece.start, piece.length);
+                continue;
+            }
+            int position = piece.start;
+            int end = piece.start + piece.length;
+            while (position < end) {
+                int offset = position & (DocumentModel.BLOCK_SIZE - 1);
+                int count = Math.min(DocumentModel.BLOCK_SIZE - offset, end - position);
+                out.write(added[position >> DocumentModel.BLOCK_BITS], offset, count);
+                position += count;
+            }
+        }
+    }
+
+    /**
+     * @return The offset of the first '\n' at or after from, or -1.
+     */
+    public int nextLineBreak(int from) {
+        if (from >= length) return -1;
+        for (int p = pieceAt(Math.max(0, from)); p < pieces.length; p++) {
+            DocumentModel.Piece piece = pieces[p];
+            int start = piece.start + Math.max(0, from - pieceOffsets[p]);
+            int end = piece.start + piece.length;
+            int[] breaks = piece.added ? addedBreaks : originalBreaks;
+            int count = piece.added ? addedBreakCount : originalBreaks.length;
+            int i = lowerBound(breaks, count, start);
+            if (i < count && breaks[i] < end) {
+                return pieceOffsets[p] + breaks[i] - piece.start;
+            }
+        }
+        return -1;
+    }
+
+    public int getLineCount() {
+        return pieceLines[pieces.length] + 1;
+    }
+
+    /**
+     * @return The line that contains the offset (offset == length() is allowed).
+     */
+    public int getLineOfOffset(int offset) {
+        if (offset <= 0 || pieces.length == 0) return 0;
+        if (offset >= length) return pieceLines[pieces.length];
+        int p = pieceAt(offset);
+        DocumentModel.Piece piece = pieces[p];
+        return pieceLines[p] + countBreaks(piece, piece.start, piece.start + offset - pieceOffsets[p]);
+    }
+
+    /**
+     * @return The offset where the line starts; lines past the end map to length().
+     */
+    public int getLineStart(int line) {
+        if (line <= 0) return 0;
+        if (line > pieceLines[pieces.length]) return length;
+        // Last piece with fewer than `line` breaks before it holds the break that ends line - 1
+        int low = 0;
+        int high = pieces.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pieceLines[mid] < line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        DocumentModel.Piece piece = pieces[low];
+        int[] breaks = piece.added ? addedBreaks : originalBreaks;
+        int count = piece.added ? addedBreakCount : originalBreaks.length;
+        int lineBreak = breaks[lowerBound(breaks, count, piece.start) + line - pieceLines[low] - 1];
+        return pieceOffsets[low] + lineBreak - piece.start + 1;
+    }
+
+    private int pieceAt(int offset) {
+        int p = Arrays.binarySearch(pieceOffsets, 0, pieces.length, offset);
+        // Exact hit: the piece starting there; otherwise the piece before the insertion point
+        return p >= 0 ? p : -p - 2;
+    }
+
+    private char charIn(DocumentModel.Piece piece, int bufferOffset) {
+        if (!piece.added) return original.charAt(bufferOffset);
+        return added[bufferOffset >> DocumentModel.BLOCK_BITS][bufferOffset & (DocumentModel.BLOCK_SIZE - 1)];
+    }
+
+    private void copy(DocumentModel.Piece piece, int from, int count, char[] dst, int dstBegin) {
+        if (!piece.added) {
+            original.getChars(from, from + count, dst, dstBegin);
+            return;
+        }
+        int position = from;
+        int end = from + count;
+        while (position < end) {
+            int offset = position & (DocumentModel.BLOCK_SIZE - 1);
+            int n = Math.min(DocumentModel.BLOCK_SIZE - offset, end - position);
+            System.arraycopy(added[position >> DocumentModel.BLOCK_BITS], offset, dst, dstBegin + position - from, n);
+            position += n;
+        }
+    }
+
+    private int countBreaks(DocumentModel.Piece piece, int start, int end) {
+        int[] breaks = piece.added ? addedBreaks : originalBreaks;
+        int count = piece.added ? addedBreakCount : originalBreaks.length;
+        return lowerBound(breaks, count, end) - lowerBound(breaks, count, start);
+    }
+
+    // First index in breaks[0..count) whose value is >= key
+    private static int lowerBound(int[] breaks, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (breaks[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
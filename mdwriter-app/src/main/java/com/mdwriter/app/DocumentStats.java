@@ -0,0 +1,188 @@
+package com.mdwriter.app;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.TextCollectingVisitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Word and character statistics of a document, computed from the Markdown AST.
+ *
+ * Responsibilities:
+ * - Counting the words and characters of the rendered text of each top-level block.
+ * - Grouping the counts by chapter (H1).
+ * - Estimating the reading time.
+ *
+ * Counts are kept per parsed chunk (see {@link #countChunk}), so only changed blocks are counted again.
+ */
+public final class DocumentStats {
+
+    public static final DocumentStats EMPTY = new DocumentStats(0, 0, Collections.emptyList());
+
+    private static final int WORDS_PER_MINUTE = 200;
+
+    private final int words;
+    private final int characters;
+    private final List<Chapter> chapters;
+
+    private DocumentStats(int words, int characters, List<Chapter> chapters) {
+        this.words = words;
+        this.characters = characters;
+        this.chapters = Collections.unmodifiableList(chapters);
+    }
+
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     * @return The number of characters, line breaks excluded.
+     */
+    public int getCharacters() {
+        return characters;
+    }
+
+    /**
+     * @return The reading time in minutes, rounded up.
+     */
+    public int getReadingMinutes() {
+        return (words + WORDS_PER_MINUTE - 1) / WORDS_PER_MINUTE;
+    }
+
+    /**
+     * @return The chapters in document order; text before the first H1 has an empty title.
+     */
+    public List<Chapter> getChapters() {
+        return chapters;
+    }
+
+    /**
+     * Counts for one chapter.
+     */
+    public static final class Chapter {
+        private final String title;
+        private final int words;
+        private final int characters;
+
+        Chapter(String title, int words, int characters) {
+            this.title = title;
+            this.words = words;
+            this.characters = characters;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getWords() {
+            return words;
+        }
+
+        public int getCharacters() {
+            return characters;
+        }
+    }
+
+    /**
+     * Counts of the top-level nodes of one chunk, parallel to its node list.
+     */
+    public static final class ChunkCounts {
+        private final int[] words;
+        private final int[] characters;
+        // Title of the chapter a node opens, or null
+        private final String[] chapterTitles;
+
+        ChunkCounts(int[] words, int[] characters, String[] chapterTitles) {
+            this.words = words;
+            this.characters = characters;
+            this.chapterTitles = chapterTitles;
+        }
+    }
+
+    /**
+     * Counts every top-level node of a chunk. Memoize the result on the chunk.
+     */
+    public static ChunkCounts countChunk(IncrementalMarkdownParser.ParsedChunk chunk) {
+        List<Node> nodes = chunk.getNodes();
+        int[] words = new int[nodes.size()];
+        int[] characters = new int[nodes.size()];
+        String[] chapterTitles = new String[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            String text = new TextCollectingVisitor().collectAndGetText(node);
+            words[i] = countWords(text);
+            characters[i] = countCharacters(text);
+            if (node instanceof Heading && ((Heading) node).getLevel() == 1) {
+                chapterTitles[i] = text.trim();
+            }
+        }
+        return new ChunkCounts(words, characters, chapterTitles);
+    }
+
+    private static int countWords(String text) {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countCharacters(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\n' && c != '\r') count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds up the counts of the blocks that make up the document body.
+     */
+    public static final class Builder {
+        private final List<Chapter> chapters = new ArrayList<>();
+        private String chapterTitle = "";
+        private int chapterWords = 0;
+        private int chapterCharacters = 0;
+        private int words = 0;
+        private int characters = 0;
+
+        /**
+         * Adds one top-level node of a chunk.
+         */
+        public void add(ChunkCounts counts, int nodeIndex) {
+            String title = counts.chapterTitles[nodeIndex];
+            if (title != null) {
+                closeChapter();
+                chapterTitle = title;
+            }
+            chapterWords += counts.words[nodeIndex];
+            chapterCharacters += counts.characters[nodeIndex];
+            words += counts.words[nodeIndex];
+            characters += counts.characters[nodeIndex];
+        }
+
+        private void closeChapter() {
+            // Skip an empty preamble before the first chapter
+            if (!chapterTitle.isEmpty() || chapterWords > 0) {
+                chapters.add(new Chapter(chapterTitle, chapterWords, chapterCharacters));
+            }
+            chapterWords = 0;
+            chapterCharacters = 0;
+        }
+
+        public DocumentStats build() {
+            closeChapter();
+            return new DocumentStats(words, characters, chapters);
+        }
+    }
+}
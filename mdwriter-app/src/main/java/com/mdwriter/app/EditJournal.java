@@ -0,0 +1,397 @@
+package com.mdwriter.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the edits made to one open file, for crash recovery.
+ *
+ * The journal starts with a fingerprint of the text it applies to (the file as last saved),
+ * followed by one record per edit delta. Records are flushed shortly after each edit, so a
+ * crash loses at most the last few keystrokes. When the autosave writes the file, the journal
+ * is compacted: it is rewritten to start from the saved text, keeping only later edits.
+ *
+ * Responsibilities:
+ * - Appending edit deltas on a background thread, batched with a short delay.
+ * - Reading back the edits of a previous session whose journal still matches the file.
+ * - Compacting after a save.
+ *
+ * Journals are kept in the cache directory of the workspace (see {@link WorkspaceFiles}).
+ */
+public class EditJournal {
+
+    private static final int MAGIC = 0x4D444A31; // "MDJ1"
+    // Delay between an edit and the flush that writes it (and the edits typed meanwhile)
+    private static final long FLUSH_DELAY_MS = 50;
+
+    // One thread for all journals, so appends, compactions and closes stay in order
+    private static final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * One edit delta: replace removedLength characters at position with inserted.
+     */
+    public static final class Edit {
+        private final long version;
+        private final int position;
+        private final int removedLength;
+        private final String inserted;
+
+        Edit(long version, int position, int removedLength, String inserted) {
+            this.version = version;
+            this.position = position;
+            this.removedLength = removedLength;
+            this.inserted = inserted;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getRemovalEnd() {
+            return position + removedLength;
+        }
+
+        public String getInserted() {
+            return inserted;
+        }
+    }
+
+    // Worker thread only: the journal currently open for each path. A journal that has been
+    // closed and reopened by a newer instance must not rewrite the file any more.
+    private static final Map<Path, EditJournal> owners = new HashMap<>();
+
+    // Worker thread only once the journal is open: it changes when the file is renamed
+    private Path path;
+    private final CompletableFuture<List<Edit>> recovered = new CompletableFuture<>();
+    private final ConcurrentLinkedQueue<Edit> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Worker thread only: the open journal file, and the edits written since the last compaction
+    private DataOutputStream out;
+    private final List<Edit> written = new ArrayList<>();
+    private boolean closed = false;
+
+    private EditJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return Where the journal of a workspace file is kept.
+     */
+    public static Path pathFor(File rootDirectory, File file) {
+        String key = file.getAbsoluteFile().toPath().normalize().toString();
+        String name = file.getName() + "-" + Integer.toHexString(key.hashCode()) + ".journal";
+        return WorkspaceFiles.cacheDirectory(rootDirectory).resolve("journal").resolve(name);
+    }
+
+    /**
+     * Opens the journal of a file that was just loaded into the editor. Returns at once: the
+     * journal is read in the background, and edits appended meanwhile are written after it.
+     *
+     * If a journal from a previous session is newer than the file and starts from exactly the
+     * loaded text, its edits are delivered by {@link #getRecovered()} and new edits are appended
+     * after them. Otherwise the journal is started over from the loaded text.
+     *
+     * @param loaded The editor text right after loading the file.
+     */
+    public static EditJournal open(Path path, File file, DocumentSnapshot loaded) {
+        EditJournal journal = new EditJournal(path);
+        // Runs after the writes still queued for this path (e.g. by the journal of a previous
+        // visit); the text is fingerprinted there as well, so it costs the caller nothing
+        worker.execute(() -> {
+            List<Edit> edits = Collections.emptyList();
+            try {
+                edits = journal.start(file, Fingerprint.of(loaded));
+            } catch (IOException e) {
+                StatusReporter.shared().error("Could not open the crash recovery journal", e);
+            } finally {
+                journal.recovered.complete(edits);
+            }
+        });
+        return journal;
+    }
+
+    /**
+     * Reads the edits to recover and opens the file for appending. Worker thread only.
+     */
+    private List<Edit> start(File file, Fingerprint base) throws IOException {
+        owners.put(path, this);
+        List<Edit> edits = null;
+        if (Files.exists(path) && Files.getLastModifiedTime(path).toMillis() >= file.lastModified()) {
+            edits = read(path, base);
+        }
+        if (edits == null) {
+            out = create(path, base, Collections.emptyList());
+            return Collections.emptyList();
+        }
+        out = openForAppend(path);
+        return edits;
+    }
+
+    /**
+     * @return The edits of a previous session to replay on the loaded text, in order; completes
+     *         on the journal thread once the journal is open, with no edits if it could not be read.
+     */
+    public CompletableFuture<List<Edit>> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Records an edit. Called on the FX thread; the write happens shortly after.
+     *
+     * @param version The document version after the edit.
+     */
+    public void append(long version, int position, int removedLength, String inserted) {
+        queue.add(new Edit(version, position, removedLength, inserted));
+        if (flushScheduled.compareAndSet(false, true)) {
+            worker.schedule(() -> {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    StatusReporter.shared().error("Could not write the crash recovery journal", e);
+                }
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Restarts the journal from a snapshot that is now on disk. Edits made after the snapshot
+     * are kept. Can be called from any thread.
+     */
+    public void compact(DocumentSnapshot saved) {
+        run(() -> {
+            flush();
+            EditJournal owner = owners.get(path);
+            if (owner != null && owner != this) {
+                return; // Reopened since; the newer journal owns the file
+            }
+            List<Edit> later = new ArrayList<>();
+            for (Edit edit : written) {
+                if (edit.version > saved.getVersion()) later.add(edit);
+            }
+            if (out != null) out.close();
+            out = null;
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            create(temp, Fingerprint.of(saved), later).close();
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            written.clear();
+            written.addAll(later);
+            if (!closed) out = openForAppend(path);
+        });
+    }
+
+    /**
+     * Follows a rename of the journaled file: the journal moves to the new file's location
+     * and keeps recording there. Can be called from any thread.
+     */
+    public void moveTo(Path newPath) {
+        run(() -> {
+            flush();
+            if (out != null) out.close();
+            out = null;
+            owners.remove(path, this);
+            if (Files.exists(path)) {
+                Files.createDirectories(newPath.getParent());
+                Files.move(path, newPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            path = newPath;
+            owners.put(path, this);
+            if (!closed && Files.exists(path)) out = openForAppend(path);
+        });
+    }
+
+    /**
+     * Writes the pending edits and closes the file. A later compaction still rewrites it.
+     */
+    public void close() {
+        run(() -> {
+            flush();
+            closed = true;
+            owners.remove(path, this);
+            if (out != null) out.close();
+            out = null;
+        });
+    }
+
+    /**
+     * Waits until the writes, compactions and closes requested so far, of every journal, are
+     * done. Called on exit: the worker is a daemon thread, so work it has not done yet would be
+     * lost with the JVM. Edits that are only waiting for their delayed flush are written by
+     * {@link #close()}, so close the open journal first. Can be called from any thread.
+     *
+     * @throws TimeoutException if the worker is still busy after the timeout.
+     */
+    public static void awaitIdle(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            // The worker runs tasks in order: this one runs after every task queued before it
+            worker.submit(() -> { }).get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // The task above does nothing
+        }
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    private void run(IOTask task) {
+        worker.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                // Losing the journal only loses crash recovery; the autosave still works
+                StatusReporter.shared().error("Could not write the crash recovery journal", e);
+            }
+        });
+    }
+
+    private void flush() throws IOException {
+        flushScheduled.set(false);
+        Edit edit;
+        boolean any = false;
+        while ((edit = queue.poll()) != null) {
+            written.add(edit);
+            if (out != null) writeEdit(out, edit);
+            any = true;
+        }
+        if (any && out != null) out.flush();
+    }
+
+    private static DataOutputStream create(Path path, Fingerprint base, List<Edit> edits) throws IOException {
+        Files.createDirectories(path.getParent());
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        stream.writeInt(MAGIC);
+        stream.writeInt(base.length);
+        stream.writeLong(base.checksum);
+        for (Edit edit : edits) {
+            writeEdit(stream, edit);
+        }
+        stream.flush();
+        return stream;
+    }
+
+    private static DataOutputStream openForAppend(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    private static void writeEdit(DataOutputStream stream, Edit edit) throws IOException {
+        byte[] inserted = edit.inserted.getBytes(StandardCharsets.UTF_8);
+        stream.writeInt(edit.position);
+        stream.writeInt(edit.removedLength);
+        stream.writeInt(inserted.length);
+        stream.write(inserted);
+    }
+
+    /**
+     * Reads the edits of a journal that starts from the given text.
+     *
+     * @return The edits (possibly none), or null if the journal belongs to other text.
+     */
+    private static List<Edit> read(Path path, Fingerprint base) throws IOException {
+        List<Edit> edits = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != base.length || in.readLong() != base.checksum) {
+                return null;
+            }
+            int length = base.length;
+            while (true) {
+                int position = in.readInt();
+                int removedLength = in.readInt();
+                byte[] inserted = new byte[in.readInt()];
+                in.readFully(inserted);
+                if (position < 0 || removedLength < 0 || position + removedLength > length) {
+                    break; // Corrupt record; keep what came before it
+                }
+                String text = new String(inserted, StandardCharsets.UTF_8);
+                edits.add(new Edit(-1, position, removedLength, text));
+                length += text.length() - removedLength;
+            }
+        } catch (EOFException e) {
+            // End of the journal, or a record cut short by a crash
+        }
+        return edits;
+    }
+
+    /**
+     * Length and CRC32 of a text, to check that a journal applies to it.
+     */
+    private static final class Fingerprint {
+        final int length;
+        final long checksum;
+
+        private Fingerprint(int length, long checksum) {
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        static Fingerprint of(DocumentSnapshot text) {
+            CRC32 crc = new CRC32();
+            try {
+                text.writeTo(new Writer() {
+                    private final byte[] bytes = new byte[8192];
+
+                    @Override
+                    public void write(char[] chars, int offset, int count) {
+                        while (count > 0) {
+                            int n = Math.min(count, bytes.length / 2);
+                            for (int i = 0; i < n; i++) {
+                                char c = chars[offset + i];
+                                bytes[2 * i] = (byte) (c >> 8);
+                                bytes[2 * i + 1] = (byte) c;
+                            }
+                            crc.update(bytes, 0, 2 * n);
+                            offset += n;
+                            count -= n;
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // The writer above does no I/O
+            }
+            return new Fingerprint(text.length(), crc.getValue());
+        }
+    }
+}
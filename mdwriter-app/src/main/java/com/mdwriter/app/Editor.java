@@ -1,74 +1,183 @@
 package com.mdwriter.app;
 
-import javafx.scene.control.TextArea;
-import javafx.scene.control.ScrollBar;
+import javafx.animation.AnimationTimer;
 import javafx.scene.web.WebView;
 import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleIntegerProperty;
-import javafx.concurrent.Worker;
+import javafx.beans.property.SimpleObjectProperty;
 
 import java.io.File;
 
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+
 /**
- * The core Editor component extending TextArea.
+ * The core Editor component extending CodeArea.
+ *
+ * The text is laid out per paragraph (line) and only the paragraphs in the viewport are
+ * rendered, so large files open quickly and typing cost does not grow with the file size.
+ * Place it in a VirtualizedScrollPane to get scroll bars.
  * 
  * Responsibilities:
  * - Handling text input from the user.
+ * - Keeping the piece-table document model in sync and handing out snapshots of it.
  * - Managing the WebView synchronization.
  * - Switching between Normal Markdown Mode and Proposal Mode.
- * - calculating word counts.
+ * - Publishing document statistics (words, characters, chapters) of each render.
  */
-public class Editor extends TextArea {
+public class Editor extends CodeArea {
 
     // Flag to determine rendering mode
     private boolean proposalMode = false;
     private WebView webview;
     private File rootDirectory;
     private final IntegerProperty wordCount = new SimpleIntegerProperty(0);
+    private final ObjectProperty<DocumentStats> stats = new SimpleObjectProperty<>(DocumentStats.EMPTY);
+    private final RenderScheduler renderScheduler = new RenderScheduler();
+    private final PreviewPatcher previewPatcher;
+    // Renderers keep per-block caches; they are only used on the render worker
+    private final NormalMarkdownRenderer normalRenderer = new NormalMarkdownRenderer();
+    private final ProposalRenderer proposalRenderer = new ProposalRenderer();
+
+    // Piece-table copy of the text, fed with edit deltas; renderers read snapshots of it
+    private final DocumentModel document = new DocumentModel();
+    // Crash-recovery journal of the open file, or null
+    private EditJournal journal;
+    // The preview on screen and the document version it was rendered from
+    private PreviewDocument shownPreview;
+    private long shownVersion = -1;
+    // Set while restore() replaces the text: the preview to show instead of rendering
+    private PreviewDocument restoredPreview;
 
+    // Scroll sync: scroll events only mark it pending; the timer applies it on the next pulse
+    private boolean scrollSyncPending = false;
+    private final AnimationTimer scrollSync = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            if (scrollSyncPending) {
+                scrollSyncPending = false;
+                syncPreviewScroll();
+            }
+        }
+    };
     public Editor(WebView webview, File rootDirectory) {
         this.webview = webview;
         this.rootDirectory = rootDirectory;
+        this.previewPatcher = new PreviewPatcher(webview.getEngine());
         // Start with empty editor - template is loaded via button click or file load
         setText("");
         getStyleClass().add("editor");
+        getStylesheets().add(Editor.class.getResource("/editor.css").toExternalForm());
         setWrapText(true);
         
-        // Listen for text changes to update the preview
-        textProperty().addListener((obs, oldText, newText) -> {
-            if (proposalMode) {
-                renderProposalMode(newText);
-            } else {
-                renderNormalMode(newText);
-            }
-        });
-        
-        // Listen for WebView load completion to calculate word count
-        webview.getEngine().getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
-            if (newState == Worker.State.SUCCEEDED) {
-                calculateWordCount();
-            }
-        });
+        // Every edit (typing, paste, plugins, undo/redo, setText) arrives as a delta;
+        // the full text is never copied out of the control.
+        plainTextChanges().subscribe(this::applyChange);
 
-        // Synchronize scrolling: Editor -> WebView
-        scrollTopProperty().addListener((obs, oldVal, newVal) -> {
-            ScrollBar scrollBar = (ScrollBar) lookup(".scroll-bar:vertical");
-            if (scrollBar != null) {
-                double value = scrollBar.getValue();
-                double max = scrollBar.getMax();
-                double percentage = max > 0 ? value / max : 0;
-                
-                // Execute JS to scroll WebView
-                // (document.body.scrollHeight - window.innerHeight) is the max scrollable amount
-                String script = String.format(
-                    "window.scrollTo(0, (document.body.scrollHeight - window.innerHeight) * %s);", 
-                    String.format(java.util.Locale.US, "%.4f", percentage) // Ensure dot decimal
-                );
-                webview.getEngine().executeScript(script);
-            }
+        // Synchronize scrolling: Editor -> WebView, at most once per frame
+        estimatedScrollYProperty().addListener((obs, oldVal, newVal) -> {
+            scrollSyncPending = true;
+            scrollSync.start();
         });
     }
     
+    /**
+     * Forwards an edit to the document model and re-renders.
+     */
+    private void applyChange(PlainTextChange change) {
+        if (change.getRemoved().length() == document.length()) {
+            // Whole text replaced (a file was opened): start the model over
+            document.reset(change.getInserted());
+        } else {
+            document.replace(change.getPosition(), change.getRemovalEnd(), change.getInserted());
+        }
+        if (journal != null) {
+            journal.append(document.getVersion(), change.getPosition(), change.getRemoved().length(), change.getInserted());
+        }
+        documentChanged();
+    }
+
+    /**
+     * Sets the journal that records every following edit, or null to stop recording.
+     */
+    public void setJournal(EditJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Captures the state of the open document for the document cache.
+     */
+    public DocumentCache.Entry captureState(File file, boolean saved) {
+        DocumentSnapshot snapshot = document.snapshot();
+        // Only a preview of exactly this text can be shown again without rendering
+        PreviewDocument preview = shownVersion == snapshot.getVersion() ? shownPreview : null;
+        int topLine = getVisibleParagraphs().isEmpty() ? 0 : firstVisibleParToAllParIndex();
+        return new DocumentCache.Entry(file, snapshot, proposalMode, preview, getCaretPosition(), topLine, saved);
+    }
+
+    /**
+     * Shows a cached document: its text, mode, caret and scroll position, and its preview
+     * without rendering it again (if it has one).
+     */
+    public void restore(DocumentCache.Entry entry) {
+        this.proposalMode = entry.isProposalMode();
+        restoredPreview = entry.getPreview();
+        try {
+            setText(entry.getText().toString());
+        } finally {
+            restoredPreview = null;
+        }
+        moveTo(Math.min(entry.getCaretPosition(), getLength()));
+        showParagraphAtTop(Math.min(entry.getTopLine(), getParagraphs().size() - 1));
+    }
+
+    /**
+     * Replaces the whole text and clears the undo history, like TextArea.setText.
+     */
+    public void setText(String text) {
+        // Renders of the previous document must not show up over this one
+        renderScheduler.cancel();
+        replaceText(text);
+        getUndoManager().forgetHistory();
+    }
+
+    /**
+     * Returns an immutable snapshot of the text. Cheap: the text is not copied, so prefer it
+     * to getText() for anything that reads the whole document, and it is safe to read
+     * from other threads.
+     */
+    public DocumentSnapshot snapshot() {
+        return document.snapshot();
+    }
+
+    /**
+     * Re-renders the preview from the current snapshot.
+     * Rendering happens on a background worker; bursts of keystrokes are coalesced.
+     */
+    private void documentChanged() {
+        DocumentSnapshot snapshot = document.snapshot();
+        if (restoredPreview != null) {
+            // Reopened from the cache: the preview is already rendered, only hand the parsed
+            // chunks back to the renderer so the next edit reuses them
+            PreviewDocument preview = restoredPreview;
+            boolean proposal = proposalMode;
+            renderScheduler.submit(() -> {
+                if (proposal) {
+                    proposalRenderer.prime(preview);
+                } else {
+                    normalRenderer.prime(preview);
+                }
+                return preview;
+            }, rendered -> showPreview(rendered, snapshot.getVersion()));
+        } else if (proposalMode) {
+            renderProposalMode(snapshot);
+        } else {
+            renderNormalMode(snapshot);
+        }
+    }
+
     public IntegerProperty wordCountProperty() {
         return wordCount;
     }
@@ -78,26 +187,15 @@ public class Editor extends TextArea {
     }
 
     /**
-     * Calculates the word count by executing a JavaScript snippet in the WebView.
-     * This ensures the count reflects the rendered content (excluding markdown syntax).
+     * Statistics of the last rendered document, counted from the Markdown AST on the render worker.
+     * In proposal mode only the body is counted, not the generated preliminary pages.
      */
-    private void calculateWordCount() {
-        try {
-            // Execute JS to get innerText of body and count words
-            Object result = webview.getEngine().executeScript(
-                "document.body.innerText.trim().split(/\\s+/).filter(word => word.length > 0).length"
-            );
-            
-            if (result instanceof Integer) {
-                wordCount.set((Integer) result);
-            } else if (result instanceof Number) {
-                wordCount.set(((Number) result).intValue());
-            } else {
-                 wordCount.set(0); 
-            }
-        } catch (Exception e) {
-            // Ignore errors during script execution (e.g. if page not fully loaded)
-        }
+    public ObjectProperty<DocumentStats> statsProperty() {
+        return stats;
+    }
+
+    public DocumentStats getStats() {
+        return stats.get();
     }
     
     /**
@@ -122,8 +220,7 @@ public class Editor extends TextArea {
     public void disableProposalMode() {
         this.proposalMode = false;
         // Re-render current content in normal mode
-        String currentText = getText();
-        renderNormalMode(currentText);
+        renderNormalMode(document.snapshot());
     }
     
     /**
@@ -161,23 +258,61 @@ public class Editor extends TextArea {
     /**
      * Renders changes using the NormalMarkdownRenderer.
      * Used for standard markdown files.
+     * Parsing runs on the render worker; only the WebEngine update runs on the FX thread.
      */
-    private void renderNormalMode(String newText) {
-        NormalMarkdownRenderer renderer = new NormalMarkdownRenderer();
-        String html = renderer.render(newText);
-        webview.getEngine().loadContent(html);
+    private void renderNormalMode(DocumentSnapshot newText) {
+        renderScheduler.submit(
+            () -> normalRenderer.renderDocument(newText),
+            preview -> showPreview(preview, newText.getVersion())
+        );
     }
     
     /**
-     * Proposal mode rendering - full proposal formatting with pages, TOC, JS
+     * Proposal mode rendering - Formatting for academic proposals.
+     * Delegates complex rendering logic to ProposalRenderer on the render worker.
      */
+    private void renderProposalMode(DocumentSnapshot newText) {
+        renderScheduler.submit(
+            () -> proposalRenderer.renderDocument(newText),
+            preview -> showPreview(preview, newText.getVersion())
+        );
+    }
+
     /**
-     * Proposal mode rendering - Formatting for academic proposals.
-     * Delegates complex rendering logic to ProposalRenderer.
+     * Scrolls the preview to the element rendered from the top visible source line.
+     * Blocks carry their source line (data-line), so the preliminary pages of
+     * proposal mode do not offset the position.
+     */
+    private void syncPreviewScroll() {
+        if (getVisibleParagraphs().isEmpty()) return;
+        // Paragraphs are source lines
+        int firstLine = firstVisibleParToAllParIndex();
+        int lastLine = lastVisibleParToAllParIndex();
+        String script;
+        if (firstLine > 0 && lastLine == getParagraphs().size() - 1) {
+            // Keep the ends aligned: the last lines may not fill the editor
+            script = "window.scrollTo(0, document.body.scrollHeight);";
+        } else {
+            script = "if (window.mdPreview) mdPreview.scrollToLine(" + firstLine + ");";
+        }
+        try {
+            webview.getEngine().executeScript(script);
+        } catch (RuntimeException e) {
+            // Page still loading; the next scroll will sync
+        }
+    }
+
+    /**
+     * Applies a rendered document to the WebView and publishes its statistics.
+     * The page is patched in place when possible; a full reload only happens
+     * when the template, mode or front matter changes.
      */
-    private void renderProposalMode(String newText) {
-        String fullHtml = new ProposalRenderer().render(newText);
-        webview.getEngine().loadContent(fullHtml);
+    private void showPreview(PreviewDocument document, long version) {
+        previewPatcher.show(document);
+        shownPreview = document;
+        shownVersion = version;
+        stats.set(document.getStats());
+        wordCount.set(document.getStats().getWords());
     }
 
 
@@ -0,0 +1,248 @@
+package com.mdwriter.app;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads files for the editor on a background thread.
+ *
+ * Responsibilities:
+ * - Reading the file off the FX thread: in chunks, or memory-mapped for big files.
+ * - Sniffing the first bytes so binary files are never put into the editor.
+ * - Cancelling the previous load when another file is requested.
+ * - Hashing the bytes read, so later changes by other programs can be recognized.
+ * - Publishing progress and a status message for the UI; failures go to the status bar.
+ *
+ * Methods must be called on the FX thread.
+ */
+public class FileLoader {
+
+    // Bytes inspected to tell text from binary content
+    private static final int SNIFF_BYTES = 8000;
+    // Share of NULs, control characters and invalid UTF-8 in the sample above which a file is binary
+    private static final double BINARY_RATIO = 0.1;
+    // Files above this size are memory-mapped region by region instead of read into a buffer
+    private static final long MAP_THRESHOLD = 4L << 20;
+    private static final int MAP_REGION_BYTES = 64 << 20;
+    private static final int READ_CHUNK_BYTES = 1 << 20;
+
+    /**
+     * Thrown by a load when the file does not look like text.
+     */
+    public static class BinaryContentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public BinaryContentException(File file) {
+            super(file.getName() + " is not a text file");
+        }
+    }
+
+    /**
+     * Told on the FX thread when a file has been loaded.
+     */
+    public interface LoadListener {
+        /**
+         * @param hash The hash of the bytes the text was decoded from.
+         */
+        void loaded(String text, ContentHash hash);
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-open");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReadOnlyBooleanWrapper loading = new ReadOnlyBooleanWrapper(false);
+    private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper("");
+    private LoadTask current;
+
+    /**
+     * Starts loading a file, cancelling any load still in progress.
+     *
+     * @param onLoaded Receives the text on the FX thread, unless the load is cancelled or fails.
+     */
+    public void load(File file, LoadListener onLoaded) {
+        cancel();
+        LoadTask task = new LoadTask(file);
+        current = task;
+        task.setOnSucceeded(event -> {
+            finished(task, "");
+            onLoaded.loaded(task.getValue(), task.hash);
+        });
+        task.setOnFailed(event -> {
+            if (task != current) {
+                return; // Superseded by another file
+            }
+            finished(task, "");
+            Throwable error = task.getException();
+            if (error instanceof BinaryContentException) {
+                StatusReporter.shared().report(error.getMessage());
+            } else {
+                StatusReporter.shared().error("Could not open " + file.getName(), error);
+            }
+        });
+        progress.bind(task.progressProperty());
+        loading.set(true);
+        message.set("Opening " + file.getName() + "…");
+        worker.execute(task);
+    }
+
+    /**
+     * Cancels the load in progress, if any.
+     */
+    public void cancel() {
+        if (current != null) {
+            current.cancel();
+            finished(current, "");
+        }
+    }
+
+    public ReadOnlyBooleanProperty loadingProperty() {
+        return loading.getReadOnlyProperty();
+    }
+
+    /**
+     * Progress of the current load, from 0 to 1 (-1 while the size is unknown).
+     */
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    /**
+     * What the loader is doing. Why a file could not be opened goes to the {@link StatusReporter}.
+     */
+    public ReadOnlyStringProperty messageProperty() {
+        return message.getReadOnlyProperty();
+    }
+
+    private void finished(LoadTask task, String status) {
+        if (task != current) {
+            return; // A newer load owns the status
+        }
+        current = null;
+        progress.unbind();
+        progress.set(0);
+        loading.set(false);
+        message.set(status);
+    }
+
+    private static final class LoadTask extends Task<String> {
+        private final File file;
+        // Set by the background thread before the task succeeds
+        private volatile ContentHash hash;
+
+        LoadTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected String call() throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE - 8) {
+                    throw new IOException(file.getName() + " is too large to edit");
+                }
+                if (isBinary(channel, size)) {
+                    throw new BinaryContentException(file);
+                }
+                return decode(channel, size);
+            }
+        }
+
+        private boolean isBinary(FileChannel channel, long size) throws IOException {
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, SNIFF_BYTES));
+            while (sample.hasRemaining() && channel.read(sample, sample.position()) >= 0) {
+                // Read until the sample is full or the file ends
+            }
+            sample.flip();
+            for (int i = 0; i < sample.limit(); i++) {
+                if (sample.get(i) == 0) return true;
+            }
+            CharBuffer chars = CharBuffer.allocate(sample.limit());
+            StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(sample, chars, sample.limit() == size);
+            chars.flip();
+            int suspicious = 0;
+            for (int i = 0; i < chars.limit(); i++) {
+                char c = chars.get(i);
+                if (c == '\uFFFD' || (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f') || c == 0x7F) {
+                    suspicious++;
+                }
+            }
+            return suspicious > chars.limit() * BINARY_RATIO;
+        }
+
+        private String decode(FileChannel channel, long size) throws IOException {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            MessageDigest digest = ContentHash.newDigest();
+            StringBuilder text = new StringBuilder((int) size);
+            CharBuffer chars = CharBuffer.allocate(READ_CHUNK_BYTES);
+            boolean mapped = size > MAP_THRESHOLD;
+            ByteBuffer buffer = mapped ? null : ByteBuffer.allocate(READ_CHUNK_BYTES);
+
+            long position = 0;
+            boolean ended = false;
+            while (!ended && position < size) {
+                if (isCancelled()) {
+                    return null;
+                }
+                ByteBuffer input;
+                if (mapped) {
+                    input = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION_BYTES, size - position));
+                } else {
+                    buffer.clear();
+                    if (channel.read(buffer, position) < 0) break; // The file shrank meanwhile
+                    buffer.flip();
+                    input = buffer;
+                }
+                ended = position + input.limit() >= size;
+                CoderResult result;
+                do {
+                    result = decoder.decode(input, chars, ended);
+                    chars.flip();
+                    text.append(chars);
+                    chars.clear();
+                } while (result.isOverflow());
+                // A character split across chunks is left unconsumed and read again with the next one
+                ByteBuffer consumed = input.duplicate();
+                consumed.flip();
+                digest.update(consumed);
+                position += input.position();
+                updateProgress(position, size);
+            }
+            if (!ended) {
+                decoder.decode(ByteBuffer.allocate(0), chars, true);
+            }
+            decoder.flush(chars);
+            chars.flip();
+            text.append(chars);
+            hash = ContentHash.of(digest);
+            return text.toString();
+        }
+    }
+}
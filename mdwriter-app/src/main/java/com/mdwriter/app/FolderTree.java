@@ -1,18 +1,33 @@
 package com.mdwriter.app;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
 
-import javafx.concurrent.Task;
+import javafx.animation.PauseTransition;
 import javafx.scene.Cursor;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.scene.control.cell.TextFieldTreeCell;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
 
 /**
@@ -21,6 +36,15 @@ import javafx.util.StringConverter;
  */
 public class FolderTree {
   private TreeView<FileItem> treeView;
+  private File rootDirectory;
+  // Directory listings and deletes share the bounded workspace I/O scheduler
+  private final WorkspaceIO io = WorkspaceIO.shared();
+  // The snapshot is saved in the background once the tree has been still for a moment,
+  // so a crash or a killed process still leaves a recent one for the next launch
+  private static final Duration SNAPSHOT_SAVE_DELAY = Duration.seconds(3);
+  private final PauseTransition snapshotSave = new PauseTransition(SNAPSHOT_SAVE_DELAY);
+  private boolean snapshotWriting = false;
+  private boolean snapshotStale = false;
 
   // NOTE: Bug fix here. Fields are no longer final and setters now work
   // correctly.
@@ -31,11 +55,21 @@ public class FolderTree {
     private boolean isNewFileCreated;
     private boolean isNewFolderCreated;
     private boolean isRenamed;
+    private final long lastModified;
+    private final long size;
+    // For a folder, its modification time when its entries were last listed, or -1
+    private long listedModified = -1;
 
     public FileItem(String name, String location, boolean isDirectory) {
+      this(name, location, isDirectory, 0, 0);
+    }
+
+    public FileItem(String name, String location, boolean isDirectory, long lastModified, long size) {
       this.name = name;
       this.location = location;
       this.isDirectory = isDirectory;
+      this.lastModified = lastModified;
+      this.size = size;
       this.isNewFileCreated = false;
       this.isNewFolderCreated = false;
       this.isRenamed = false;
@@ -66,6 +100,22 @@ public class FolderTree {
       return isRenamed;
     }
 
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getListedModified() {
+      return listedModified;
+    }
+
+    public void setListedModified(long listedModified) {
+      this.listedModified = listedModified;
+    }
+
     public void setName(String name) {
       this.name = name;
     }
@@ -99,16 +149,26 @@ public class FolderTree {
     }
   }
 
+  // Listed children are pushed to the tree in batches, growing from the first size to the maximum
+  private static final int FIRST_BATCH_SIZE = 256;
+  private static final int MAX_BATCH_SIZE = 8192;
+  // Up to this many new entries found by a sync are inserted one by one; more are merged at once
+  private static final int MAX_SINGLE_INSERTS = 32;
+  private static final Comparator<TreeItem<FileItem>> BY_VALUE = Comparator.comparing(TreeItem::getValue);
+
   // NOTE 1: This is a placeholder item to show the expansion arrow on folders
   // that haven't been loaded yet.
   private final TreeItem<FileItem> DUMMY_NODE = new TreeItem<>();
 
   private TreeItem<FileItem> createNode(File file) {
-    FileItem fileItem = new FileItem(file.getName(), file.getPath(), file.isDirectory());
+    return createNode(new FileItem(file.getName(), file.getPath(), file.isDirectory()));
+  }
+
+  private TreeItem<FileItem> createNode(FileItem fileItem) {
     TreeItem<FileItem> item = new TreeItem<>(fileItem);
 
     // NOTE 2: If it's a directory, add the dummy node so it can be expanded.
-    if (file.isDirectory()) {
+    if (fileItem.isDirectory()) {
       item.getChildren().add(DUMMY_NODE);
 
       // NOTE 3: Add a listener to load contents on expansion.
@@ -116,6 +176,9 @@ public class FolderTree {
         // Load children only when expanded for the first time.
         if (isNowExpanded && item.getChildren().contains(DUMMY_NODE)) {
           loadChildrenInBackground(item);
+        } else if (!isNowExpanded && io.cancel(item)) {
+          // Collapsed while loading: drop the load and load again on the next expansion
+          item.getChildren().setAll(DUMMY_NODE);
         }
       });
     }
@@ -124,6 +187,8 @@ public class FolderTree {
 
   /**
    * Loads children of a directory on a background thread to prevent UI freezing.
+   * A load started earlier for the same directory is cancelled, so its result never
+   * overwrites a newer one.
    * @param parent The parent TreeItem to populate.
    */
   private void loadChildrenInBackground(TreeItem<FileItem> parent) {
@@ -132,45 +197,255 @@ public class FolderTree {
     TreeItem<FileItem> loadingNode = new TreeItem<>(loadingItem);
     parent.getChildren().setAll(loadingNode);
 
-    // NOTE 4: This Task runs on a background thread, preventing UI freeze.
-    Task<Void> task = new Task<>() {
-      @Override
-      protected Void call() throws Exception {
-        File file = new File(parent.getValue().getLocation());
-        File[] files = file.listFiles();
-
-        if (files != null) {
-          // This runs in the background
-          var children = new java.util.ArrayList<TreeItem<FileItem>>();
-          for (File f : files) {
-            if (!f.isHidden()) { // Optional: hide hidden files
-              children.add(createNode(f));
-            }
-          }
-          children.sort(Comparator.comparing(TreeItem::getValue));
-
-          // NOTE 5: This updates the UI safely on the JavaFX thread when done.
-          javafx.application.Platform.runLater(() -> {
-            parent.getChildren().setAll(children);
-          });
-        } else {
-          javafx.application.Platform.runLater(() -> {
-            parent.getChildren().clear(); // Clear loading message on failure
-          });
+    // NOTE 4: The listing runs on the workspace I/O scheduler, preventing UI freeze.
+    // Entries are streamed with a single stat each and pushed to the tree in sorted batches,
+    // so big folders fill in progressively; "Loading..." stays last until the listing ends.
+    Path directory = Path.of(parent.getValue().getLocation());
+    io.submit(parent, job -> listChildren(directory, job,
+        batch -> job.publish(() -> mergeChildren(parent, loadingNode, batch, false))), rest -> {
+      // NOTE 5: This updates the UI on the JavaFX thread, only if this is still the latest load.
+      if (rest != null) {
+        mergeChildren(parent, loadingNode, rest.entries, true);
+        parent.getValue().setListedModified(rest.directoryModified);
+      }
+    }, error -> {
+      StatusReporter.shared().error("Could not list " + directory.getFileName(), error);
+      parent.getChildren().clear(); // Clear loading message on failure
+    });
+  }
+
+  /**
+   * The entries of a directory, and the directory's modification time from before it was listed.
+   */
+  private static final class Listing {
+    final long directoryModified;
+    final List<TreeItem<FileItem>> entries;
+
+    Listing(long directoryModified, List<TreeItem<FileItem>> entries) {
+      this.directoryModified = directoryModified;
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * Lists the visible entries of a directory, with a single stat per entry. Runs in the background.
+   * @param onBatch Receives sorted batches of growing size while the listing runs, or null to
+   *                return everything at the end.
+   * @return The sorted entries not passed to onBatch, or null if the job was cancelled.
+   */
+  private Listing listChildren(Path directory, WorkspaceIO.Job job,
+      Consumer<List<TreeItem<FileItem>>> onBatch) throws IOException {
+    // Taken first: a change made while listing leaves the folder looking modified
+    long directoryModified = Files.getLastModifiedTime(directory).toMillis();
+    List<TreeItem<FileItem>> batch = new ArrayList<>();
+    int batchSize = FIRST_BATCH_SIZE;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        if (job.isCancelled()) {
+          return null; // The result is dropped anyway
+        }
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(entry, WorkspaceFiles.LISTING_ATTRIBUTES);
+        } catch (IOException e) {
+          continue; // Deleted meanwhile, or not accessible
+        }
+        if (WorkspaceFiles.isHidden(entry, attributes)) { // Optional: hide hidden files
+          continue;
+        }
+        batch.add(createNode(new FileItem(entry.getFileName().toString(), entry.toString(),
+            attributes.isDirectory(), attributes.lastModifiedTime().toMillis(), attributes.size())));
+        if (onBatch != null && batch.size() >= batchSize) {
+          onBatch.accept(sortBatch(batch));
+          batch = new ArrayList<>();
+          batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
         }
+      }
+    }
+    return new Listing(directoryModified, sortBatch(batch));
+  }
+
+  private static List<TreeItem<FileItem>> sortBatch(List<TreeItem<FileItem>> batch) {
+    batch.sort(BY_VALUE);
+    return batch;
+  }
+
+  /**
+   * Merges a sorted batch into the children already shown for a folder.
+   * @param loadingNode The loading placeholder shown while the folder loads, or null.
+   * @param last true for the final batch, which also removes the loading placeholder.
+   */
+  private static void mergeChildren(TreeItem<FileItem> parent, TreeItem<FileItem> loadingNode,
+      List<TreeItem<FileItem>> batch, boolean last) {
+    List<TreeItem<FileItem>> shown = parent.getChildren();
+    List<TreeItem<FileItem>> merged = new ArrayList<>(shown.size() + batch.size() + 1);
+    int i = 0;
+    int j = 0;
+    while (i < shown.size() || j < batch.size()) {
+      TreeItem<FileItem> current = i < shown.size() ? shown.get(i) : null;
+      if (current != null && current == loadingNode) {
+        i++;
+      } else if (current != null
+          && (j == batch.size() || current.getValue().compareTo(batch.get(j).getValue()) <= 0)) {
+        merged.add(current);
+        i++;
+      } else {
+        merged.add(batch.get(j++));
+      }
+    }
+    if (!last) {
+      merged.add(loadingNode);
+    }
+    parent.getChildren().setAll(merged);
+  }
+
+  /**
+   * Applies changes made on disk to the folders shown in the tree. Folders that were never
+   * expanded are left alone: they are listed when expanded.
+   * @param directories Folders whose entries changed, as absolute normalized paths.
+   * @param everything  true to re-list every loaded folder, e.g. after change events were lost.
+   */
+  public void sync(Set<Path> directories, boolean everything) {
+    if (treeView == null || treeView.getRoot() == null) {
+      return;
+    }
+    if (everything) {
+      resyncLoaded(treeView.getRoot());
+      return;
+    }
+    for (Path directory : directories) {
+      TreeItem<FileItem> item = find(directory);
+      if (item != null) {
+        resync(item);
+      }
+    }
+  }
+
+  private void resyncLoaded(TreeItem<FileItem> item) {
+    if (!isLoaded(item)) {
+      return;
+    }
+    resync(item);
+    for (TreeItem<FileItem> child : item.getChildren()) {
+      if (child.getValue() != null && child.getValue().isDirectory()) {
+        resyncLoaded(child);
+      }
+    }
+  }
+
+  /**
+   * @return The loaded tree item of a folder, or null if the folder is not shown or not loaded.
+   */
+  private TreeItem<FileItem> find(Path directory) {
+    TreeItem<FileItem> item = treeView.getRoot();
+    Path root = Path.of(item.getValue().getLocation()).toAbsolutePath().normalize();
+    if (!directory.startsWith(root)) {
+      return null;
+    }
+    for (Path name : root.relativize(directory)) {
+      if (name.toString().isEmpty() || !isLoaded(item)) {
+        break; // The root itself, or a folder below one that was never expanded
+      }
+      TreeItem<FileItem> next = null;
+      for (TreeItem<FileItem> child : item.getChildren()) {
+        FileItem value = child.getValue();
+        if (value != null && value.isDirectory() && value.getName().equals(name.toString())) {
+          next = child;
+          break;
+        }
+      }
+      if (next == null) {
         return null;
       }
-    };
+      item = next;
+    }
+    return isLoaded(item) && Path.of(item.getValue().getLocation()).toAbsolutePath().normalize().equals(directory)
+        ? item
+        : null;
+  }
 
-    new Thread(task).start();
+  private boolean isLoaded(TreeItem<FileItem> item) {
+    List<TreeItem<FileItem>> children = item.getChildren();
+    return !(children.size() == 1 && children.get(0) == DUMMY_NODE);
+  }
+
+  /**
+   * Lists a loaded folder again and applies only the differences to its children, so folders
+   * that are still there keep their expansion state and loaded contents. A load still in
+   * progress for the folder is replaced by this listing.
+   */
+  private void resync(TreeItem<FileItem> parent) {
+    Path directory = Path.of(parent.getValue().getLocation());
+    io.submit(parent, job -> listChildren(directory, job, null), listed -> {
+      if (listed != null) {
+        applyListing(parent, listed.entries);
+        parent.getValue().setListedModified(listed.directoryModified);
+      }
+    }, error -> {
+      if (!(error instanceof NoSuchFileException)) { // Deleted: its parent drops it
+        StatusReporter.shared().error("Could not list " + directory.getFileName(), error);
+      }
+    });
+  }
+
+  private static void applyListing(TreeItem<FileItem> parent, List<TreeItem<FileItem>> listed) {
+    Map<String, TreeItem<FileItem>> added = new HashMap<>();
+    for (TreeItem<FileItem> node : listed) {
+      added.put(node.getValue().getLocation(), node);
+    }
+    // Keep the children that still exist; the loading placeholder has no location and goes
+    Set<TreeItem<FileItem>> stale = new HashSet<>();
+    for (TreeItem<FileItem> child : parent.getChildren()) {
+      FileItem item = child.getValue();
+      if (item == null || item.isNewFileCreated() || item.isNewFolderCreated()) {
+        continue; // Being named by the user
+      }
+      TreeItem<FileItem> fresh = added.get(item.getLocation());
+      if (fresh != null && fresh.getValue().isDirectory() == item.isDirectory()) {
+        added.remove(item.getLocation());
+        FileItem current = fresh.getValue();
+        if (current.getLastModified() != item.getLastModified() || current.getSize() != item.getSize()) {
+          current.setListedModified(item.getListedModified());
+          child.setValue(current); // Same entry, newer attributes; the loaded contents stay
+        }
+      } else {
+        stale.add(child);
+      }
+    }
+    if (!stale.isEmpty()) {
+      parent.getChildren().removeIf(stale::contains);
+    }
+
+    List<TreeItem<FileItem>> newNodes = sortBatch(new ArrayList<>(added.values()));
+    if (newNodes.size() > MAX_SINGLE_INSERTS) {
+      mergeChildren(parent, null, newNodes, true);
+      return;
+    }
+    for (TreeItem<FileItem> node : newNodes) {
+      int index = Collections.binarySearch(parent.getChildren(), node, BY_VALUE);
+      parent.getChildren().add(index < 0 ? -index - 1 : index, node);
+    }
   }
 
   public TreeView<FileItem> getFolder(File dir) {
+    rootDirectory = dir;
     TreeItem<FileItem> rootItem = createNode(dir);
-    rootItem.setExpanded(true); // Start with the root expanded
 
-    // The initial load is now also done in the background
-    loadChildrenInBackground(rootItem);
+    // Paint the folders loaded in the last session as soon as the snapshot is read, then check
+    // them against the disk. Start with the root expanded; unless painted, this loads it.
+    io.submit(null, () -> WorkspaceSnapshot.read(dir), snapshot -> {
+      if (snapshot != null) {
+        paint(rootItem, snapshot);
+        reconcile(rootItem);
+      }
+      rootItem.setExpanded(true);
+      // Loads, expansions, renames, ...: any change bubbles up to the root
+      rootItem.addEventHandler(TreeItem.treeNotificationEvent(), event -> snapshotSave.playFromStart());
+    }, error -> {
+      StatusReporter.shared().error("Could not read the saved file tree", error);
+      rootItem.setExpanded(true);
+    });
+    snapshotSave.setOnFinished(event -> saveSnapshotInBackground());
 
     treeView = new TreeView<>(rootItem);
     treeView.setEditable(true);
@@ -204,11 +479,150 @@ public class FolderTree {
   }
 
   /**
-   * Refresh the tree by reloading the root's children
+   * Fills a folder, and the folders loaded below it, from the snapshot.
+   */
+  private void paint(TreeItem<FileItem> parent, WorkspaceSnapshot.Directory directory) {
+    Path location = Path.of(parent.getValue().getLocation());
+    List<TreeItem<FileItem>> children = new ArrayList<>(directory.getEntries().size());
+    for (WorkspaceSnapshot.Entry entry : directory.getEntries()) {
+      TreeItem<FileItem> child = createNode(new FileItem(entry.getName(),
+          location.resolve(entry.getName()).toString(), entry.isDirectory(), entry.getLastModified(), entry.getSize()));
+      if (entry.isDirectory() && entry.getContents() != null) {
+        paint(child, entry.getContents());
+      }
+      children.add(child);
+    }
+    parent.getChildren().setAll(children);
+    parent.getValue().setListedModified(directory.getLastModified());
+    parent.setExpanded(directory.isExpanded());
+  }
+
+  /**
+   * Lists again, in the background, the folders painted from the snapshot whose modification
+   * time changed since. Unchanged folders cost a single stat.
+   */
+  private void reconcile(TreeItem<FileItem> rootItem) {
+    List<TreeItem<FileItem>> painted = new ArrayList<>();
+    collectListed(rootItem, painted);
+    List<Path> locations = new ArrayList<>(painted.size());
+    long[] listedModified = new long[painted.size()];
+    for (int i = 0; i < painted.size(); i++) {
+      locations.add(Path.of(painted.get(i).getValue().getLocation()));
+      listedModified[i] = painted.get(i).getValue().getListedModified();
+    }
+    io.submit(null, () -> {
+      List<Integer> changed = new ArrayList<>();
+      for (int i = 0; i < locations.size(); i++) {
+        long modified;
+        try {
+          modified = Files.getLastModifiedTime(locations.get(i)).toMillis();
+        } catch (IOException e) {
+          modified = -1; // Gone: its parent changed too and drops it
+        }
+        if (modified != listedModified[i] && modified != -1) {
+          changed.add(i);
+        }
+      }
+      return changed;
+    }, changed -> {
+      for (int index : changed) {
+        resync(painted.get(index));
+      }
+    }, error -> StatusReporter.shared().error("Could not check the file tree against the disk", error));
+  }
+
+  private void collectListed(TreeItem<FileItem> item, List<TreeItem<FileItem>> listed) {
+    if (item.getValue() == null || item.getValue().getListedModified() < 0) {
+      return;
+    }
+    listed.add(item);
+    for (TreeItem<FileItem> child : item.getChildren()) {
+      collectListed(child, listed);
+    }
+  }
+
+  /**
+   * Saves the folders loaded in the tree, so the next launch can paint them at once.
+   * Called on exit; the write happens on the calling thread.
+   */
+  public void saveSnapshot() {
+    snapshotSave.stop();
+    WorkspaceSnapshot.Directory snapshot = currentSnapshot();
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      WorkspaceSnapshot.write(rootDirectory, snapshot);
+    } catch (IOException e) {
+      StatusReporter.shared().error("Could not save the file tree", e);
+    }
+  }
+
+  /**
+   * Saves the folders loaded in the tree in the background. A change made while a write is
+   * running is saved once it is done.
+   */
+  private void saveSnapshotInBackground() {
+    if (snapshotWriting) {
+      snapshotStale = true;
+      return;
+    }
+    WorkspaceSnapshot.Directory snapshot = currentSnapshot();
+    if (snapshot == null) {
+      return;
+    }
+    snapshotWriting = true;
+    File root = rootDirectory;
+    io.submit(null, () -> {
+      WorkspaceSnapshot.write(root, snapshot);
+      return null;
+    }, done -> snapshotWritten(), error -> {
+      snapshotWritten();
+      StatusReporter.shared().error("Could not save the file tree", error);
+    });
+  }
+
+  private void snapshotWritten() {
+    snapshotWriting = false;
+    if (snapshotStale) {
+      snapshotStale = false;
+      saveSnapshotInBackground();
+    }
+  }
+
+  /**
+   * @return The folders loaded in the tree, or null if the root was never listed.
+   */
+  private WorkspaceSnapshot.Directory currentSnapshot() {
+    if (treeView == null || treeView.getRoot() == null || treeView.getRoot().getValue().getListedModified() < 0) {
+      return null; // Nothing worth keeping
+    }
+    return snapshotOf(treeView.getRoot());
+  }
+
+  private static WorkspaceSnapshot.Directory snapshotOf(TreeItem<FileItem> parent) {
+    List<WorkspaceSnapshot.Entry> entries = new ArrayList<>(parent.getChildren().size());
+    for (TreeItem<FileItem> child : parent.getChildren()) {
+      FileItem item = child.getValue();
+      if (item == null || item.getLocation().isEmpty() || item.isNewFileCreated() || item.isNewFolderCreated()) {
+        continue; // Placeholders, and entries still being named
+      }
+      WorkspaceSnapshot.Directory contents = item.isDirectory() && item.getListedModified() >= 0
+          ? snapshotOf(child)
+          : null;
+      entries.add(new WorkspaceSnapshot.Entry(item.getName(), item.isDirectory(),
+          item.getLastModified(), item.getSize(), contents));
+    }
+    FileItem item = parent.getValue();
+    return new WorkspaceSnapshot.Directory(item.getListedModified(), parent.isExpanded(), entries);
+  }
+
+  /**
+   * Refresh the tree by listing the root again; expanded folders stay as they are
    */
   public void refresh() {
     if (treeView != null && treeView.getRoot() != null) {
-      loadChildrenInBackground(treeView.getRoot());
+      resync(treeView.getRoot());
     }
   }
 
@@ -316,28 +730,23 @@ public class FolderTree {
     Optional<ButtonType> result = confirmation.showAndWait();
 
     if (result.isPresent() && result.get() == ButtonType.OK) {
-      // Create a Task for the background deletion process
-      Task<Void> deleteTask = new Task<>() {
-        @Override
-        protected Void call() throws Exception {
-          // This is the long-running code that runs on a background thread
-          File fileToDelete = new File(selectedItem.getValue().getLocation());
-          FileUtils.forceDelete(fileToDelete);
-          return null; // Return null because we don't need a result value
-        }
-      };
+      // Stop any listing of the deleted folder
+      io.cancel(selectedItem);
+      File fileToDelete = new File(selectedItem.getValue().getLocation());
 
-      // What to do when the task SUCCEEDS (runs on the UI thread)
-      deleteTask.setOnSucceeded(event -> {
+      // Give immediate visual feedback to the user
+      treeView.getScene().setCursor(Cursor.WAIT);
+
+      // The deletion runs on the workspace I/O scheduler; the handlers run on the UI thread
+      io.submit(null, () -> {
+        FileUtils.forceDelete(fileToDelete);
+        return null; // Return null because we don't need a result value
+      }, done -> {
         // Remove the item from the TreeView
         selectedItem.getParent().getChildren().remove(selectedItem);
         // Restore the normal cursor
         treeView.getScene().setCursor(Cursor.DEFAULT);
-      });
-
-      // What to do when the task FAILS (runs on the UI thread)
-      deleteTask.setOnFailed(event -> {
-        Throwable e = deleteTask.getException(); // Get the exception from the task
+      }, e -> {
         Alert error = new Alert(Alert.AlertType.ERROR);
         error.setTitle("Error");
         error.setHeaderText("Failed to delete '" + selectedItem.getValue().getName() + "'");
@@ -346,12 +755,6 @@ public class FolderTree {
         // Restore the normal cursor
         treeView.getScene().setCursor(Cursor.DEFAULT);
       });
-
-      // Give immediate visual feedback to the user
-      treeView.getScene().setCursor(Cursor.WAIT);
-
-      // Start the task on a new thread
-      new Thread(deleteTask).start();
     }
   }
 }
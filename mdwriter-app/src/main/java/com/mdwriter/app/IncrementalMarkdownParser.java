@@ -0,0 +1,430 @@
+package com.mdwriter.app;
+
+import com.vladsch.flexmark.ast.AnchorRefTarget;
+import com.vladsch.flexmark.ast.util.AnchorRefTargetBlockVisitor;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.renderer.HeaderIdGenerator;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental parsing layer on top of Flexmark.
+ *
+ * The document is split into top-level chunks at blank lines (keeping fenced code,
+ * multi-line HTML, loose lists and front matter together). Each chunk is parsed and
+ * rendered on its own and cached by content, so an edit only re-parses the chunks it
+ * touched; unchanged chunks reuse their AST and HTML.
+ *
+ * Link reference and abbreviation definitions apply to the whole document, so they are
+ * appended to every chunk and are part of the cache key.
+ *
+ * Heading ids are assigned in one pass over the whole document, as Flexmark would: a
+ * second "Notes" heading gets "notes-1" even when it sits in another chunk. A cached chunk
+ * is only reused with the ids it was rendered with; when an edit shifts them (a duplicate
+ * heading added above), the chunk is rendered again.
+ *
+ * The text can be any CharSequence, typically a {@link DocumentSnapshot}. Each parse still
+ * walks every line to find the chunk boundaries, but only reads the first and last
+ * characters of most of them: a line is copied out only when it may open or close a block
+ * (lists, fences, raw HTML, front matter) or hold a definition. The chunks themselves are
+ * copied to look them up in the cache, so the text is copied once per parse, in pieces,
+ * never as one string.
+ *
+ * Not thread-safe: an instance is meant to be used from the render worker only.
+ */
+public class IncrementalMarkdownParser {
+
+    // [label]: url   and   *[ABBR]: text
+    private static final Pattern DEFINITION = Pattern.compile("^ {0,3}(\\[[^\\]]+\\]|\\*\\[[^\\]]+\\]):.*");
+    private static final Pattern LIST_ITEM = Pattern.compile("^ {0,3}([-+*]|\\d{1,9}[.)])(\\s.*|$)");
+    private static final Pattern FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,}).*");
+    // First characters of the lines that may start a list item, fence or HTML block
+    private static final String BLOCK_START_CHARS = "-+*0123456789`~<";
+    private static final Pattern RAW_HTML = Pattern.compile("^ {0,3}<(pre|script|style|textarea)(\\s|>|$).*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A parsed and rendered chunk. Immutable once built, so it can be shared across renders;
+     * values derived from it (outlines, statistics) are memoized alongside.
+     */
+    public static class ParsedChunk {
+        // Cache key: the source, plus the definitions it was parsed with
+        private final String key;
+        private final String source;
+        private final Document document;
+        private final List<Node> nodes;
+        private final List<String> html;
+        // Text of each heading, and the id it was rendered with (null when it has none)
+        private final List<String> headingTexts;
+        private final List<String> headingIds;
+        private final Map<Class<?>, Object> derived = new HashMap<>();
+
+        ParsedChunk(String key, String source, Document document, List<Node> nodes, List<String> html,
+                    List<String> headingTexts, List<String> headingIds) {
+            this.key = key;
+            this.source = source;
+            this.document = document;
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.html = Collections.unmodifiableList(html);
+            this.headingTexts = headingTexts;
+            this.headingIds = headingIds;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public Document getDocument() {
+            return document;
+        }
+
+        /**
+         * @return The top-level nodes of this chunk (definitions included).
+         */
+        public List<Node> getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return The HTML of each top-level node, parallel to {@link #getNodes()}.
+         */
+        public List<String> getHtml() {
+            return html;
+        }
+
+        /**
+         * @return The id of each heading of this chunk, in document order; null for a heading without one.
+         */
+        public List<String> getHeadingIds() {
+            return Collections.unmodifiableList(headingIds);
+        }
+
+        /**
+         * Returns a value computed from this chunk, computing it only the first time.
+         *
+         * @param type    The kind of value; one value is kept per type.
+         * @param compute Builds the value from the chunk.
+         */
+        public <T> T derive(Class<T> type, Function<ParsedChunk, T> compute) {
+            return type.cast(derived.computeIfAbsent(type, key -> compute.apply(this)));
+        }
+    }
+
+    /**
+     * A chunk positioned in the current document.
+     */
+    public static class Block {
+        private final ParsedChunk chunk;
+        private final int startLine;
+
+        Block(ParsedChunk chunk, int startLine) {
+            this.chunk = chunk;
+            this.startLine = startLine;
+        }
+
+        public ParsedChunk getChunk() {
+            return chunk;
+        }
+
+        /**
+         * @return The 0-based source line where this chunk starts.
+         */
+        public int getStartLine() {
+            return startLine;
+        }
+    }
+
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+    // Chunks of the previous parse, keyed by source (+ definitions); one per set of heading ids
+    private Map<String, List<ParsedChunk>> cache = new HashMap<>();
+
+    public IncrementalMarkdownParser(Parser parser, HtmlRenderer renderer) {
+        this.parser = parser;
+        // Nodes are rendered one by one; outside of a Document, Flexmark only renders
+        // links (inline and reference) with this flag set
+        MutableDataSet options = new MutableDataSet(renderer.getOptions());
+        options.set(HtmlRenderer.DO_NOT_RENDER_LINKS, true);
+        this.renderer = HtmlRenderer.builder(options).build();
+    }
+
+    /**
+     * Parses the document, reusing every chunk that did not change since the last call.
+     *
+     * @param text The complete Markdown source.
+     * @return The chunks in document order.
+     */
+    public List<Block> parse(CharSequence text) {
+        List<int[]> ranges = split(text);
+
+        StringBuilder definitions = new StringBuilder();
+        for (int[] range : ranges) {
+            collectDefinitions(text, range, definitions);
+        }
+        String context = definitions.toString();
+
+        Map<String, List<ParsedChunk>> next = new HashMap<>();
+        List<Block> blocks = new ArrayList<>(ranges.size());
+        // Fed with every heading in document order, so duplicates get -1, -2 across chunks
+        HeaderIdGenerator headerIds = new HeaderIdGenerator(renderer.getOptions());
+        for (int[] range : ranges) {
+            String source = text.subSequence(range[0], range[1]).toString();
+            String key = context.isEmpty() ? source : source + '\u0000' + context;
+
+            List<ParsedChunk> known = new ArrayList<>(next.getOrDefault(key, List.of()));
+            known.addAll(cache.getOrDefault(key, List.of()));
+            ParsedChunk chunk = null;
+            if (known.isEmpty()) {
+                chunk = parseChunk(key, source, context, headerIds, null);
+            } else {
+                List<String> ids = assignIds(known.get(0).headingTexts, headerIds);
+                for (ParsedChunk candidate : known) {
+                    if (candidate.headingIds.equals(ids)) {
+                        chunk = candidate;
+                        break;
+                    }
+                }
+                if (chunk == null) chunk = parseChunk(key, source, context, headerIds, ids);
+            }
+            List<ParsedChunk> variants = next.computeIfAbsent(key, k -> new ArrayList<>(1));
+            if (!variants.contains(chunk)) variants.add(chunk);
+            blocks.add(new Block(chunk, range[2]));
+        }
+
+        // Only keep what the current document uses
+        cache = next;
+        return blocks;
+    }
+
+    /**
+     * Makes chunks parsed for another document available to the next parse, e.g. when a
+     * document is reopened. Chunks the next parse does not use are dropped again.
+     */
+    public void prime(List<ParsedChunk> chunks) {
+        for (ParsedChunk chunk : chunks) {
+            List<ParsedChunk> variants = cache.computeIfAbsent(chunk.key, k -> new ArrayList<>(1));
+            if (!variants.contains(chunk)) variants.add(chunk);
+        }
+    }
+
+    /**
+     * Parses and renders a chunk with the given heading ids.
+     *
+     * @param ids The ids of its headings, or null to take them from the generator.
+     */
+    private ParsedChunk parseChunk(String key, String source, String context, HeaderIdGenerator headerIds, List<String> ids) {
+        Document document = parser.parse(context.isEmpty() ? source : source + "\n\n" + context);
+        List<AnchorRefTarget> targets = new ArrayList<>();
+        new AnchorRefTargetBlockVisitor() {
+            @Override
+            protected void visit(AnchorRefTarget target) {
+                targets.add(target);
+            }
+        }.visit(document);
+        List<String> texts = new ArrayList<>(targets.size());
+        for (AnchorRefTarget target : targets) {
+            texts.add(target.getAnchorRefText());
+        }
+        if (ids == null) ids = assignIds(texts, headerIds);
+        // The renderer only generates ids for headings that have none
+        for (int i = 0; i < targets.size(); i++) {
+            if (ids.get(i) != null) targets.get(i).setAnchorRefId(ids.get(i));
+        }
+
+        List<Node> nodes = new ArrayList<>();
+        List<String> html = new ArrayList<>();
+        for (Node child : document.getChildren()) {
+            nodes.add(child);
+            html.add(renderer.render(child));
+        }
+        return new ParsedChunk(key, source, document, nodes, html, texts, ids);
+    }
+
+    private static List<String> assignIds(List<String> texts, HeaderIdGenerator headerIds) {
+        List<String> ids = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            ids.add(headerIds.getId(text));
+        }
+        return ids;
+    }
+
+    private static void collectDefinitions(CharSequence text, int[] range, StringBuilder out) {
+        int lineStart = range[0];
+        while (lineStart < range[1]) {
+            int lineEnd = nextLineBreak(text, lineStart);
+            if (lineEnd < 0 || lineEnd > range[1]) lineEnd = range[1];
+            int first = lineStart;
+            while (first < lineEnd && first - lineStart < 4 && text.charAt(first) == ' ') first++;
+            // Definitions start with [label] or *[ABBR]; other lines are not copied
+            if (first < lineEnd && (text.charAt(first) == '[' || text.charAt(first) == '*')) {
+                String line = text.subSequence(lineStart, lineEnd).toString();
+                if (line.indexOf("]:") > 0 && DEFINITION.matcher(line).matches()) {
+                    out.append(line).append('\n');
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Splits the source into chunks that Markdown parses independently.
+     *
+     * @return {start offset, end offset, start line} for each chunk, trailing blank lines excluded.
+     */
+    static List<int[]> split(CharSequence text) {
+        List<int[]> chunks = new ArrayList<>();
+
+        int chunkStart = -1;     // offset of the first line of the open chunk
+        int chunkEnd = -1;       // end offset of its last non-blank line
+        int chunkLine = -1;
+        boolean chunkIsList = false;
+        boolean blankSeen = false;
+        String closer = null;    // line that closes the open fence / raw block
+        boolean frontMatter = false;
+
+        int lineNumber = 0;
+        int lineStart = 0;
+        while (lineStart <= text.length()) {
+            int lineEnd = nextLineBreak(text, lineStart);
+            if (lineEnd < 0) lineEnd = text.length();
+            // The line without leading and trailing whitespace is [first, last)
+            int first = lineStart;
+            while (first < lineEnd && text.charAt(first) <= ' ') first++;
+            int last = lineEnd;
+            while (last > first && text.charAt(last - 1) <= ' ') last--;
+
+            if (lineNumber == 0 && rangeEquals(text, first, last, "---")) {
+                // YAML front matter runs until the closing --- or ...
+                frontMatter = true;
+                chunkStart = lineStart;
+                chunkEnd = lineEnd;
+                chunkLine = 0;
+            } else if (frontMatter) {
+                chunkEnd = lineEnd;
+                if (rangeEquals(text, first, last, "---") || rangeEquals(text, first, last, "...")) {
+                    frontMatter = false;
+                    chunks.add(new int[] { chunkStart, chunkEnd, chunkLine });
+                    chunkStart = -1;
+                }
+            } else if (closer != null) {
+                chunkEnd = lineEnd;
+                if (closesBlock(text, first, last, closer)) {
+                    closer = null;
+                }
+            } else if (first == last) {
+                blankSeen = chunkStart >= 0;
+            } else {
+                // Only lines starting like a list item, fence or HTML block need a closer look
+                String line = BLOCK_START_CHARS.indexOf(text.charAt(first)) >= 0
+                    ? text.subSequence(lineStart, lineEnd).toString() : null;
+                boolean indented = first > lineStart && (text.charAt(lineStart) == ' ' || text.charAt(lineStart) == '\t');
+                if (chunkStart >= 0 && blankSeen && !continuesChunk(line, indented, chunkIsList)) {
+                    chunks.add(new int[] { chunkStart, chunkEnd, chunkLine });
+                    chunkStart = -1;
+                }
+                if (chunkStart < 0) {
+                    chunkStart = lineStart;
+                    chunkLine = lineNumber;
+                    chunkIsList = line != null && LIST_ITEM.matcher(line).matches();
+                }
+                blankSeen = false;
+                chunkEnd = lineEnd;
+                closer = line == null ? null : openedBlock(line);
+            }
+
+            lineStart = lineEnd + 1;
+            lineNumber++;
+        }
+
+        if (chunkStart >= 0) {
+            chunks.add(new int[] { chunkStart, chunkEnd, chunkLine });
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The offset of the next '\n' at or after from, or -1.
+     */
+    private static int nextLineBreak(CharSequence text, int from) {
+        if (text instanceof String) {
+            return ((String) text).indexOf('\n', from);
+        }
+        if (text instanceof DocumentSnapshot) {
+            return ((DocumentSnapshot) text).nextLineBreak(from);
+        }
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Blank lines do not end indented continuations or loose lists.
+     *
+     * @param line The line, or null if it cannot start a list item.
+     */
+    private static boolean continuesChunk(String line, boolean indented, boolean chunkIsList) {
+        if (indented) return true;
+        return chunkIsList && line != null && LIST_ITEM.matcher(line).matches();
+    }
+
+    private static boolean rangeEquals(CharSequence text, int start, int end, String value) {
+        if (end - start != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The marker that closes the block opened on this line, or null.
+     */
+    private static String openedBlock(String line) {
+        if (FENCE.matcher(line).matches()) {
+            String trimmed = line.trim();
+            char marker = trimmed.charAt(0);
+            int length = 0;
+            while (length < trimmed.length() && trimmed.charAt(length) == marker) length++;
+            // A backtick fence cannot have backticks in its info string
+            if (marker == '`' && trimmed.indexOf('`', length) >= 0) return null;
+            return trimmed.substring(0, length);
+        }
+        int comment = line.indexOf("<!--");
+        if (comment >= 0 && line.indexOf("-->", comment + 4) < 0 && line.substring(0, comment).isBlank()) {
+            return "-->";
+        }
+        java.util.regex.Matcher raw = RAW_HTML.matcher(line);
+        if (raw.matches()) {
+            String end = "</" + raw.group(1).toLowerCase() + ">";
+            return line.toLowerCase().contains(end) ? null : end;
+        }
+        return null;
+    }
+
+    /**
+     * @param first Start of the line without leading whitespace.
+     * @param last  End of the line without trailing whitespace.
+     */
+    private static boolean closesBlock(CharSequence text, int first, int last, String closer) {
+        char marker = closer.charAt(0);
+        if (marker == '`' || marker == '~') {
+            // A closing fence is at least as long as the opening one, and nothing else
+            if (last - first < closer.length()) return false;
+            for (int i = first; i < last; i++) {
+                if (text.charAt(i) != marker) return false;
+            }
+            return true;
+        }
+        if (last - first < closer.length()) return false;
+        return text.subSequence(first, last).toString().toLowerCase().contains(closer);
+    }
+}
@@ -0,0 +1,96 @@
+package com.mdwriter.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Reads and parses files for the workspace indexes on a few dedicated threads.
+ *
+ * Responsibilities:
+ * - Bounding the threads the indexes use, together, to {@link #THREADS}: a build of every
+ *   index at startup does not take over the machine, nor the common fork-join pool that
+ *   parallel streams would share with the rest of the application.
+ * - Running an action for each item of a batch and waiting until all are done.
+ * - Running whole index jobs (builds, updates, and waits for a build) on threads of their own,
+ *   away from the few slots of {@link WorkspaceIO}: a long build must not hold up folder
+ *   listings, searches or saves.
+ *
+ * {@link #forEach} must not be called from one of the reading threads.
+ */
+final class IndexWorkers {
+
+    // Indexing reads files and tokenizes them: a few threads keep both the disk and the CPU busy
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-index-" + THREAD_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Jobs mostly wait on the reading threads above or on each other; there are only ever a few
+    private static final AtomicInteger JOB_NUMBER = new AtomicInteger();
+    private static final ExecutorService JOBS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-index-job-" + JOB_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IndexWorkers() {
+    }
+
+    /**
+     * Runs an index job in the background. It may use {@link #forEach}.
+     */
+    static void submit(Runnable job) {
+        JOBS.execute(job);
+    }
+
+    /**
+     * Runs the action for every item, on up to {@link #THREADS} threads, and returns once all
+     * are done. If the calling thread is interrupted, the items not started yet are skipped.
+     *
+     * @throws RuntimeException The first exception thrown by the action, once the others are done.
+     */
+    static <T> void forEach(Collection<T> items, Consumer<T> action) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<T> list = List.copyOf(items);
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < list.size(); i = next.getAndIncrement()) {
+                action.accept(list.get(i));
+            }
+        };
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(THREADS, list.size()); i++) {
+            workers.add(EXECUTOR.submit(worker));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : workers) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                next.set(list.size()); // The workers stop after their current item
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtime ? runtime : new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,926 @@
+package com.mdwriter.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Image;
+import com.vladsch.flexmark.ast.Link;
+import com.vladsch.flexmark.ast.Reference;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.renderer.HeaderIdGenerator;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Index of the headings, links and image references of the Markdown files of the workspace.
+ *
+ * Responsibilities:
+ * - Extracting them with the same Flexmark parser setup as the preview, heading anchors
+ *   included, so a link to file.md#anchor is checked against the ids the preview generates.
+ * - Keeping, for each file, the files that link to it, for instant backlink lookup.
+ * - Finding broken links: targets that do not exist, or anchors the target has no heading for.
+ * - Rewriting the links to a renamed file or folder, keeping their relative or absolute form
+ *   and the escapes they were written with.
+ * - Building at startup from the index saved by the previous session (only files whose
+ *   modification time or size changed are parsed again, on the {@link IndexWorkers}),
+ *   updating single files and folders as they change, and saving itself in the workspace's
+ *   cache directory (see {@link WorkspaceFiles}). The saved index is loaded by the first
+ *   build or update, before that call changes anything.
+ *
+ * Paths inside the index are relative to the workspace, with '/' separators. Methods can be
+ * called from any thread; those reading or writing files must stay off the FX thread.
+ */
+public class LinkIndex {
+
+    private static final int MAGIC = 0x4D444C31; // "MDL1"
+
+    private static final Parser PARSER;
+
+    static {
+        MutableDataSet options = new MutableDataSet();
+        options.set(Parser.EXTENSIONS, Arrays.asList(
+            TablesExtension.create(),
+            AbbreviationExtension.create()
+        ));
+        PARSER = Parser.builder(options).build();
+    }
+
+    /**
+     * A heading of a file.
+     */
+    public static final class HeadingRef {
+        private final int level;
+        private final String text;
+        private final String anchor;
+        private final int line;
+
+        HeadingRef(int level, String text, String anchor, int line) {
+            this.level = level;
+            this.text = text;
+            this.anchor = anchor;
+            this.line = line;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return The id the preview gives the heading.
+         */
+        public String getAnchor() {
+            return anchor;
+        }
+
+        /**
+         * @return The 1-based line of the heading.
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * A link or image reference of a file.
+     */
+    public static final class LinkRef {
+        private final Path source;
+        private final String url;
+        private final String target;
+        private final String anchor;
+        private final int line;
+        private final boolean image;
+
+        LinkRef(Path source, String url, String target, String anchor, int line, boolean image) {
+            this.source = source;
+            this.url = url;
+            this.target = target;
+            this.anchor = anchor;
+            this.line = line;
+            this.image = image;
+        }
+
+        /**
+         * @return The file containing the link.
+         */
+        public Path getSource() {
+            return source;
+        }
+
+        /**
+         * @return The link destination as written.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return The anchor after '#', or an empty string.
+         */
+        public String getAnchor() {
+            return anchor;
+        }
+
+        /**
+         * @return The 1-based line of the link.
+         */
+        public int getLine() {
+            return line;
+        }
+
+        public boolean isImage() {
+            return image;
+        }
+
+        /**
+         * @return true if the link points to a file of the workspace rather than a web address.
+         */
+        public boolean isLocal() {
+            return target != null;
+        }
+    }
+
+    /**
+     * A replacement of a link destination in a file's text.
+     */
+    public static final class Edit {
+        private final int start;
+        private final int end;
+        private final String replacement;
+
+        Edit(int start, int end, String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public String getReplacement() {
+            return replacement;
+        }
+    }
+
+    private static final class Doc {
+        final long lastModified;
+        final long size;
+        final List<HeadingRef> headings;
+        // Stored with the target relative to the workspace, or null for web addresses
+        final List<LinkRef> links;
+
+        Doc(long lastModified, long size, List<HeadingRef> headings, List<LinkRef> links) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.headings = headings;
+            this.links = links;
+        }
+    }
+
+    private final Path root;
+    private final Path indexFile;
+
+    // Guarded by this
+    private final TreeMap<String, Doc> docs = new TreeMap<>();
+    // For each link target, the files linking to it; ordered so the targets below a folder are a range
+    private final TreeMap<String, Set<String>> backlinks = new TreeMap<>();
+    private boolean dirty = false;
+    // Held while the index is written to disk, so saves land in order
+    private final Object saveLock = new Object();
+    // Guarded by loadLock, held while the saved index is read so lookups are not blocked
+    private final Object loadLock = new Object();
+    private boolean loaded = false;
+
+    private volatile boolean ready = false;
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+
+    public LinkIndex(File rootDirectory) {
+        this(rootDirectory, pathFor(rootDirectory));
+    }
+
+    /**
+     * @param indexFile Where the index is saved and loaded from.
+     */
+    LinkIndex(File rootDirectory, Path indexFile) {
+        this.root = rootDirectory.toPath().toAbsolutePath().normalize();
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @return Where the index of a workspace is kept.
+     */
+    public static Path pathFor(File rootDirectory) {
+        return WorkspaceFiles.cacheDirectory(rootDirectory).resolve("links.index");
+    }
+
+    /**
+     * @return true once the index has been checked against every file of the workspace.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Waits until the index has been checked against every file of the workspace.
+     * Must not be called on the FX thread.
+     *
+     * @return false if the thread was interrupted first.
+     */
+    public boolean awaitReady() {
+        try {
+            readyLatch.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Loads the saved index, brings it up to date with the workspace and saves it again.
+     * Changed files are parsed in parallel. Also used to start over after change events were lost.
+     */
+    public void build() {
+        ensureLoaded();
+        Set<String> found = Collections.synchronizedSet(new HashSet<>());
+        indexTree(root, found);
+        synchronized (this) {
+            for (String path : new ArrayList<>(docs.keySet())) {
+                if (!found.contains(path) && !Files.exists(absolute(path))) {
+                    removeDoc(path);
+                }
+            }
+        }
+        ready = true;
+        readyLatch.countDown();
+        save();
+    }
+
+    /**
+     * Applies changes reported by the workspace watcher, or a save.
+     *
+     * @param directories Folders whose entries were created, deleted or renamed.
+     * @param files       Files and folders that were created or modified.
+     */
+    public void update(Collection<Path> directories, Collection<Path> files) {
+        ensureLoaded();
+        for (Path directory : directories) {
+            removeVanished(directory);
+        }
+        for (Path file : files) {
+            if (Files.isDirectory(file)) {
+                indexTree(file, null); // Created or moved in, with everything inside
+            } else if (isMarkdown(file) && file.startsWith(root)) {
+                indexFile(file);
+            }
+        }
+    }
+
+    /**
+     * Parses again every Markdown file below a folder that changed since it was indexed.
+     */
+    private void indexTree(Path start, Set<String> found) {
+        List<Path> changed = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return !dir.equals(root) && WorkspaceFiles.isHidden(dir, attributes) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && isMarkdown(file) && !WorkspaceFiles.isHidden(file, attributes)) {
+                        if (found != null) {
+                            found.add(relative(file));
+                        }
+                        if (!isCurrent(file, attributes)) {
+                            changed.add(file);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Unreadable or deleted meanwhile
+                }
+            });
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index the links of " + start.getFileName(), e);
+        }
+        IndexWorkers.forEach(changed, this::indexFile);
+    }
+
+    private void indexFile(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!isCurrent(file, attributes)) {
+                // The attributes were read first, so the text is at least as new as the recorded time
+                String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                String path = relative(file);
+                Doc doc = parse(path, text, attributes.lastModifiedTime().toMillis(), attributes.size());
+                synchronized (this) {
+                    Doc existing = docs.get(path);
+                    if (existing != null && existing.lastModified > doc.lastModified) {
+                        return; // A newer version was indexed meanwhile
+                    }
+                    putDoc(path, doc);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                removeDoc(relative(file));
+            }
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index the links of " + file.getFileName(), e);
+        }
+    }
+
+    /**
+     * Drops the indexed files below a folder whose entry in that folder is gone.
+     */
+    private void removeVanished(Path directory) {
+        if (!directory.startsWith(root)) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // The folder itself is gone: so is everything below it
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index the links of " + directory.getFileName(), e);
+            return;
+        }
+        String prefix = directory.equals(root) ? "" : relative(directory) + "/";
+        synchronized (this) {
+            for (String path : new ArrayList<>(docs.subMap(prefix, prefix + Character.MAX_VALUE).keySet())) {
+                int nameEnd = path.indexOf('/', prefix.length());
+                if (!names.contains(path.substring(prefix.length(), nameEnd < 0 ? path.length() : nameEnd))) {
+                    removeDoc(path);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(Path file, BasicFileAttributes attributes) {
+        Doc doc = docs.get(relative(file));
+        return doc != null && doc.lastModified == attributes.lastModifiedTime().toMillis() && doc.size == attributes.size();
+    }
+
+    private void putDoc(String path, Doc doc) {
+        removeDoc(path);
+        docs.put(path, doc);
+        for (LinkRef link : doc.links) {
+            if (link.target != null) {
+                backlinks.computeIfAbsent(link.target, key -> new TreeSet<>()).add(path);
+            }
+        }
+        dirty = true;
+    }
+
+    private void removeDoc(String path) {
+        Doc doc = docs.remove(path);
+        if (doc == null) {
+            return;
+        }
+        for (LinkRef link : doc.links) {
+            Set<String> sources = link.target == null ? null : backlinks.get(link.target);
+            if (sources != null) {
+                sources.remove(path);
+                if (sources.isEmpty()) {
+                    backlinks.remove(link.target);
+                }
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Extracts the headings and links of a file.
+     */
+    private Doc parse(String path, String text, long lastModified, long size) {
+        Document document = PARSER.parse(text);
+        // Same ids as the preview renders: assigned over the whole file, duplicates numbered
+        new HeaderIdGenerator().generateIds(document);
+        List<HeadingRef> headings = new ArrayList<>();
+        List<LinkRef> links = new ArrayList<>();
+        Path source = absolute(path);
+        for (Node node : document.getDescendants()) {
+            if (node instanceof Heading heading) {
+                headings.add(new HeadingRef(heading.getLevel(), heading.getText().toString(),
+                    heading.getAnchorRefId(), heading.getStartLineNumber() + 1));
+                continue;
+            }
+            BasedSequence url = urlOf(node);
+            if (url == null || url.isBlank()) {
+                continue;
+            }
+            String destination = url.toString();
+            links.add(new LinkRef(source, destination, resolve(path, pathPart(destination)),
+                anchorPart(destination), node.getStartLineNumber() + 1, node instanceof Image));
+        }
+        return new Doc(lastModified, size, headings, links);
+    }
+
+    /**
+     * @return The destination of a link, image or link reference definition, or null.
+     */
+    private static BasedSequence urlOf(Node node) {
+        if (node instanceof Link link) {
+            return link.getUrl();
+        } else if (node instanceof Image image) {
+            return image.getUrl();
+        } else if (node instanceof Reference reference) {
+            return reference.getUrl();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the file a link destination points to.
+     *
+     * @param source The file containing the link, relative to the workspace.
+     * @param path   The destination without query and anchor.
+     * @return The target relative to the workspace, or null for web addresses and targets
+     *         outside the workspace.
+     */
+    private String resolve(String source, String path) {
+        if (path.isEmpty()) {
+            return source; // An anchor in the same file
+        }
+        if (path.startsWith("//") || path.matches("^[A-Za-z][A-Za-z0-9+.-]*:.*")) {
+            return null; // http:, mailto:, ...
+        }
+        String decoded = percentDecode(path);
+        try {
+            Path target = decoded.startsWith("/")
+                ? root.resolve(decoded.substring(1))
+                : absolute(source).resolveSibling(decoded);
+            target = target.normalize();
+            return target.startsWith(root) && !target.equals(root) ? relative(target) : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static String pathPart(String destination) {
+        int end = destination.length();
+        int query = destination.indexOf('?');
+        int anchor = destination.indexOf('#');
+        if (query >= 0) end = Math.min(end, query);
+        if (anchor >= 0) end = Math.min(end, anchor);
+        return destination.substring(0, end);
+    }
+
+    private static String anchorPart(String destination) {
+        int anchor = destination.indexOf('#');
+        return anchor < 0 ? "" : percentDecode(destination.substring(anchor + 1));
+    }
+
+    /**
+     * Decodes %XX escapes as UTF-8; unlike URLDecoder, '+' stays a plus.
+     */
+    private static String percentDecode(String text) {
+        if (text.indexOf('%') < 0) {
+            return text;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int value = c == '%' && i + 2 < text.length() ? hexValue(text.charAt(i + 1), text.charAt(i + 2)) : -1;
+            if (value >= 0) {
+                bytes.write(value);
+                i += 2;
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static int hexValue(char high, char low) {
+        int h = Character.digit(high, 16);
+        int l = Character.digit(low, 16);
+        return h < 0 || l < 0 ? -1 : h * 16 + l;
+    }
+
+    /**
+     * @return The headings of a file, in order, or an empty list if it is not indexed.
+     */
+    public synchronized List<HeadingRef> headings(Path file) {
+        Doc doc = docs.get(relative(file.toAbsolutePath().normalize()));
+        return doc == null ? Collections.emptyList() : new ArrayList<>(doc.headings);
+    }
+
+    /**
+     * Finds the links from other files to a file. Only touches memory.
+     *
+     * @return The links, ordered by file and line.
+     */
+    public synchronized List<LinkRef> backlinks(Path file) {
+        String target = relative(file.toAbsolutePath().normalize());
+        List<LinkRef> found = new ArrayList<>();
+        for (String source : backlinks.getOrDefault(target, Collections.emptySet())) {
+            if (source.equals(target)) {
+                continue; // Anchors within the file itself
+            }
+            for (LinkRef link : docs.get(source).links) {
+                if (target.equals(link.target)) {
+                    found.add(link);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the local links whose target does not exist, or whose anchor matches no heading
+     * of the target. Checks the disk for targets that are not Markdown files (images, ...).
+     *
+     * @return The broken links, ordered by file and line.
+     */
+    public List<LinkRef> brokenLinks() {
+        List<LinkRef> candidates = new ArrayList<>();
+        List<LinkRef> broken = new ArrayList<>();
+        synchronized (this) {
+            for (Doc doc : docs.values()) {
+                for (LinkRef link : doc.links) {
+                    if (link.target == null) {
+                        continue;
+                    }
+                    Doc target = docs.get(link.target);
+                    if (target == null) {
+                        candidates.add(link); // Not an indexed file: look on disk below
+                    } else if (!link.anchor.isEmpty()
+                        && target.headings.stream().noneMatch(heading -> link.anchor.equals(heading.anchor))) {
+                        broken.add(link);
+                    }
+                }
+            }
+        }
+        for (LinkRef link : candidates) {
+            if (!Files.exists(absolute(link.target))) {
+                broken.add(link);
+            }
+        }
+        broken.sort(Comparator.comparing((LinkRef link) -> link.source).thenComparingInt(link -> link.line));
+        return broken;
+    }
+
+    /**
+     * Finds the files with links to a file or folder, or to anything below the folder.
+     * Only touches memory; call it before the index sees the rename. Until the index is
+     * {@link #isReady() ready}, files changed since the last session may be missing.
+     */
+    public synchronized List<Path> sourcesLinkingTo(Path target) {
+        String path = relative(target.toAbsolutePath().normalize());
+        Set<String> sources = new TreeSet<>(backlinks.getOrDefault(path, Collections.emptySet()));
+        for (Set<String> below : backlinks.subMap(path + "/", path + "/" + Character.MAX_VALUE).values()) {
+            sources.addAll(below);
+        }
+        List<Path> files = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            files.add(absolute(source));
+        }
+        return files;
+    }
+
+    /**
+     * Computes the changes to a file's text that make its links follow a rename. Destinations
+     * keep their form: relative ones stay relative, ones starting with '/' stay
+     * workspace-absolute, ones between '<' and '>' stay there, and anchors and queries are
+     * kept. See {@link #encodeLink} for the escaping.
+     *
+     * @param source Where the file was before the rename (it may be inside the renamed folder).
+     * @param text   The file's text.
+     * @param from   The renamed file or folder.
+     * @param to     Its new location.
+     * @return The replacements, in text order; empty if no link needs to change.
+     */
+    public List<Edit> linkEdits(Path source, String text, Path from, Path to) {
+        String sourceBefore = relative(source.toAbsolutePath().normalize());
+        String fromPath = relative(from.toAbsolutePath().normalize());
+        String toPath = relative(to.toAbsolutePath().normalize());
+        String sourceAfter = moved(sourceBefore, fromPath, toPath);
+
+        List<Edit> edits = new ArrayList<>();
+        for (Node node : PARSER.parse(text).getDescendants()) {
+            BasedSequence url = urlOf(node);
+            if (url == null || url.isBlank()) {
+                continue;
+            }
+            String destination = url.toString();
+            String path = pathPart(destination);
+            if (path.isEmpty()) {
+                continue; // Same-file anchors follow the file
+            }
+            String oldTarget = resolve(sourceBefore, path);
+            String newTarget = oldTarget == null ? null : moved(oldTarget, fromPath, toPath);
+            if (newTarget == null || newTarget.equals(resolve(sourceAfter, path))) {
+                continue; // Outside the workspace, or still right as written (e.g. a sibling inside a renamed folder)
+            }
+            boolean angleBrackets = url.getStartOffset() > 0 && text.charAt(url.getStartOffset() - 1) == '<';
+            String rewritten = path.startsWith("/")
+                ? "/" + encodeLink(newTarget, path.substring(1), angleBrackets)
+                : encodeLink(relativeLink(sourceAfter, newTarget), path, angleBrackets);
+            edits.add(new Edit(url.getStartOffset(), url.getStartOffset() + path.length(), rewritten));
+        }
+        edits.sort(Comparator.comparingInt(Edit::getStart));
+        return edits;
+    }
+
+    /**
+     * Rewrites on disk the links of other files to a renamed file or folder.
+     *
+     * @param sources Files linking to it, by their location before the rename
+     *                (from {@link #sourcesLinkingTo}).
+     * @return The number of files changed.
+     */
+    public int rewriteLinks(List<Path> sources, Path from, Path to) {
+        String fromPath = relative(from.toAbsolutePath().normalize());
+        String toPath = relative(to.toAbsolutePath().normalize());
+        int changed = 0;
+        for (Path source : sources) {
+            Path file = absolute(moved(relative(source), fromPath, toPath));
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                String text = new String(bytes, StandardCharsets.UTF_8);
+                List<Edit> edits = linkEdits(source, text, from, to);
+                if (edits.isEmpty()) {
+                    continue;
+                }
+                MessageDigest read = ContentHash.newDigest();
+                read.update(bytes);
+                // Not written if another program changed the file since it was read
+                byte[] rewritten = apply(text, edits).getBytes(StandardCharsets.UTF_8);
+                AtomicFiles.write(file, out -> out.write(rewritten), ContentHash.of(read));
+                indexFile(file);
+                changed++;
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile: nothing to fix
+            } catch (IOException e) {
+                StatusReporter.shared().error("Could not update the links in " + file.getFileName(), e);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return The text with the replacements made.
+     */
+    public static String apply(String text, List<Edit> edits) {
+        StringBuilder result = new StringBuilder(text.length() + 64);
+        int position = 0;
+        for (Edit edit : edits) {
+            result.append(text, position, edit.start).append(edit.replacement);
+            position = edit.end;
+        }
+        return result.append(text, position, text.length()).toString();
+    }
+
+    /**
+     * Writes a decoded path as a link destination. Segments the old destination already had
+     * are copied as written, so their escapes (or lack of them) are kept; new ones are
+     * percent-encoded where Markdown or the URL would read them differently: '%', '#', '?',
+     * '<', '>', '\', spaces and control characters, and outside angle brackets also parentheses.
+     * (The parser takes no spaces between angle brackets either.)
+     *
+     * @param path          The path, with '/' separators.
+     * @param oldPath       The path part of the old destination, as written.
+     * @param angleBrackets true if the destination is written between '<' and '>'.
+     */
+    static String encodeLink(String path, String oldPath, boolean angleBrackets) {
+        Map<String, String> asWritten = new HashMap<>();
+        for (String segment : oldPath.split("/", -1)) {
+            asWritten.putIfAbsent(percentDecode(segment), segment);
+        }
+        StringBuilder link = new StringBuilder(path.length() + 16);
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                link.append('/');
+            }
+            String written = asWritten.get(segments[i]);
+            link.append(written != null ? written : encodeSegment(segments[i], angleBrackets));
+        }
+        return link.toString();
+    }
+
+    private static String encodeSegment(String segment, boolean angleBrackets) {
+        StringBuilder encoded = new StringBuilder(segment.length() + 8);
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            boolean escape = c <= 0x20 || c == 0x7F || "%#?<>\\".indexOf(c) >= 0
+                || (!angleBrackets && (c == '(' || c == ')'));
+            if (escape) {
+                encoded.append(String.format("%%%02X", (int) c));
+            } else {
+                encoded.append(c);
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * @return Where a path is after a rename of from to to.
+     */
+    static String moved(String path, String from, String to) {
+        if (path.equals(from)) {
+            return to;
+        }
+        return path.startsWith(from + "/") ? to + path.substring(from.length()) : path;
+    }
+
+    /**
+     * @return The relative link from a file to another, with '/' separators.
+     */
+    static String relativeLink(String source, String target) {
+        int slash = source.lastIndexOf('/');
+        Path folder = Path.of(slash < 0 ? "" : source.substring(0, slash));
+        return folder.relativize(Path.of(target)).toString().replace(File.separatorChar, '/');
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private Path absolute(String path) {
+        return root.resolve(path.replace('/', File.separatorChar));
+    }
+
+    private static boolean isMarkdown(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".md") || name.endsWith(".markdown");
+    }
+
+    /**
+     * Writes the index if it changed since it was loaded or last saved. The index is only
+     * locked while it is copied into memory, not while the copy is written to disk.
+     */
+    public void save() {
+        synchronized (saveLock) {
+            byte[] bytes;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 << 10);
+                try (DataOutputStream out = new DataOutputStream(buffer)) {
+                    write(out);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e); // Writes to memory only
+                }
+                bytes = buffer.toByteArray();
+                dirty = false;
+            }
+            try {
+                Files.createDirectories(indexFile.getParent());
+                AtomicFiles.write(indexFile, out -> out.write(bytes), null);
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true; // Written again by the next save
+                }
+                StatusReporter.shared().error("Could not save the link index", e);
+            }
+        }
+    }
+
+    /**
+     * Format: header (magic, workspace path, number of files), then per file its relative
+     * path, modification time, size, headings (level, text, anchor, line) and links
+     * (flags, destination, line). Link targets are resolved again when loading.
+     */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(root.toString());
+        out.writeInt(docs.size());
+        for (Map.Entry<String, Doc> entry : docs.entrySet()) {
+            Doc doc = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(doc.lastModified);
+            out.writeLong(doc.size);
+            out.writeInt(doc.headings.size());
+            for (HeadingRef heading : doc.headings) {
+                out.writeByte(heading.level);
+                out.writeUTF(heading.text);
+                out.writeUTF(heading.anchor);
+                out.writeInt(heading.line);
+            }
+            out.writeInt(doc.links.size());
+            for (LinkRef link : doc.links) {
+                out.writeBoolean(link.image);
+                out.writeUTF(link.url);
+                out.writeInt(link.line);
+            }
+        }
+    }
+
+    /**
+     * Loads the saved index, once, before the first change is applied.
+     */
+    private void ensureLoaded() {
+        synchronized (loadLock) {
+            if (!loaded) {
+                loaded = true;
+                load();
+            }
+        }
+    }
+
+    /**
+     * Reads the index saved by the previous session; a missing or damaged one is ignored.
+     * Files indexed meanwhile keep their newer entry.
+     */
+    private void load() {
+        Map<String, Doc> saved = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(root.toString())) {
+                return; // Another format, or a workspace that was moved
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String source = in.readUTF();
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                int headingCount = in.readInt();
+                List<HeadingRef> headings = new ArrayList<>(Math.min(headingCount, 1 << 12));
+                for (int h = 0; h < headingCount; h++) {
+                    headings.add(new HeadingRef(in.readByte(), in.readUTF(), in.readUTF(), in.readInt()));
+                }
+                int linkCount = in.readInt();
+                List<LinkRef> links = new ArrayList<>(Math.min(linkCount, 1 << 12));
+                Path file = absolute(source);
+                for (int l = 0; l < linkCount; l++) {
+                    boolean image = in.readBoolean();
+                    String url = in.readUTF();
+                    int line = in.readInt();
+                    links.add(new LinkRef(file, url, resolve(source, pathPart(url)), anchorPart(url), line, image));
+                }
+                saved.put(source, new Doc(lastModified, size, headings, links));
+            }
+        } catch (NoSuchFileException e) {
+            return; // First launch
+        } catch (IOException | InvalidPathException e) {
+            // A damaged index only costs a full parse
+            StatusReporter.shared().error("Could not read the saved link index", e);
+            return;
+        }
+        synchronized (this) {
+            boolean changed = dirty;
+            for (Map.Entry<String, Doc> entry : saved.entrySet()) {
+                if (!docs.containsKey(entry.getKey())) {
+                    putDoc(entry.getKey(), entry.getValue());
+                }
+            }
+            // The saved file still matches unless updates came first
+            dirty = changed || docs.size() != saved.size();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import atlantafx.base.theme.Styles;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+/**
+ * The links panel.
+ * Lists the files linking to the open file (backlinks) and the links of the workspace that
+ * point nowhere: missing files or anchors without a matching heading. Choosing a link opens
+ * the file containing it.
+ */
+public class LinksPanel extends Dialog {
+  private final LinkIndex index;
+  private final Path root;
+  private final Consumer<File> onOpen;
+  private final WorkspaceIO io = WorkspaceIO.shared();
+  private final Label backlinksTitle = new Label();
+  private final ListView<LinkIndex.LinkRef> backlinks = new ListView<>();
+  private final Label brokenTitle = new Label();
+  private final ListView<LinkIndex.LinkRef> broken = new ListView<>();
+
+  public LinksPanel(LinkIndex index, File rootDirectory, Consumer<File> onOpen) {
+    super(420, -1);
+    this.index = index;
+    this.root = rootDirectory.toPath().toAbsolutePath().normalize();
+    this.onOpen = onOpen;
+
+    backlinksTitle.getStyleClass().add(Styles.TEXT_BOLD);
+    brokenTitle.getStyleClass().add(Styles.TEXT_BOLD);
+    for (ListView<LinkIndex.LinkRef> list : List.of(backlinks, broken)) {
+      list.setCellFactory(view -> new LinkCell());
+      list.setOnMouseClicked(event -> openSelected(list));
+      list.setOnKeyPressed(event -> {
+        if (event.getCode() == KeyCode.ENTER) {
+          openSelected(list);
+        }
+      });
+      VBox.setVgrow(list, Priority.ALWAYS);
+    }
+
+    VBox panel = new VBox(8, backlinksTitle, backlinks, brokenTitle, broken);
+    panel.setPadding(new Insets(10));
+    panel.prefHeightProperty().bind(heightProperty());
+    setAlignment(Pos.TOP_LEFT);
+    getChildren().add(panel);
+  }
+
+  /**
+   * Fills the panel for the open file. Backlinks come from memory at once; broken links
+   * need a look at the disk and arrive from the background.
+   *
+   * @param openFile The file open in the editor, or null.
+   */
+  public void refresh(File openFile) {
+    if (openFile == null) {
+      backlinksTitle.setText("Linked from");
+      backlinks.getItems().clear();
+    } else {
+      List<LinkIndex.LinkRef> links = index.backlinks(openFile.toPath());
+      backlinksTitle.setText("Linked from (" + links.size() + ") to " + openFile.getName());
+      backlinks.getItems().setAll(links);
+    }
+    brokenTitle.setText("Broken links (checking...)");
+    io.submit(this, index::brokenLinks, links -> {
+      brokenTitle.setText("Broken links (" + links.size() + ")" + (index.isReady() ? "" : " - still indexing"));
+      broken.getItems().setAll(links);
+    }, error -> StatusReporter.shared().error("Could not check the links", error));
+  }
+
+  private void openSelected(ListView<LinkIndex.LinkRef> list) {
+    LinkIndex.LinkRef link = list.getSelectionModel().getSelectedItem();
+    if (link != null) {
+      onOpen.accept(link.getSource().toFile());
+    }
+  }
+
+  /**
+   * Shows a link as the file and line containing it, and its destination.
+   */
+  private class LinkCell extends ListCell<LinkIndex.LinkRef> {
+    private final Label location = new Label();
+    private final Label destination = new Label();
+    private final VBox content = new VBox(2, location, destination);
+
+    LinkCell() {
+      destination.getStyleClass().addAll(Styles.TEXT_MUTED, Styles.TEXT_SMALL);
+    }
+
+    @Override
+    protected void updateItem(LinkIndex.LinkRef link, boolean empty) {
+      super.updateItem(link, empty);
+      if (empty || link == null) {
+        setGraphic(null);
+        return;
+      }
+      location.setText(root.relativize(link.getSource()).toString().replace(File.separatorChar, '/') + ":" + link.getLine());
+      destination.setText((link.isImage() ? "Image: " : "") + link.getUrl());
+      setGraphic(content);
+    }
+  }
+}
@@ -2,14 +2,21 @@ package com.mdwriter.app;
 
 import atlantafx.base.controls.ModalPane;
 import atlantafx.base.theme.PrimerDark;
+import org.fxmisc.flowless.VirtualizedScrollPane;
 import javafx.application.Application;
+import javafx.beans.binding.Bindings;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.geometry.Pos;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.web.WebView;
@@ -26,6 +33,8 @@ import javafx.stage.Stage;
 public class MainApp extends Application {
 
   private ModalPane modalPane;
+  private Sidebar sidebar;
+  private Menu menu;
 
   /**
    * Creates the main content area of the application.
@@ -44,9 +53,13 @@ public class MainApp extends Application {
     // Initialize the Toolbar/Menu system
     var toolBar = new Menu(textarea, rootDirectory);
     modalPane = toolBar.modalPane;
+    sidebar = toolBar.sidebar;
+    menu = toolBar;
 
-    HBox container = new HBox(textarea, webview);
-    HBox.setHgrow(textarea, Priority.ALWAYS);
+    // The editor only lays out the visible lines; the scroll pane drives it
+    var editorPane = new VirtualizedScrollPane<>(textarea);
+    HBox container = new HBox(editorPane, webview);
+    HBox.setHgrow(editorPane, Priority.ALWAYS);
 
     VBox root = new VBox();
     root.setPadding(new javafx.geometry.Insets(10));
@@ -54,11 +67,33 @@ public class MainApp extends Application {
     HBox statusBar = new HBox();
     statusBar.setPadding(new javafx.geometry.Insets(5));
     statusBar.setAlignment(Pos.CENTER_RIGHT);
+    statusBar.setSpacing(10);
+    // Save status, and the errors of background work
+    Label saveStatusLabel = new Label();
+    StatusReporter status = StatusReporter.shared();
+    toolBar.sidebar.getAutoSaver().statusProperty().addListener((obs, oldStatus, newStatus) -> status.report(newStatus));
+    saveStatusLabel.textProperty().bind(status.messageProperty());
+    // File opening: progress while loading
+    FileLoader fileLoader = toolBar.sidebar.getFileLoader();
+    Label openStatusLabel = new Label();
+    openStatusLabel.textProperty().bind(fileLoader.messageProperty());
+    ProgressBar openProgress = new ProgressBar();
+    openProgress.setPrefWidth(120);
+    openProgress.progressProperty().bind(fileLoader.progressProperty());
+    openProgress.visibleProperty().bind(fileLoader.loadingProperty());
+    openProgress.managedProperty().bind(fileLoader.loadingProperty());
+    Region statusSpacer = new Region();
+    HBox.setHgrow(statusSpacer, Priority.ALWAYS);
     Label wordCountLabel = new Label("Words: 0");
-    statusBar.getChildren().add(wordCountLabel);
+    statusBar.getChildren().addAll(saveStatusLabel, openStatusLabel, openProgress, statusSpacer, wordCountLabel);
     
-    // Bind word count label
-    wordCountLabel.textProperty().bind(textarea.wordCountProperty().asString("Words: %d"));
+    // Bind the statistics label; the tooltip breaks the count down by chapter
+    wordCountLabel.textProperty().bind(Bindings.createStringBinding(
+        () -> formatStats(textarea.getStats()), textarea.statsProperty()));
+    Tooltip chaptersTooltip = new Tooltip();
+    chaptersTooltip.textProperty().bind(Bindings.createStringBinding(
+        () -> formatChapters(textarea.getStats()), textarea.statsProperty()));
+    wordCountLabel.setTooltip(chaptersTooltip);
 
     root.getChildren().addAll(toolBar.toolbar, container, statusBar);
 
@@ -70,11 +105,32 @@ public class MainApp extends Application {
     return stack;
   }
 
+  private static String formatStats(DocumentStats stats) {
+    return String.format("Words: %d  Characters: %d  Reading time: %d min",
+        stats.getWords(), stats.getCharacters(), stats.getReadingMinutes());
+  }
+
+  private static String formatChapters(DocumentStats stats) {
+    if (stats.getChapters().isEmpty()) {
+      return "No chapters";
+    }
+    StringBuilder text = new StringBuilder();
+    for (DocumentStats.Chapter chapter : stats.getChapters()) {
+      if (text.length() > 0) text.append('\n');
+      String title = chapter.getTitle().isEmpty() ? "(Before first chapter)" : chapter.getTitle();
+      text.append(title).append(": ").append(chapter.getWords()).append(" words");
+    }
+    return text.toString();
+  }
+
   @Override
   public void start(Stage stage) throws Exception {
     // Load the dark theme stylesheet
     Application.setUserAgentStylesheet(new PrimerDark().getUserAgentStylesheet());
 
+    // Read and compile the renderer resources once, up front
+    ResourceLoader.warmUp();
+
     // Prompt user to select a workspace directory
     javafx.stage.DirectoryChooser directoryChooser = new javafx.stage.DirectoryChooser();
     directoryChooser.setTitle("Authorize Workspace Folder");
@@ -93,12 +149,23 @@ public class MainApp extends Application {
         return; 
     }
 
-    stage.setScene(new Scene(createContent(selectedDirectory), 600, 400));
+    Scene scene = new Scene(createContent(selectedDirectory), 600, 400);
+    // Ctrl+P (Cmd+P on macOS) jumps to a file by name
+    scene.getAccelerators().put(new KeyCodeCombination(KeyCode.P, KeyCombination.SHORTCUT_DOWN), menu::showQuickOpen);
+    stage.setScene(scene);
     stage.setMaximized(true);
     stage.show();
 
   }
 
+  @Override
+  public void stop() {
+    // Write the open file, and remember the loaded folders and the indexes so the next launch starts at once
+    if (sidebar != null) {
+      sidebar.saveWorkspaceState();
+    }
+  }
+
   public static void main(String[] args) {
     launch(args);
   }
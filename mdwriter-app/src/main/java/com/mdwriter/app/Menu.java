@@ -6,14 +6,16 @@ import org.kordamp.ikonli.javafx.FontIcon;
 import com.mdwriter.api.ToolBarButton;
 import com.mdwriter.app.plugins.ButtonPlugin;
 
+import org.fxmisc.richtext.CodeArea;
+
 import atlantafx.base.controls.ModalPane;
 import atlantafx.base.theme.Styles;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.geometry.Side;
 import javafx.scene.control.Button;
+import javafx.scene.control.IndexRange;
 import javafx.scene.control.Separator;
-import javafx.scene.control.TextArea;
 import javafx.scene.control.ToolBar;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -22,14 +24,16 @@ import javafx.scene.layout.Region;
 /**
  * Manages the Application Toolbar and Menu.
  * Handles actions like Undo, Redo, Theme Switching, PDF Export,
- * and opening the Sidebar.
+ * and opening the Sidebar, workspace search, quick open and the links panel.
  */
 public class Menu {
   ToolBar toolbar = new ToolBar();
 
   public ModalPane modalPane = new ModalPane();
+  Sidebar sidebar;
+  private QuickOpenPanel quickOpen;
 
-  public Menu(TextArea textarea, java.io.File rootDirectory) {
+  public Menu(CodeArea textarea, java.io.File rootDirectory) {
 
     modalPane.setId("modalPane");
     modalPane.displayProperty().addListener((obs, old, val) -> {
@@ -46,6 +50,7 @@ public class Menu {
     var dialog = new ThemeSelector().themes();
     themeChanger.setOnAction((evt -> modalPane.show(dialog)));
     var left_dialog = new Sidebar(textarea, rootDirectory);
+    this.sidebar = left_dialog;
 
     var folder = new Button(null, new FontIcon(Feather.FOLDER));
     folder.getStyleClass().add(Styles.FLAT);
@@ -55,13 +60,50 @@ public class Menu {
       modalPane.show(left_dialog);
     }));
 
+    // Workspace search slides in from the right; choosing a result opens the file
+    var searchPanel = new SearchPanel(left_dialog.getSearchIndex(), rootDirectory, file -> {
+      modalPane.hide();
+      left_dialog.openFile(file);
+    });
+    var search = new Button(null, new FontIcon(Feather.SEARCH));
+    search.getStyleClass().add(Styles.FLAT);
+    search.setOnAction((event -> {
+      modalPane.setAlignment(Pos.TOP_RIGHT);
+      modalPane.usePredefinedTransitionFactories(Side.RIGHT);
+      modalPane.show(searchPanel);
+      javafx.application.Platform.runLater(searchPanel::focusQuery);
+    }));
+
+    // Quick open drops down from the top; choosing a match opens the file
+    quickOpen = new QuickOpenPanel(left_dialog.getPathIndex(), file -> {
+      modalPane.hide();
+      left_dialog.openFile(file);
+    });
+    var goToFile = new Button(null, new FontIcon(Feather.FILE));
+    goToFile.getStyleClass().add(Styles.FLAT);
+    goToFile.setOnAction(event -> showQuickOpen());
+
+    // Backlinks of the open file and broken links of the workspace, also from the right
+    var linksPanel = new LinksPanel(left_dialog.getLinkIndex(), rootDirectory, file -> {
+      modalPane.hide();
+      left_dialog.openFile(file);
+    });
+    var links = new Button(null, new FontIcon(Feather.LINK));
+    links.getStyleClass().add(Styles.FLAT);
+    links.setOnAction((event -> {
+      modalPane.setAlignment(Pos.TOP_RIGHT);
+      modalPane.usePredefinedTransitionFactories(Side.RIGHT);
+      modalPane.show(linksPanel);
+      linksPanel.refresh(left_dialog.getOpenFile());
+    }));
+
     var undo = new Button(null, new FontIcon(Feather.ARROW_UP_LEFT));
     undo.setOnAction((event -> textarea.undo()));
 
     var redo = new Button(null, new FontIcon(Feather.ARROW_UP_RIGHT));
     redo.setOnAction((event -> textarea.redo()));
 
-    this.toolbar.getItems().addAll(folder, new Separator(Orientation.VERTICAL), undo, redo);
+    this.toolbar.getItems().addAll(folder, search, goToFile, links, new Separator(Orientation.VERTICAL), undo, redo);
     this.toolbar.setMaxWidth(Double.MAX_VALUE);
 
     List<ToolBarButton> buttons = menu.buttons;
@@ -69,7 +111,11 @@ public class Menu {
       var iconButton = button.iconButton();
       this.toolbar.getItems().add(iconButton);
       iconButton.setOnMousePressed(event -> {
-        String selectedText = textarea.getSelectedText();
+        // Only the selection is copied out of the editor snapshot
+        IndexRange selection = textarea.getSelection();
+        String selectedText = textarea instanceof Editor
+            ? ((Editor) textarea).snapshot().subSequence(selection.getStart(), selection.getEnd())
+            : textarea.getSelectedText();
         String changedText = button.changeText(selectedText);
         textarea.replaceSelection(changedText);
       });
@@ -135,6 +181,9 @@ public class Menu {
                 return;
             }
             
+            // Make sure TOC and figure page numbers match the current pages (proposal mode only)
+            webView.getEngine().executeScript("if (window.mdPageIndex) window.mdPageIndex.refresh();");
+
             // Get HTML content from WebView
             String htmlContent = (String) webView.getEngine().executeScript("document.documentElement.outerHTML");
             
@@ -191,4 +240,13 @@ public class Menu {
 
   }
 
+  /**
+   * Shows the quick open panel with an empty query.
+   */
+  public void showQuickOpen() {
+    modalPane.setAlignment(Pos.TOP_CENTER);
+    modalPane.usePredefinedTransitionFactories(Side.TOP);
+    modalPane.show(quickOpen);
+    javafx.application.Platform.runLater(quickOpen::focusQuery);
+  }
 }
@@ -4,19 +4,23 @@ import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
 import com.vladsch.flexmark.ext.tables.TablesExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.MutableDataSet;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Simple markdown renderer for normal mode.
  * Renders markdown to clean HTML without proposal-specific formatting.
  * Uses Flexmark for the conversion.
+ * Keeps a per-block cache between renders, so one instance should be reused from a single thread.
  */
 public class NormalMarkdownRenderer {
     
     private final Parser parser;
     private final HtmlRenderer renderer;
+    private final IncrementalMarkdownParser incrementalParser;
     
     public NormalMarkdownRenderer() {
         MutableDataSet options = new MutableDataSet();
@@ -26,9 +30,12 @@ public class NormalMarkdownRenderer {
         ));
         options.set(HtmlRenderer.SOFT_BREAK, "<br />\n");
         options.set(HtmlRenderer.GENERATE_HEADER_ID, true);
+        // Headings carry their ids, so TOC links and #anchors resolve in the preview
+        options.set(HtmlRenderer.RENDER_HEADER_ID, true);
         
         this.parser = Parser.builder(options).build();
         this.renderer = HtmlRenderer.builder(options).build();
+        this.incrementalParser = new IncrementalMarkdownParser(parser, renderer);
     }
     
     /**
@@ -38,21 +45,61 @@ public class NormalMarkdownRenderer {
      * @return The styling HTML string including HighlightJS support.
      */
     public String render(String markdownText) {
-        Node document = parser.parse(markdownText);
-        String htmlContent = renderer.render(document);
+        return renderDocument(markdownText).getHtml();
+    }
+
+    /**
+     * Renders the markdown text into a patchable preview document.
+     * Each top-level Markdown block becomes its own wrapped fragment.
+     * Only blocks that changed since the previous call are parsed again.
+     * 
+     * @param markdownText The markdown text.
+     * @return The preview document, including the full HTML page.
+     */
+    public PreviewDocument renderDocument(CharSequence markdownText) {
+        List<String> blocks = new ArrayList<>();
+        List<Integer> blockLines = new ArrayList<>();
+        StringBuilder htmlContent = new StringBuilder();
+        DocumentStats.Builder stats = new DocumentStats.Builder();
+        List<IncrementalMarkdownParser.ParsedChunk> chunks = new ArrayList<>();
+        for (IncrementalMarkdownParser.Block block : incrementalParser.parse(markdownText)) {
+            IncrementalMarkdownParser.ParsedChunk chunk = block.getChunk();
+            chunks.add(chunk);
+            DocumentStats.ChunkCounts counts = chunk.derive(DocumentStats.ChunkCounts.class, DocumentStats::countChunk);
+            for (int i = 0; i < chunk.getHtml().size(); i++) {
+                String blockHtml = chunk.getHtml().get(i);
+                if (blockHtml.isBlank()) continue; // e.g. reference or abbreviation definitions
+                int line = block.getStartLine() + chunk.getNodes().get(i).getStartLineNumber();
+                blocks.add(blockHtml);
+                blockLines.add(line);
+                stats.add(counts, i);
+                PreviewDocument.appendBlock(htmlContent, blockHtml, line);
+            }
+        }
         
         String highlightJs = ResourceLoader.load("/highlight.js");
         String highlightCss = ResourceLoader.load("/highlight.css");
+        String previewJs = ResourceLoader.loadContent("/preview.js");
         
         String css = getCSS();
-        return "<html><head>" + css + 
+        String html = "<html><head>" + css + 
                "<link rel=\"stylesheet\" href=\"" + highlightCss + "\">" +
-               "</head><body>" + htmlContent + 
+               "</head><body><div id=\"md-blocks\">" + htmlContent + "</div>" +
                "<script src=\"" + highlightJs + "\"></script>" +
+               "<script>" + previewJs + "</script>" +
                "<script>if (typeof hljs !== 'undefined') { hljs.highlightAll(); }</script>" +
                "</body></html>";
+        return new PreviewDocument("normal", html, blocks, blockLines, Collections.emptyMap(), Collections.emptyList(), stats.build(), chunks);
     }
     
+    /**
+     * Seeds the parser cache with the chunks of a previously rendered document, so editing it
+     * again only parses what changes. Call on the render worker.
+     */
+    public void prime(PreviewDocument document) {
+        incrementalParser.prime(document.getChunks());
+    }
+
     private String getCSS() {
         return """
             <style>
@@ -0,0 +1,488 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of the paths of every file in the workspace, for quick open.
+ *
+ * Responsibilities:
+ * - Keeping the paths compact: their characters sit back to back in two arrays (as written
+ *   and lowercase), with a 64-bit mask per path of the characters it contains, so most paths
+ *   are rejected by a single AND and the rest are scanned without chasing pointers.
+ * - Fuzzy matching: the query's characters must appear in order; matches at the start of a
+ *   path segment or word, consecutive matches and matches in the file name score higher.
+ *   While the user types on, only the paths that matched the previous query are scanned.
+ * - Following the workspace: built by one walk, then updated from the watcher's changes.
+ *   Changes reported while a build walks are applied again once it replaced the index, as
+ *   the walk may have passed their folders already.
+ *
+ * {@link #match} is meant for the FX thread; it stays well under a frame on 100k paths.
+ * The other methods walk the disk and must run in the background.
+ */
+public class PathIndex {
+
+    // Match scores: per matched character, and bonuses for where it matched
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_SEGMENT_START = 10;
+    private static final int BONUS_WORD_START = 8;
+    private static final int BONUS_CONSECUTIVE = 6;
+    private static final int BONUS_IN_FILE_NAME = 20;
+    private static final int PENALTY_GAP = 1;
+
+    /**
+     * Changes reported by the watcher, kept to apply them again after a build.
+     */
+    private static final class Change {
+        final Collection<Path> directories;
+        final Collection<Path> files;
+
+        Change(Collection<Path> directories, Collection<Path> files) {
+            this.directories = directories;
+            this.files = files;
+        }
+    }
+
+    /**
+     * A matching file.
+     */
+    public static final class Match {
+        private final String path;
+        private final Path file;
+        private final int score;
+
+        Match(String path, Path file, int score) {
+            this.path = path;
+            this.file = file;
+            this.score = score;
+        }
+
+        /**
+         * @return The path relative to the workspace, with '/' separators.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+
+    private final Path root;
+
+    // Guarded by this. Slot i holds a path: its characters are chars[starts[i]] onwards.
+    // A removed slot is filled with the last one; its characters stay behind as garbage
+    // until there is more garbage than paths.
+    private char[] chars = new char[1 << 16];
+    private char[] lowerChars = new char[1 << 16];
+    private int used = 0;
+    private int garbage = 0;
+    private int size = 0;
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] nameStarts = new int[1024];
+    private long[] masks = new long[1024];
+    // Slot of each path, ordered so the paths below a folder are a range
+    private final TreeMap<String, Integer> slots = new TreeMap<>();
+    // Bumped by every change, so results of an older version are not reused
+    private int version = 0;
+
+    // Every slot matching the last query: typing on only narrows them down
+    private char[] lastQuery = new char[0];
+    private int[] lastMatches = new int[0];
+    private int lastMatchCount = 0;
+    private int lastVersion = -1;
+
+    // Held by a build for its whole walk, so builds do not overlap
+    private final Object buildLock = new Object();
+    // Guarded by this. While a build walks, the changes reported meanwhile; otherwise null
+    private List<Change> changedDuringBuild = null;
+
+    private volatile boolean ready = false;
+
+    public PathIndex(File rootDirectory) {
+        this.root = rootDirectory.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return true once the workspace has been walked.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Walks the whole workspace and replaces the index with what was found. Also used to
+     * start over after change events were lost.
+     */
+    public void build() {
+        synchronized (buildLock) {
+            synchronized (this) {
+                changedDuringBuild = new ArrayList<>();
+            }
+            List<String> found = walk(root);
+            List<Change> replay;
+            synchronized (this) {
+                slots.clear();
+                size = 0;
+                used = 0;
+                garbage = 0;
+                for (String path : found) {
+                    add(path);
+                }
+                version++;
+                replay = changedDuringBuild;
+                changedDuringBuild = null;
+            }
+            // Each change looks at the disk again, so replaying an old one is harmless
+            for (Change change : replay) {
+                apply(change.directories, change.files);
+            }
+        }
+        ready = true;
+    }
+
+    /**
+     * Applies changes reported by the workspace watcher.
+     *
+     * @param directories Folders whose entries were created, deleted or renamed.
+     * @param files       Files and folders that were created or modified.
+     */
+    public void update(Collection<Path> directories, Collection<Path> files) {
+        synchronized (this) {
+            if (changedDuringBuild != null) {
+                changedDuringBuild.add(new Change(List.copyOf(directories), List.copyOf(files)));
+            }
+        }
+        apply(directories, files);
+    }
+
+    private void apply(Collection<Path> directories, Collection<Path> files) {
+        for (Path directory : directories) {
+            removeVanished(directory);
+        }
+        for (Path file : files) {
+            List<String> added;
+            if (Files.isDirectory(file)) {
+                added = walk(file); // Created or moved in, with everything inside
+            } else if (Files.isRegularFile(file) && file.startsWith(root) && !WorkspaceFiles.isHidden(file)) {
+                added = List.of(relative(file));
+            } else {
+                continue;
+            }
+            synchronized (this) {
+                for (String path : added) {
+                    if (!slots.containsKey(path)) {
+                        add(path);
+                    }
+                }
+                version++;
+            }
+        }
+    }
+
+    private List<String> walk(Path start) {
+        List<String> found = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return !dir.equals(root) && WorkspaceFiles.isHidden(dir, attributes) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && !WorkspaceFiles.isHidden(file, attributes)) {
+                        found.add(relative(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Unreadable or deleted meanwhile
+                }
+            });
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not list the files of " + start.getFileName(), e);
+        }
+        return found;
+    }
+
+    /**
+     * Drops the paths below a folder whose entry in that folder is gone.
+     */
+    private void removeVanished(Path directory) {
+        if (!directory.startsWith(root)) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // The folder itself is gone: so is everything below it
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not list the files of " + directory.getFileName(), e);
+            return;
+        }
+        String prefix = directory.equals(root) ? "" : relative(directory) + "/";
+        synchronized (this) {
+            List<String> below = new ArrayList<>(slots.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+            for (String path : below) {
+                int nameEnd = path.indexOf('/', prefix.length());
+                String name = path.substring(prefix.length(), nameEnd < 0 ? path.length() : nameEnd);
+                if (!names.contains(name)) {
+                    remove(path);
+                }
+            }
+            if (garbage > used / 2) {
+                compact();
+            }
+            version++;
+        }
+    }
+
+    private void add(String path) {
+        int length = path.length();
+        if (used + length > chars.length) {
+            int capacity = Math.max(chars.length * 2, used + length);
+            chars = Arrays.copyOf(chars, capacity);
+            lowerChars = Arrays.copyOf(lowerChars, capacity);
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            nameStarts = Arrays.copyOf(nameStarts, size * 2);
+            masks = Arrays.copyOf(masks, size * 2);
+        }
+        path.getChars(0, length, chars, used);
+        long mask = 0;
+        for (int i = used; i < used + length; i++) {
+            // Char by char, so positions in both arrays line up
+            lowerChars[i] = Character.toLowerCase(chars[i]);
+            mask |= maskOf(lowerChars[i]);
+        }
+        starts[size] = used;
+        lengths[size] = length;
+        nameStarts[size] = used + path.lastIndexOf('/') + 1;
+        masks[size] = mask;
+        slots.put(path, size);
+        used += length;
+        size++;
+    }
+
+    private void remove(String path) {
+        Integer slot = slots.remove(path);
+        if (slot == null) {
+            return;
+        }
+        garbage += lengths[slot];
+        int last = size - 1;
+        if (slot != last) {
+            starts[slot] = starts[last];
+            lengths[slot] = lengths[last];
+            nameStarts[slot] = nameStarts[last];
+            masks[slot] = masks[last];
+            slots.put(pathAt(slot), slot);
+        }
+        size--;
+    }
+
+    /**
+     * Copies the characters of the remaining paths back to back, dropping the garbage.
+     */
+    private void compact() {
+        char[] newChars = new char[Math.max(1 << 16, (used - garbage) * 2)];
+        char[] newLowerChars = new char[newChars.length];
+        int position = 0;
+        for (int slot = 0; slot < size; slot++) {
+            int start = starts[slot];
+            System.arraycopy(chars, start, newChars, position, lengths[slot]);
+            System.arraycopy(lowerChars, start, newLowerChars, position, lengths[slot]);
+            starts[slot] = position;
+            nameStarts[slot] += position - start;
+            position += lengths[slot];
+        }
+        chars = newChars;
+        lowerChars = newLowerChars;
+        used = position;
+        garbage = 0;
+    }
+
+    private String pathAt(int slot) {
+        return new String(chars, starts[slot], lengths[slot]);
+    }
+
+    /**
+     * Finds the paths matching a query, best first. Spaces in the query are ignored.
+     *
+     * @return At most limit matches.
+     */
+    public synchronized List<Match> match(String query, int limit) {
+        char[] q = query.replace(" ", "").toCharArray();
+        for (int i = 0; i < q.length; i++) {
+            q[i] = Character.toLowerCase(q[i]);
+        }
+        if (q.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        long queryMask = 0;
+        for (char c : q) {
+            queryMask |= maskOf(c);
+        }
+
+        boolean narrowing = version == lastVersion && startsWith(q, lastQuery);
+        int candidates = narrowing ? lastMatchCount : size;
+        int[] matched = new int[candidates];
+        int matchCount = 0;
+
+        // The best matches so far, and the one holding the worst of them. A rank is the
+        // score with the path length as tie-break, shorter first.
+        int[] topSlot = new int[limit];
+        long[] topRank = new long[limit];
+        int count = 0;
+        int worst = 0;
+        for (int c = 0; c < candidates; c++) {
+            int slot = narrowing ? lastMatches[c] : c;
+            if ((masks[slot] & queryMask) != queryMask) {
+                continue;
+            }
+            int score = score(q, starts[slot], lengths[slot], nameStarts[slot]);
+            if (score == Integer.MIN_VALUE) {
+                continue;
+            }
+            matched[matchCount++] = slot;
+            long rank = ((long) score << 16) - Math.min(lengths[slot], 0xFFFF);
+            if (count < limit) {
+                topSlot[count] = slot;
+                topRank[count] = rank;
+                count++;
+                if (count == limit) {
+                    worst = worstOf(topRank, count);
+                }
+            } else if (rank > topRank[worst]) {
+                topSlot[worst] = slot;
+                topRank[worst] = rank;
+                worst = worstOf(topRank, count);
+            }
+        }
+        lastQuery = q;
+        lastMatches = matched;
+        lastMatchCount = matchCount;
+        lastVersion = version;
+
+        Integer[] order = new Integer[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(topRank[b], topRank[a]));
+        List<Match> matches = new ArrayList<>(count);
+        for (int k : order) {
+            String path = pathAt(topSlot[k]);
+            int score = (int) ((topRank[k] + 0xFFFF) >> 16);
+            matches.add(new Match(path, root.resolve(path), score));
+        }
+        return matches;
+    }
+
+    private static boolean startsWith(char[] query, char[] prefix) {
+        return query.length >= prefix.length && Arrays.equals(query, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static int worstOf(long[] ranks, int count) {
+        int worst = 0;
+        for (int k = 1; k < count; k++) {
+            if (ranks[k] < ranks[worst]) {
+                worst = k;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Scores the tightest occurrence of the query that ends as late as possible, so matches
+     * in the file name win over matches in folder names.
+     *
+     * @return The score, or Integer.MIN_VALUE if the query's characters do not appear in order.
+     */
+    private int score(char[] query, int from, int length, int nameStart) {
+        // Backwards: the latest start from which the whole query still matches
+        int q = query.length - 1;
+        int start = -1;
+        for (int i = from + length - 1; i >= from; i--) {
+            if (lowerChars[i] == query[q] && --q < 0) {
+                start = i;
+                break;
+            }
+        }
+        if (start < 0) {
+            return Integer.MIN_VALUE;
+        }
+
+        // Forwards from there, scoring each character
+        int score = 0;
+        q = 0;
+        boolean previousMatched = false;
+        for (int i = start; q < query.length; i++) {
+            if (lowerChars[i] != query[q]) {
+                score -= PENALTY_GAP;
+                previousMatched = false;
+                continue;
+            }
+            score += SCORE_MATCH;
+            char before = i == from ? '/' : chars[i - 1];
+            if (before == '/') {
+                score += BONUS_SEGMENT_START;
+            } else if (!Character.isLetterOrDigit(before)
+                || (Character.isUpperCase(chars[i]) && Character.isLowerCase(before))) {
+                score += BONUS_WORD_START; // After - _ . or a space, or a camelCase hump
+            }
+            if (previousMatched) {
+                score += BONUS_CONSECUTIVE;
+            }
+            previousMatched = true;
+            q++;
+        }
+        if (start >= nameStart) {
+            score += BONUS_IN_FILE_NAME;
+        }
+        return score;
+    }
+
+    /**
+     * Bits 0-25 for letters, 26-35 for digits, the rest shared by all other characters.
+     */
+    private static long maskOf(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return 1L << (c - 'a');
+        } else if (c >= '0' && c <= '9') {
+            return 1L << (26 + c - '0');
+        }
+        return 1L << (36 + c % 28);
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,110 @@
+package com.mdwriter.app;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of rendering a Markdown document for the preview.
+ *
+ * Besides the complete HTML page, it keeps the rendered top-level blocks and a few
+ * named regions (e.g. the TOC) so that the preview can be patched in place.
+ * Each block carries its source line, kept apart from the block HTML so that
+ * moving a block does not make it differ.
+ * The document also carries the statistics of its body text, and the parsed chunks it
+ * was rendered from, so a reopened document does not have to be parsed again.
+ * Paginated layouts also carry the index of the first block of each page.
+ * The shell key identifies everything around the blocks (CSS, scripts, template,
+ * front matter): when it changes, the page has to be reloaded.
+ */
+public class PreviewDocument {
+
+    private final String shellKey;
+    private final String html;
+    private final List<String> blocks;
+    private final List<Integer> blockLines;
+    private final Map<String, String> regions;
+    private final List<Integer> pageStarts;
+    private final DocumentStats stats;
+    private final List<IncrementalMarkdownParser.ParsedChunk> chunks;
+
+    public PreviewDocument(String shellKey, String html, List<String> blocks, List<Integer> blockLines,
+                           Map<String, String> regions, List<Integer> pageStarts, DocumentStats stats,
+                           List<IncrementalMarkdownParser.ParsedChunk> chunks) {
+        this.shellKey = shellKey;
+        this.html = html;
+        this.blocks = Collections.unmodifiableList(blocks);
+        this.blockLines = Collections.unmodifiableList(blockLines);
+        this.regions = Collections.unmodifiableMap(new LinkedHashMap<>(regions));
+        this.pageStarts = Collections.unmodifiableList(pageStarts);
+        this.stats = stats;
+        this.chunks = Collections.unmodifiableList(chunks);
+    }
+
+    public String getShellKey() {
+        return shellKey;
+    }
+
+    /**
+     * @return The complete HTML page, used for full reloads.
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * @return The HTML of each top-level block, in document order.
+     */
+    public List<String> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return The 0-based source line of each block, parallel to {@link #getBlocks()}.
+     */
+    public List<Integer> getBlockLines() {
+        return blockLines;
+    }
+
+    /**
+     * @return Element id to inner HTML for regions that depend on the body (TOC, figure list).
+     */
+    public Map<String, String> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return The index of the first block of each page, or an empty list if the layout is not paginated.
+     */
+    public List<Integer> getPageStarts() {
+        return pageStarts;
+    }
+
+    /**
+     * @return Statistics of the rendered body text.
+     */
+    public DocumentStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return The parsed chunks of the document, in document order.
+     */
+    public List<IncrementalMarkdownParser.ParsedChunk> getChunks() {
+        return chunks;
+    }
+
+    private static final String BLOCK_OPEN = "<div class=\"md-block\" data-line=\"";
+    private static final String BLOCK_CLOSE = "</div>";
+    // Characters added around each block by appendBlock (line numbers up to 8 digits)
+    public static final int BLOCK_WRAPPER_LENGTH = BLOCK_OPEN.length() + 10 + BLOCK_CLOSE.length();
+
+    /**
+     * Appends a rendered block, wrapped so the preview script can find and replace it.
+     * The wrapper carries the source line of the block, used for scroll synchronization.
+     */
+    public static void appendBlock(StringBuilder out, String blockHtml, int line) {
+        out.append(BLOCK_OPEN).append(line).append("\">").append(blockHtml).append(BLOCK_CLOSE);
+    }
+}
@@ -0,0 +1,156 @@
+package com.mdwriter.app;
+
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the preview page loaded and applies documents to it.
+ *
+ * Responsibilities:
+ * - Computing which top-level blocks changed between two renders.
+ * - Pushing only the changed fragments to the page through executeScript.
+ * - Falling back to a full loadContent when the shell (template, front matter, mode) changes.
+ *
+ * Must only be used on the FX thread.
+ */
+public class PreviewPatcher {
+
+    private final WebEngine engine;
+    // The document currently shown (or being loaded) in the page
+    private PreviewDocument current;
+    private boolean loaded = false;
+
+    public PreviewPatcher(WebEngine engine) {
+        this.engine = engine;
+        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+            loaded = newState == Worker.State.SUCCEEDED;
+        });
+    }
+
+    /**
+     * Shows the given document, patching the loaded page when possible.
+     *
+     * @param next The freshly rendered document.
+     * @return true if the page was patched in place, false if it was (re)loaded.
+     */
+    public boolean show(PreviewDocument next) {
+        if (current == null || !loaded || !current.getShellKey().equals(next.getShellKey())) {
+            reload(next);
+            return false;
+        }
+
+        String script = buildPatchScript(current, next);
+        if (script != null) {
+            try {
+                engine.executeScript(script);
+            } catch (RuntimeException e) {
+                // The page is not in the state we expected; start over
+                StatusReporter.shared().error("Preview patch failed, reloaded the page", e);
+                reload(next);
+                return false;
+            }
+        }
+        current = next;
+        return true;
+    }
+
+    /**
+     * Forces the next document to be loaded as a full page.
+     */
+    public void invalidate() {
+        current = null;
+    }
+
+    private void reload(PreviewDocument next) {
+        current = next;
+        loaded = false;
+        engine.loadContent(next.getHtml());
+    }
+
+    /**
+     * Diffs the block lists by their common prefix and suffix.
+     * @return The script to run, or null if nothing changed.
+     */
+    private String buildPatchScript(PreviewDocument previous, PreviewDocument next) {
+        List<String> oldBlocks = previous.getBlocks();
+        List<String> newBlocks = next.getBlocks();
+
+        int prefix = 0;
+        int max = Math.min(oldBlocks.size(), newBlocks.size());
+        while (prefix < max && oldBlocks.get(prefix).equals(newBlocks.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && oldBlocks.get(oldBlocks.size() - 1 - suffix).equals(newBlocks.get(newBlocks.size() - 1 - suffix))) {
+            suffix++;
+        }
+
+        int removeCount = oldBlocks.size() - prefix - suffix;
+        List<String> inserted = newBlocks.subList(prefix, newBlocks.size() - suffix);
+
+        StringBuilder regions = new StringBuilder();
+        for (Map.Entry<String, String> region : next.getRegions().entrySet()) {
+            if (!region.getValue().equals(previous.getRegions().get(region.getKey()))) {
+                if (regions.length() > 0) regions.append(',');
+                regions.append(jsString(region.getKey())).append(':').append(jsString(region.getValue()));
+            }
+        }
+
+        boolean pagesChanged = !next.getPageStarts().equals(previous.getPageStarts());
+        // Inserted blocks need their line; other blocks only when lines moved
+        boolean linesChanged = !inserted.isEmpty() || !next.getBlockLines().equals(previous.getBlockLines());
+
+        if (removeCount == 0 && inserted.isEmpty() && regions.length() == 0 && !pagesChanged && !linesChanged) {
+            return null;
+        }
+
+        StringBuilder script = new StringBuilder("mdPreview.apply({start:")
+            .append(prefix)
+            .append(",removeCount:")
+            .append(removeCount)
+            .append(",blocks:[");
+        for (int i = 0; i < inserted.size(); i++) {
+            if (i > 0) script.append(',');
+            script.append(jsString(inserted.get(i)));
+        }
+        script.append("],regions:{").append(regions).append('}');
+        if (linesChanged) {
+            script.append(",lines:").append(next.getBlockLines());
+        }
+        if (!next.getPageStarts().isEmpty()) {
+            script.append(",pageStarts:").append(next.getPageStarts());
+        }
+        script.append("});");
+        return script.toString();
+    }
+
+    /**
+     * Quotes a Java string as a JavaScript string literal.
+     */
+    static String jsString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 16).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\u2028': sb.append("\\u2028"); break;
+                case '\u2029': sb.append("\\u2029"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,278 @@
+package com.mdwriter.app;
+
+import com.vladsch.flexmark.ast.BlockQuote;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Image;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.ListBlock;
+import com.vladsch.flexmark.ast.ListItem;
+import com.vladsch.flexmark.ast.ThematicBreak;
+import com.vladsch.flexmark.ext.tables.TableBlock;
+import com.vladsch.flexmark.ext.tables.TableCell;
+import com.vladsch.flexmark.ext.tables.TableRow;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.TextCollectingVisitor;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.font.FontRenderContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the page breaks of the proposal body ahead of time, so the preview is
+ * paginated correctly on first paint instead of being split up in the browser.
+ *
+ * Responsibilities:
+ * - Loading the bundled Times New Roman fonts (/fonts) and measuring wrapped text with them.
+ * - Estimating the height of each top-level block from the geometry in proposal.css.
+ * - Filling pages chapter by chapter, never splitting a block or leaving a heading at the bottom of a page.
+ *
+ * The estimate cannot know everything the browser does (image sizes, exact line breaking),
+ * so these breaks only shape the first paint: once fonts and images are loaded, proposal.js
+ * discards them and computes every break again from the measured block heights.
+ */
+public class ProposalPaginator {
+
+    // Geometry from proposal.css, in CSS pixels (96 per inch)
+    private static final double PX_PER_PT = 96.0 / 72.0;
+    private static final double PX_PER_INCH = 96.0;
+    // .page is 21cm wide with 1.25in horizontal padding
+    private static final double CONTENT_WIDTH = 21 / 2.54 * PX_PER_INCH - 2 * 1.25 * PX_PER_INCH;
+    // Height budget of .main-content, also handed to proposal.js (see ProposalRenderer).
+    // Kept below the ~930px a 29.7cm page with 1in vertical padding leaves: the browser
+    // measures blocks without the margins that collapse between them.
+    static final double CONTENT_HEIGHT = 800;
+    private static final double LINE_HEIGHT = 1.5;
+
+    private static final float BODY_SIZE = 12f;          // p, li, td (pt)
+    private static final float[] HEADING_SIZES = { 16f, 14f, 13f, 12f, 10f, 8f }; // h1-h6 (pt)
+    private static final double CODE_LINE = 13 * LINE_HEIGHT; // default 13px monospace
+    private static final double CODE_PADDING = 2 * 13;  // highlight.js adds 1em around code
+    private static final double PARAGRAPH_MARGIN = 5;   // p { margin: 5px 0 }
+    private static final double LIST_INDENT = 40;
+    private static final double QUOTE_INDENT = 80;      // 40px on each side
+    private static final double CELL_PADDING = 4;
+    // Images have no known size until the browser loads them
+    private static final double IMAGE_HEIGHT = 300;
+
+    private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+
+    /**
+     * Lazily loaded font holder; Font objects are immutable and shared.
+     */
+    private static final class Fonts {
+        static final Font REGULAR = loadFont("/fonts/Times New Roman.ttf", Font.PLAIN);
+        static final Font BOLD = loadFont("/fonts/Times New Roman Bold.ttf", Font.BOLD);
+    }
+
+    /**
+     * Heights of the top-level nodes of one chunk, parallel to its node list.
+     * Memoized on the chunk, so unchanged blocks are never measured twice.
+     */
+    public static final class BlockMetrics {
+        private final double[] heights;
+        private final boolean[] keepWithNext;
+
+        BlockMetrics(double[] heights, boolean[] keepWithNext) {
+            this.heights = heights;
+            this.keepWithNext = keepWithNext;
+        }
+
+        public double getHeight(int nodeIndex) {
+            return heights[nodeIndex];
+        }
+
+        /**
+         * @return true if the block must not end a page (headings).
+         */
+        public boolean keepsWithNext(int nodeIndex) {
+            return keepWithNext[nodeIndex];
+        }
+    }
+
+    /**
+     * Measures every top-level node of a chunk.
+     */
+    public BlockMetrics measure(IncrementalMarkdownParser.ParsedChunk chunk) {
+        List<Node> nodes = chunk.getNodes();
+        double[] heights = new double[nodes.size()];
+        boolean[] keepWithNext = new boolean[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            heights[i] = blockHeight(nodes.get(i), CONTENT_WIDTH);
+            keepWithNext[i] = nodes.get(i) instanceof Heading;
+        }
+        return new BlockMetrics(heights, keepWithNext);
+    }
+
+    /**
+     * Distributes the body blocks over pages.
+     *
+     * @param heights       Estimated height of each block.
+     * @param keepWithNext  Blocks that must stay on the page of the block after them.
+     * @param chapterStarts Blocks that always open a new page (H1).
+     * @return The index of the first block of each page, in order.
+     */
+    public List<Integer> paginate(List<Double> heights, List<Boolean> keepWithNext, List<Boolean> chapterStarts) {
+        List<Integer> pageStarts = new ArrayList<>();
+        double used = 0;
+        for (int i = 0; i < heights.size(); i++) {
+            double height = heights.get(i);
+            if (i == 0 || chapterStarts.get(i)) {
+                pageStarts.add(i);
+                used = height;
+                continue;
+            }
+            if (used + height <= CONTENT_HEIGHT) {
+                used += height;
+                continue;
+            }
+
+            // Overflow: start a new page, pulling along the headings that would end this one
+            int pageStart = pageStarts.get(pageStarts.size() - 1);
+            int breakAt = i;
+            while (breakAt - 1 > pageStart && keepWithNext.get(breakAt - 1)) {
+                breakAt--;
+            }
+            pageStarts.add(breakAt);
+            used = 0;
+            for (int j = breakAt; j <= i; j++) {
+                used += heights.get(j);
+            }
+        }
+        return pageStarts;
+    }
+
+    private double blockHeight(Node node, double width) {
+        if (node instanceof Heading) {
+            int level = Math.min(((Heading) node).getLevel(), HEADING_SIZES.length);
+            float size = HEADING_SIZES[level - 1];
+            return textHeight(collectText(node), Fonts.BOLD, size, width) + imagesHeight(node);
+        }
+        if (node instanceof FencedCodeBlock) {
+            return codeHeight(((FencedCodeBlock) node).getContentChars().toString());
+        }
+        if (node instanceof IndentedCodeBlock) {
+            return codeHeight(((IndentedCodeBlock) node).getContentChars().toString());
+        }
+        if (node instanceof ListBlock) {
+            return childrenHeight(node, width - LIST_INDENT);
+        }
+        if (node instanceof ListItem) {
+            return childrenHeight(node, width);
+        }
+        if (node instanceof BlockQuote) {
+            return childrenHeight(node, width - QUOTE_INDENT);
+        }
+        if (node instanceof TableBlock) {
+            return tableHeight(node, width);
+        }
+        if (node instanceof ThematicBreak) {
+            return 2;
+        }
+        // Paragraphs, HTML blocks and anything else: wrapped body text
+        return textHeight(collectText(node), Fonts.REGULAR, BODY_SIZE, width) + imagesHeight(node);
+    }
+
+    private double childrenHeight(Node node, double width) {
+        double height = 0;
+        int count = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            height += blockHeight(child, width);
+            count++;
+        }
+        // Margins between nested blocks do not collapse into the wrapper
+        return height + Math.max(0, count - 1) * PARAGRAPH_MARGIN;
+    }
+
+    private double tableHeight(Node table, double width) {
+        double height = 0;
+        for (Node row : table.getDescendants()) {
+            if (!(row instanceof TableRow)) continue;
+            int cells = 0;
+            for (Node cell = row.getFirstChild(); cell != null; cell = cell.getNext()) {
+                if (cell instanceof TableCell) cells++;
+            }
+            double cellWidth = width / Math.max(1, cells) - 2 * CELL_PADDING;
+            double rowHeight = 0;
+            for (Node cell = row.getFirstChild(); cell != null; cell = cell.getNext()) {
+                if (!(cell instanceof TableCell)) continue;
+                Font font = ((TableCell) cell).isHeader() ? Fonts.BOLD : Fonts.REGULAR;
+                rowHeight = Math.max(rowHeight, textHeight(collectText(cell), font, BODY_SIZE, cellWidth));
+            }
+            height += rowHeight + 2 * CELL_PADDING;
+        }
+        return height;
+    }
+
+    private static double codeHeight(String code) {
+        int lines = 1;
+        for (int i = 0; i < code.length() - 1; i++) {
+            if (code.charAt(i) == '\n') lines++;
+        }
+        return lines * CODE_LINE + CODE_PADDING;
+    }
+
+    private static double imagesHeight(Node node) {
+        double height = 0;
+        for (Node descendant : node.getDescendants()) {
+            if (descendant instanceof Image) height += IMAGE_HEIGHT;
+        }
+        return height;
+    }
+
+    private static String collectText(Node node) {
+        return new TextCollectingVisitor().collectAndGetText(node);
+    }
+
+    /**
+     * Height of the text once wrapped to the given width, words kept whole where possible.
+     */
+    private static double textHeight(String text, Font base, float sizePt, double width) {
+        if (text.isBlank()) return 0;
+        Font font = base.deriveFont((float) (sizePt * PX_PER_PT));
+        double space = advance(font, " ");
+
+        int lines = 0;
+        for (String line : text.split("\n")) {
+            lines++;
+            double x = 0;
+            for (String word : line.split(" ")) {
+                if (word.isEmpty()) continue;
+                double w = advance(font, word);
+                if (x > 0 && x + space + w > width) {
+                    lines++;
+                    x = w;
+                } else {
+                    x += (x > 0 ? space : 0) + w;
+                }
+                // Words longer than the line are broken (overflow-wrap: break-word)
+                if (x > width) {
+                    lines += (int) (x / width);
+                    x = x % width;
+                }
+            }
+        }
+        return lines * sizePt * PX_PER_PT * LINE_HEIGHT;
+    }
+
+    private static double advance(Font font, String text) {
+        return font.getStringBounds(text, FRC).getWidth();
+    }
+
+    private static Font loadFont(String path, int fallbackStyle) {
+        try (InputStream is = ProposalPaginator.class.getResourceAsStream(path)) {
+            if (is != null) {
+                return Font.createFont(Font.TRUETYPE_FONT, is);
+            }
+            StatusReporter.shared().report("Could not find font " + path + ", page breaks are approximate");
+        } catch (IOException | FontFormatException e) {
+            StatusReporter.shared().error("Could not load font " + path + ", page breaks are approximate", e);
+        }
+        // Close enough for estimating line breaks
+        return new Font(Font.SERIF, fallbackStyle, 12);
+    }
+}
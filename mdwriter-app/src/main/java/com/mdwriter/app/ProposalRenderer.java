@@ -1,20 +1,32 @@
 package com.mdwriter.app;
 
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Image;
 import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
 import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.ext.toc.TocBlock;
 import com.vladsch.flexmark.ext.toc.TocExtension;
 import com.vladsch.flexmark.ext.yaml.front.matter.AbstractYamlFrontMatterVisitor;
+import com.vladsch.flexmark.ext.yaml.front.matter.YamlFrontMatterBlock;
 import com.vladsch.flexmark.ext.yaml.front.matter.YamlFrontMatterExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.NodeVisitor;
+import com.vladsch.flexmark.util.ast.TextCollectingVisitor;
+import com.vladsch.flexmark.util.ast.VisitHandler;
 import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.Escaping;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Handles the rendering of Markdown into a formal project proposal structure.
@@ -22,18 +34,35 @@ import java.util.regex.Pattern;
  * Features:
  * - HTML Generation with academic styling (Times New Roman, margins).
  * - Table of Contents (TOC) with page numbers.
- * - Dynamic pagination logic via JavaScript.
+ * - Pagination computed in Java from the font metrics (ProposalPaginator), checked by JavaScript.
  * - Front Matter parsing for title page generation.
+ *
+ * Keeps a per-block cache between renders, so one instance should be reused from a single thread.
  */
 public class ProposalRenderer {
 
-    /**
-     * Renders the raw markdown content into a full HTML document.
-     * 
-     * @param newText The raw markdown content.
-     * @return The complete HTML string ready for the WebView.
-     */
-    public String render(String newText) {
+    // Heading levels listed in the Table of Contents (H1-H3)
+    private static final int TOC_MAX_LEVEL = 3;
+
+    // Preliminary pages before the TOC, in page order
+    private static final String[] LEADING_PAGES = {
+        "/title_page.html",
+        "/recommendation.html",
+        "/certification.html",
+        "/acknowledgement.html",
+        "/abstract.html"
+    };
+
+    private final IncrementalMarkdownParser incrementalParser;
+    private final ProposalPaginator paginator = new ProposalPaginator();
+    // proposal.css with the font URLs filled in; they never change at runtime
+    private final String css;
+    // proposal.js with the page height budget of the paginator filled in
+    private final String proposalJs;
+    // Pages derived from the front matter of the last render
+    private PreliminaryPages preliminaryPages;
+
+    public ProposalRenderer() {
         MutableDataSet options = new MutableDataSet();
         options.set(Parser.EXTENSIONS, Arrays.asList(
             YamlFrontMatterExtension.create(),
@@ -41,56 +70,203 @@ public class ProposalRenderer {
             TablesExtension.create(),
             AbbreviationExtension.create()
         ));
+        // Soft breaks render as <br />, so source lines need no trailing-space rewriting
         options.set(HtmlRenderer.SOFT_BREAK, "<br />\n");
         options.set(HtmlRenderer.GENERATE_HEADER_ID, true);
-        // Set custom TOC class to ensure robust regex matching
-        options.set(TocExtension.DIV_CLASS, "pro-toc");
-        // Include H1-H3 levels in TOC
-        options.set(TocExtension.LEVELS, 7); // Binary: 0b0000111 = 7 means levels 1, 2, 3
-        
+        // Headings carry their ids, so TOC links and #anchors resolve in the preview
+        options.set(HtmlRenderer.RENDER_HEADER_ID, true);
+
         Parser parser = Parser.builder(options).build();
         HtmlRenderer renderer = HtmlRenderer.builder(options).build();
-        
-        String processedText = newText.replace("\n", "  \n");
-        
-        // Explicitly wrap [TOC] to ensure we can extract it reliably
-        // We use comments to avoid nesting issues with divs
-        if (processedText.contains("[TOC]")) {
-            processedText = processedText.replace("[TOC]", "\n<!-- TOC_START -->\n[TOC]\n<!-- TOC_END -->\n");
+        this.incrementalParser = new IncrementalMarkdownParser(parser, renderer);
+
+        Map<String, String> fonts = new HashMap<>();
+        fonts.put("FONT_REGULAR", ResourceLoader.getFontUrl("Times New Roman.ttf"));
+        fonts.put("FONT_BOLD", ResourceLoader.getFontUrl("Times New Roman Bold.ttf"));
+        fonts.put("FONT_ITALIC", ResourceLoader.getFontUrl("Times New Roman Italic.ttf"));
+        fonts.put("FONT_BOLD_ITALIC", ResourceLoader.getFontUrl("Times New Roman Bold Italic.ttf"));
+        this.css = "<style>" + ResourceLoader.loadTemplate("/proposal.css").render(fonts) + "</style>";
+        // One page height for the Java and the browser pagination
+        this.proposalJs = ResourceLoader.loadTemplate("/proposal.js")
+            .render(Map.of("CONTENT_HEIGHT", String.valueOf(ProposalPaginator.CONTENT_HEIGHT)));
+    }
+
+    /**
+     * Renders the raw markdown content into a full HTML document.
+     * 
+     * @param newText The raw markdown content.
+     * @return The complete HTML string ready for the WebView.
+     */
+    public String render(String newText) {
+        return renderDocument(newText).getHtml();
+    }
+
+    /**
+     * Renders the raw markdown content into a patchable preview document.
+     * Top-level body blocks are kept separately so the preview can be patched;
+     * the front matter is part of the shell key because it drives the preliminary pages.
+     * Only blocks that changed since the previous call are parsed again.
+     * 
+     * @param newText The raw markdown content.
+     * @return The preview document, including the full HTML page.
+     */
+    public PreviewDocument renderDocument(CharSequence newText) {
+        String frontMatter = "";
+        Node frontMatterDocument = null;
+        boolean hasToc = false;
+        List<Heading> headings = new ArrayList<>();
+        List<Image> figures = new ArrayList<>();
+        List<String> blocks = new ArrayList<>();
+        List<Integer> blockLines = new ArrayList<>();
+        List<Double> heights = new ArrayList<>();
+        List<Boolean> keepWithNext = new ArrayList<>();
+        List<Boolean> chapterStarts = new ArrayList<>();
+        // Only the body counts: the preliminary pages are boilerplate
+        DocumentStats.Builder stats = new DocumentStats.Builder();
+        List<IncrementalMarkdownParser.ParsedChunk> chunks = new ArrayList<>();
+
+        // Walk the top-level blocks.
+        // Each chunk's outline (headings, figures, TOC marker) comes from one cached AST pass;
+        // each top-level node was rendered on its own, so chapters are assembled from those fragments.
+        // The [TOC] block is re-injected on the Table of Contents page instead of the body.
+        for (IncrementalMarkdownParser.Block block : incrementalParser.parse(newText)) {
+            IncrementalMarkdownParser.ParsedChunk chunk = block.getChunk();
+            chunks.add(chunk);
+            ChunkOutline outline = chunk.derive(ChunkOutline.class, ChunkOutline::new);
+            headings.addAll(outline.headings);
+            figures.addAll(outline.figures);
+            hasToc |= outline.hasToc;
+            ProposalPaginator.BlockMetrics metrics = chunk.derive(ProposalPaginator.BlockMetrics.class, paginator::measure);
+            DocumentStats.ChunkCounts counts = chunk.derive(DocumentStats.ChunkCounts.class, DocumentStats::countChunk);
+
+            for (int i = 0; i < chunk.getNodes().size(); i++) {
+                Node node = chunk.getNodes().get(i);
+                if (node instanceof YamlFrontMatterBlock) {
+                    frontMatter = node.getChars().toString();
+                    frontMatterDocument = chunk.getDocument();
+                    continue;
+                }
+                if (node instanceof TocBlock) {
+                    continue;
+                }
+                String blockHtml = chunk.getHtml().get(i);
+                if (blockHtml.isBlank()) continue;
+                blocks.add(blockHtml);
+                blockLines.add(block.getStartLine() + node.getStartLineNumber());
+                heights.add(metrics.getHeight(i));
+                keepWithNext.add(metrics.keepsWithNext(i));
+                stats.add(counts, i);
+                chapterStarts.add(node instanceof Heading && ((Heading) node).getLevel() == 1);
+            }
         }
-        
-        Node document = parser.parse(processedText);
-        
-        AbstractYamlFrontMatterVisitor visitor = new AbstractYamlFrontMatterVisitor();
-        visitor.visit(document);
-        Map<String, List<String>> metadata = visitor.getData();
-        
-        String htmlContent = renderer.render(document);
-        return buildFullHtml(metadata, htmlContent);
+
+        Map<String, String> regions = new LinkedHashMap<>();
+        regions.put("toc-content", hasToc ? buildToc(headings) : "");
+        regions.put("figures-list", buildFiguresList(figures));
+
+        // Chapters open a new page; long chapters are split where the estimated content overflows
+        List<Integer> pageStarts = paginator.paginate(heights, keepWithNext, chapterStarts);
+
+        PreliminaryPages prelims = preliminaryPages(frontMatter, frontMatterDocument);
+        String html = buildFullHtml(prelims, regions, blocks, blockLines, pageStarts);
+        return new PreviewDocument("proposal\n" + frontMatter, html, blocks, blockLines, regions, pageStarts, stats.build(), chunks);
+    }
+
+    /**
+     * Seeds the parser cache with the chunks of a previously rendered document, so editing it
+     * again only parses what changes. The outlines, metrics and counts memoized on the chunks
+     * come along. Call on the render worker.
+     */
+    public void prime(PreviewDocument document) {
+        incrementalParser.prime(document.getChunks());
     }
 
-    private String buildFullHtml(Map<String, List<String>> metadata, String content) {
+    /**
+     * Returns the preliminary pages for the given front matter.
+     * They depend on nothing else, so body edits reuse the previous result and skip
+     * both the YAML visitor and the page templates.
+     */
+    private PreliminaryPages preliminaryPages(String frontMatter, Node frontMatterDocument) {
+        PreliminaryPages cached = preliminaryPages;
+        if (cached != null && cached.frontMatterHash == frontMatter.hashCode() && cached.frontMatter.equals(frontMatter)) {
+            return cached;
+        }
+
+        Map<String, List<String>> metadata = Collections.emptyMap();
+        if (frontMatterDocument != null) {
+            AbstractYamlFrontMatterVisitor visitor = new AbstractYamlFrontMatterVisitor();
+            visitor.visit(frontMatterDocument);
+            metadata = visitor.getData();
+        }
+        preliminaryPages = buildPreliminaryPages(frontMatter, metadata);
+        return preliminaryPages;
+    }
+
+    /**
+     * Builds the nested TOC list from the collected headings.
+     * Blocks are parsed separately, so the TOC cannot come from Flexmark's [TOC] rendering,
+     * which only sees the headings of its own block.
+     */
+    private String buildToc(List<Heading> headings) {
+        StringBuilder toc = new StringBuilder("<div class=\"pro-toc\">\n");
+        Deque<Integer> levels = new ArrayDeque<>();
+        for (Heading heading : headings) {
+            int level = heading.getLevel();
+            if (levels.isEmpty() || level > levels.peek()) {
+                toc.append("<ul>\n");
+                levels.push(level);
+            } else {
+                toc.append("</li>\n");
+                while (levels.size() > 1 && level < levels.peek()) {
+                    levels.pop();
+                    if (level > levels.peek()) {
+                        // Reuse the open list for a level between its parent and the popped one
+                        levels.push(level);
+                        break;
+                    }
+                    toc.append("</ul>\n</li>\n");
+                }
+            }
+            String id = heading.getAnchorRefId();
+            String text = Escaping.escapeHtml(new TextCollectingVisitor().collectAndGetText(heading), false);
+            toc.append("<li><a href=\"#").append(id == null ? "" : id).append("\">").append(text).append("</a>");
+        }
+        if (!levels.isEmpty()) {
+            toc.append("</li>\n");
+            while (levels.size() > 1) {
+                levels.pop();
+                toc.append("</ul>\n</li>\n");
+            }
+            toc.append("</ul>\n");
+        }
+        return toc.append("</div>\n").toString();
+    }
+
+    /**
+     * Renders the pages that depend only on the front matter.
+     * The TOC and figure pages list body content, so buildFullHtml renders them on every call.
+     */
+    private PreliminaryPages buildPreliminaryPages(String frontMatter, Map<String, List<String>> metadata) {
+        // Slot values shared by all preliminary page templates
+        Map<String, String> values = new HashMap<>();
+
         // Extract metadata for Title Page construction
-        String title = getMeta(metadata, "title", "Project Title");
-        String subject = getMeta(metadata, "subject", "Project Subject");
-        String code = getMeta(metadata, "code", "Subject Code");
-        String program = getMeta(metadata, "program", "Bachelor of Information Technology");
-        String semester = getMeta(metadata, "semester", "IV");
-        String university = "Purbanchal University";
-        String college = "KANTIPUR CITY COLLEGE";
-        String address = "Putalisadak, Kathmandu";
-        String year = getMeta(metadata, "year", "2024");
-        String supervisor = getMeta(metadata, "supervisor", "Rubim Shrestha");
-
-        // Load external resources (Images, Fonts, Scripts)
-        String fontRegular = ResourceLoader.getFontUrl("Times New Roman.ttf");
-        String fontBold = ResourceLoader.getFontUrl("Times New Roman Bold.ttf");
-        String fontItalic = ResourceLoader.getFontUrl("Times New Roman Italic.ttf");
-        String fontBoldItalic = ResourceLoader.getFontUrl("Times New Roman Bold Italic.ttf");
-        String logoUrl = ResourceLoader.getImageUrl("Purbanchal_University_Logo.png");
-        String highlightJs = ResourceLoader.load("/highlight.js");
-        String highlightCss = ResourceLoader.load("/highlight.css");
-        
+        values.put("TITLE", getMeta(metadata, "title", "Project Title"));
+        values.put("SUBJECT", getMeta(metadata, "subject", "Project Subject"));
+        values.put("CODE", getMeta(metadata, "code", "Subject Code"));
+        values.put("PROGRAM", getMeta(metadata, "program", "Bachelor of Information Technology"));
+        values.put("SEMESTER", getMeta(metadata, "semester", "IV"));
+        values.put("UNIVERSITY", "Purbanchal University");
+        values.put("COLLEGE", "KANTIPUR CITY COLLEGE");
+        values.put("ADDRESS", "Putalisadak, Kathmandu");
+        values.put("YEAR", getMeta(metadata, "year", "2024"));
+        values.put("SUPERVISOR", getMeta(metadata, "supervisor", "Rubim Shrestha"));
+        values.put("HOD", getMeta(metadata, "hod", "Saroj Pandey"));
+        values.put("ABSTRACT", getMeta(metadata, "abstract", "The Blood Bank Management System is intended to meet the requirements of administrators and donors..."));
+
+        // Load external resources (Images)
+        values.put("LOGO_URL", ResourceLoader.getImageUrl("Purbanchal_University_Logo.png"));
+
         List<String> students = metadata.get("students");
         StringBuilder studentsHtml = new StringBuilder();
         if (students != null) {
@@ -100,30 +276,9 @@ public class ProposalRenderer {
         } else {
             studentsHtml.append("<div>Student Name (Roll No)</div>");
         }
+        values.put("STUDENTS", studentsHtml.toString());
 
-        // CSS Styles
-        // Load from external file
-        String css = "<style>" + ResourceLoader.loadContent("/proposal.css") + "</style>"
-        .replace("{{FONT_REGULAR}}", fontRegular != null ? fontRegular : "")
-        .replace("{{FONT_BOLD}}", fontBold != null ? fontBold : "")
-        .replace("{{FONT_ITALIC}}", fontItalic != null ? fontItalic : "")
-        .replace("{{FONT_BOLD_ITALIC}}", fontBoldItalic != null ? fontBoldItalic : "");
-
-        // --- SECTION: PRELIMINARY PAGES ---
-        
-        // Page 1: Title Page with Logo
-        String titlePageTemplate = ResourceLoader.loadContent("/title_page.html");
-        String page1 = String.format(titlePageTemplate, title, subject, code, program, semester, logoUrl, university, studentsHtml.toString(), college, address, year);
-
-        // Page 2: Supervisor / Approval Page (Detailed)
-        String recommendationTemplate = ResourceLoader.loadContent("/recommendation.html");
-        String page2 = String.format(recommendationTemplate, title, subject, code, program, semester, university, studentsHtml.toString(), supervisor, college, address, year);
-
-
-        // Page 3: Approval Certificate
-        String hodName = getMeta(metadata, "hod", "Saroj Pandey");
-        String externalName = "_____________________"; 
-
+        // Page 3 lists the student names inline, without roll numbers
         StringBuilder studentsComma = new StringBuilder();
         if (students != null && !students.isEmpty()) {
             for (int i = 0; i < students.size(); i++) {
@@ -139,98 +294,9 @@ public class ProposalRenderer {
         } else {
             studentsComma.append("Student Name");
         }
+        values.put("STUDENT_NAMES", studentsComma.toString());
 
-        String certificationTemplate = ResourceLoader.loadContent("/certification.html");
-        String page3 = String.format(certificationTemplate, title, studentsComma.toString(), program, supervisor, college, hodName, college);
-
-        // Page 4: Acknowledgment
-        String acknowledgmentTemplate = ResourceLoader.loadContent("/acknowledgement.html");
-        String page4 = String.format(acknowledgmentTemplate, college, supervisor);
-
-        // Page 5: Abstract
-        String abstractText = getMeta(metadata, "abstract", "The Blood Bank Management System is intended to meet the requirements of administrators and donors...");
-        String abstractTemplate = ResourceLoader.loadContent("/abstract.html");
-        String page5 = String.format(abstractTemplate, abstractText);
-
-        // --- SECTION: BODY PROCESSING ---
-        // Logic to extracting TOC and re-injecting it on the correct page.
-        // Also splits the content into per-chapter pages.
-
-        // 1. Clean Content: Remove the inline TOC if it exists
-        String cleanBody = content;
-        String extractedToc = "";
-        
-        // Robust TOC extraction using comment markers
-        // Matches <!-- TOC_START --> ... <!-- TOC_END -->
-        java.util.regex.Pattern tocPattern = java.util.regex.Pattern.compile("<!-- TOC_START -->(.*?)<!-- TOC_END -->", java.util.regex.Pattern.DOTALL);
-        java.util.regex.Matcher tocMatcher = tocPattern.matcher(content);
-        if (tocMatcher.find()) {
-            extractedToc = tocMatcher.group(1); // Extract inner content
-            cleanBody = tocMatcher.replaceAll(""); // Remove block from body
-        }
-
-        // Re-inject the extracted TOC into Page 6
-        String tocPrelims = """
-            <div class="toc-entry"><a href="#page-approval" class="toc-link"><span class="toc-text">Approval Certificate</span><span class="toc-dots"></span><span class="toc-page">I</span></a></div>
-            <div class="toc-entry"><a href="#page-acknowledgment" class="toc-link"><span class="toc-text">Acknowledgment</span><span class="toc-dots"></span><span class="toc-page">II</span></a></div>
-            <div class="toc-entry"><a href="#page-abstract" class="toc-link"><span class="toc-text">Abstract</span><span class="toc-dots"></span><span class="toc-page">III</span></a></div>
-            <div class="toc-entry"><a href="#page-figures" class="toc-link"><span class="toc-text">List of Figures</span><span class="toc-dots"></span><span class="toc-page">V</span></a></div>
-            <div class="toc-entry"><a href="#page-abbreviations" class="toc-link"><span class="toc-text">List of Abbreviations</span><span class="toc-dots"></span><span class="toc-page">VI</span></a></div>
-        """;
-        
-        String page6 = String.format("""
-             <div class="page" id="page-toc">
-                <div class="center">
-                    <h2 class="bold">Table of Contents</h2>
-                </div>
-                <br>
-                <div class="toc-list" id="dynamic-toc">
-                    %s
-                    <div class="toc-content">
-                        %s
-                    </div>
-                </div>
-                <div class="footer-number">
-                    <p>IV</p>
-                </div>
-             </div>
-             """, tocPrelims, extractedToc);
-
-        // Page 7: List of Figures
-        StringBuilder figuresHtml = new StringBuilder();
-        java.util.regex.Pattern imagePattern = java.util.regex.Pattern.compile("!\\[(.*?)\\]\\((.*?)\\)");
-        java.util.regex.Matcher imageMatcher = imagePattern.matcher(content);
-        int figCount = 1;
-        while (imageMatcher.find()) {
-            String caption = imageMatcher.group(1);
-            String imageUrl = imageMatcher.group(2);
-            if (caption.isEmpty()) caption = "Figure " + figCount;
-            figuresHtml.append(String.format("""
-                <div class="toc-entry">
-                    <span class="toc-text">Figure %d: %s</span>
-                    <span class="toc-dots"></span>
-                    <span class="toc-count-page" data-target-image="%s"></span>
-                </div>
-            """, figCount, caption, imageUrl));
-            figCount++;
-        }
-        
-        String page7 = String.format("""
-            <div class="page" id="page-figures">
-                <div class="center">
-                    <h2 class="bold">List of Figures</h2>
-                </div>
-                <br>
-                <div class="toc-list">
-                    %s
-                </div>
-                <div class="footer-number">
-                    <p>V</p>
-                </div>
-            </div>
-            """, figuresHtml.toString());
-
-        // Page 8: Abbreviations
+        // Page 8 content: Abbreviations table
         List<String> abbreviations = metadata.get("abbreviations");
         StringBuilder abbrHtml = new StringBuilder();
         if (abbreviations != null) {
@@ -238,56 +304,176 @@ public class ProposalRenderer {
             for (String abbr : abbreviations) {
                 String[] parts = abbr.split(":", 2);
                 if (parts.length == 2) {
-                    abbrHtml.append(String.format("<tr><td style='width: 150px; padding: 5px; vertical-align: top;'>%s</td><td style='padding: 5px; vertical-align: top;'>%s</td></tr>", parts[0].trim(), parts[1].trim()));
+                    abbrHtml.append("<tr><td style='width: 150px; padding: 5px; vertical-align: top;'>").append(parts[0].trim())
+                        .append("</td><td style='padding: 5px; vertical-align: top;'>").append(parts[1].trim()).append("</td></tr>");
                 } else {
-                    abbrHtml.append(String.format("<tr><td colspan='2'>%s</td></tr>", abbr));
+                    abbrHtml.append("<tr><td colspan='2'>").append(abbr).append("</td></tr>");
                 }
             }
             abbrHtml.append("</table>");
         }
-        String page8 = String.format("""
-            <div class="page" id="page-abbreviations">
-                <div class="center">
-                    <h2 class="bold">List of Abbreviations</h2>
-                </div>
-                <br>
-                <div class="abbr-list">
-                    %s
-                </div>
-                <div class="footer-number">
-                    <p>VI</p>
-                </div>
-            </div>
-            """, abbrHtml.toString());
-
-        // SPLIT BODY CONTENT BY <h1>
-        String[] chapters = cleanBody.split("(?=<h1)");
-        StringBuilder bodyPagesBuilder = new StringBuilder();
-        int bodyPageCount = 1;
-        
-        for (String chapterHtml : chapters) {
-            if (chapterHtml.trim().isEmpty()) continue;
-            
-            bodyPagesBuilder.append(String.format("""
-                <div class="page body-page" id="body-page-%d">
-                    <div class="main-content">
-                        %s
-                    </div>
-                    <div class="footer-number">
-                        <p class="dynamic-page-number">%d</p> 
-                    </div>
-                </div>
-            """, bodyPageCount, chapterHtml, bodyPageCount));
-            
-            bodyPageCount++; 
+        values.put("ABBREVIATIONS", abbrHtml.toString());
+
+        // Pages 1-5: Title, recommendation, approval, acknowledgment, abstract
+        StringBuilder leadingPages = new StringBuilder();
+        for (String path : LEADING_PAGES) {
+            ResourceLoader.loadTemplate(path).renderTo(leadingPages, values);
         }
 
+        // Page 8: Abbreviations
+        StringBuilder abbreviationsPage = new StringBuilder();
+        ResourceLoader.loadTemplate("/abbreviations_page.html").renderTo(abbreviationsPage, values);
+
+        return new PreliminaryPages(frontMatter, leadingPages.toString(), abbreviationsPage.toString());
+    }
+
+    private String buildFullHtml(PreliminaryPages prelims, Map<String, String> regions,
+                                 List<String> blocks, List<Integer> blockLines, List<Integer> pageStarts) {
+        String highlightJs = ResourceLoader.load("/highlight.js");
+        String highlightCss = ResourceLoader.load("/highlight.css");
+
         // JS logic
-        String proposalJs = ResourceLoader.loadContent("/proposal.js");
+        // preview.js must come first: proposal.js installs its relayout hook on it
+        String previewJs = ResourceLoader.loadContent("/preview.js");
+        String pageIndexJs = ResourceLoader.loadContent("/page_index.js");
+
+        // Pre-size a single output buffer: every page and chapter is appended straight into it
+        CompiledTemplate tocPage = ResourceLoader.loadTemplate("/toc_page.html");
+        CompiledTemplate figuresPage = ResourceLoader.loadTemplate("/figures_page.html");
+        CompiledTemplate bodyPage = ResourceLoader.loadTemplate("/body_page.html");
+        int capacity = css.length() + previewJs.length() + pageIndexJs.length() + proposalJs.length() + 1024
+            + prelims.leadingPages.length() + prelims.abbreviationsPage.length()
+            + tocPage.getLiteralLength() + figuresPage.getLiteralLength();
+        for (String region : regions.values()) {
+            capacity += region.length();
+        }
+        for (String block : blocks) {
+            capacity += block.length() + PreviewDocument.BLOCK_WRAPPER_LENGTH;
+        }
+        capacity += bodyPage.getLiteralLength() * pageStarts.size();
+
+        StringBuilder out = new StringBuilder(capacity);
+        out.append("<html><head>").append(css)
+            .append("<link rel=\"stylesheet\" href=\"").append(highlightCss).append("\"></head><body>");
+
+        // --- SECTION: PRELIMINARY PAGES ---
+        // Only the TOC and figure lists depend on the body; the rest is reused as rendered
+        out.append(prelims.leadingPages);
+        tocPage.renderTo(out, regionSlots(regions));
+        figuresPage.renderTo(out, regionSlots(regions));
+        out.append(prelims.abbreviationsPage);
+
+        // --- SECTION: BODY PROCESSING ---
+        // One body page per computed page; every chapter (<h1>) starts on a new one.
+        // Each block is wrapped so that preview patches can address it (see preview.js).
+        out.append("<div id=\"body-pages\">");
+        for (int page = 0; page < pageStarts.size(); page++) {
+            final int from = pageStarts.get(page);
+            final int to = page + 1 < pageStarts.size() ? pageStarts.get(page + 1) : blocks.size();
+            final int pageNumber = page + 1;
+            bodyPage.renderTo(out, (slot, target) -> {
+                if (slot.equals("PAGE")) {
+                    target.append(pageNumber);
+                } else if (slot.equals("CONTENT")) {
+                    for (int i = from; i < to; i++) {
+                        PreviewDocument.appendBlock(target, blocks.get(i), blockLines.get(i));
+                    }
+                }
+            });
+        }
+        out.append("</div>");
+
         // We prepend the <script> tag opening and append closing tag as the resource file is pure JS
-        String script = "<script>" + proposalJs + "</script>";
+        out.append("<script src=\"").append(highlightJs).append("\"></script>")
+            .append("<script>").append(previewJs).append("</script>")
+            .append("<script>").append(pageIndexJs).append("</script>")
+            .append("<script>").append(proposalJs).append("</script>")
+            .append("</body></html>");
+        return out.toString();
+    }
+
+    /**
+     * Fills the TOC and figure page slots from the body-derived regions (see renderDocument).
+     */
+    private static CompiledTemplate.SlotWriter regionSlots(Map<String, String> regions) {
+        return (slot, target) -> {
+            if (slot.equals("TOC")) {
+                target.append(regions.get("toc-content"));
+            } else if (slot.equals("FIGURES")) {
+                target.append(regions.get("figures-list"));
+            }
+        };
+    }
+
+    /**
+     * Headings, figures and the TOC marker of one chunk, collected in a single visitor pass
+     * over its AST. Memoized on the chunk, so unchanged chunks are never walked again.
+     */
+    private static final class ChunkOutline {
+        final List<Heading> headings = new ArrayList<>();
+        final List<Image> figures = new ArrayList<>();
+        boolean hasToc = false;
+
+        private final NodeVisitor visitor = new NodeVisitor(
+            new VisitHandler<>(Heading.class, this::visitHeading),
+            new VisitHandler<>(Image.class, this::visitImage),
+            new VisitHandler<>(TocBlock.class, this::visitToc)
+        );
+
+        ChunkOutline(IncrementalMarkdownParser.ParsedChunk chunk) {
+            visitor.visit(chunk.getDocument());
+        }
+
+        private void visitHeading(Heading heading) {
+            if (heading.getLevel() <= TOC_MAX_LEVEL) {
+                headings.add(heading);
+            }
+            visitor.visitChildren(heading); // Headings may contain images
+        }
+
+        private void visitImage(Image image) {
+            figures.add(image);
+        }
 
-        return "<html><head>" + css + "<link rel=\"stylesheet\" href=\"" + highlightCss + "\"></head><body>" + page1 + page2 + page3 + page4 + page5 + page6 + page7 + page8 + bodyPagesBuilder.toString() + "<script src=\"" + highlightJs + "\"></script>" + script + "</body></html>";
+        private void visitToc(TocBlock toc) {
+            hasToc = true;
+        }
+    }
+
+    /**
+     * Preliminary pages rendered for one version of the front matter.
+     */
+    private static final class PreliminaryPages {
+        final String frontMatter;
+        final int frontMatterHash;
+        final String leadingPages;
+        final String abbreviationsPage;
+
+        PreliminaryPages(String frontMatter, String leadingPages, String abbreviationsPage) {
+            this.frontMatter = frontMatter;
+            this.frontMatterHash = frontMatter.hashCode();
+            this.leadingPages = leadingPages;
+            this.abbreviationsPage = abbreviationsPage;
+        }
+    }
+
+    /**
+     * Builds the entries of the List of Figures page from the collected image nodes.
+     */
+    private String buildFiguresList(List<Image> figures) {
+        StringBuilder figuresHtml = new StringBuilder();
+        int figCount = 1;
+        for (Image image : figures) {
+            String caption = image.getText().toString();
+            if (caption.isEmpty()) caption = "Figure " + figCount;
+            figuresHtml.append("<div class=\"toc-entry\"><span class=\"toc-text\">Figure ").append(figCount).append(": ")
+                .append(Escaping.escapeHtml(caption, false))
+                .append("</span><span class=\"toc-dots\"></span><span class=\"toc-count-page\" data-target-image=\"")
+                .append(Escaping.escapeHtml(image.getUrl().unescape(), false))
+                .append("\"></span></div>\n");
+            figCount++;
+        }
+        return figuresHtml.toString();
     }
 
     private String getMeta(Map<String, List<String>> metadata, String key, String defaultValue) {
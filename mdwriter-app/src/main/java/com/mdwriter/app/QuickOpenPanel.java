@@ -0,0 +1,128 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+import atlantafx.base.theme.Styles;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+/**
+ * The quick open panel.
+ * Fuzzy-matches the paths of the workspace files as the user types, so "dlnt" finds
+ * daily/notes.md. Matching runs on the FX thread at every keystroke, as it takes less than
+ * a frame; the arrow keys move through the results and Enter opens the selected file.
+ */
+public class QuickOpenPanel extends Dialog {
+  // Files listed per query
+  private static final int MAX_RESULTS = 50;
+
+  private final PathIndex index;
+  private final Consumer<File> onOpen;
+  private final TextField query = new TextField();
+  private final Label status = new Label();
+  private final ListView<PathIndex.Match> results = new ListView<>();
+
+  public QuickOpenPanel(PathIndex index, Consumer<File> onOpen) {
+    super(520, 420);
+    this.index = index;
+    this.onOpen = onOpen;
+
+    query.setPromptText("Go to file");
+    query.textProperty().addListener((observable, oldValue, newValue) -> match(newValue));
+    query.setOnAction(event -> openSelected());
+    query.setOnKeyPressed(event -> {
+      // The results are browsed without leaving the query field
+      if (event.getCode() == KeyCode.DOWN) {
+        results.getSelectionModel().selectNext();
+      } else if (event.getCode() == KeyCode.UP) {
+        results.getSelectionModel().selectPrevious();
+      } else {
+        return;
+      }
+      results.scrollTo(results.getSelectionModel().getSelectedIndex());
+      event.consume();
+    });
+
+    status.getStyleClass().addAll(Styles.TEXT_MUTED, Styles.TEXT_SMALL);
+    results.setCellFactory(list -> new MatchCell());
+    results.setOnMouseClicked(event -> openSelected());
+    results.setOnKeyPressed(event -> {
+      if (event.getCode() == KeyCode.ENTER) {
+        openSelected();
+      }
+    });
+
+    VBox panel = new VBox(8, query, status, results);
+    panel.setPadding(new Insets(10));
+    VBox.setVgrow(results, Priority.ALWAYS);
+    VBox.setVgrow(panel, Priority.ALWAYS);
+    setAlignment(Pos.TOP_LEFT);
+    getChildren().add(panel);
+  }
+
+  /**
+   * Starts over with an empty query, ready to type.
+   */
+  public void focusQuery() {
+    query.clear();
+    query.requestFocus();
+  }
+
+  private void match(String text) {
+    List<PathIndex.Match> matches = index.match(text, MAX_RESULTS);
+    results.getItems().setAll(matches);
+    results.getSelectionModel().selectFirst();
+    results.scrollTo(0);
+    if (text.isBlank()) {
+      status.setText("");
+    } else if (!index.isReady()) {
+      status.setText("Still listing the workspace...");
+    } else {
+      status.setText(matches.isEmpty() ? "No matching files" : "");
+    }
+  }
+
+  private void openSelected() {
+    PathIndex.Match match = results.getSelectionModel().getSelectedItem();
+    if (match != null) {
+      onOpen.accept(match.getFile().toFile());
+    }
+  }
+
+  /**
+   * Shows a match as its file name and its folder.
+   */
+  private static class MatchCell extends ListCell<PathIndex.Match> {
+    private final Label name = new Label();
+    private final Label folder = new Label();
+    private final VBox content = new VBox(2, name, folder);
+
+    MatchCell() {
+      name.getStyleClass().add(Styles.TEXT_BOLD);
+      folder.getStyleClass().addAll(Styles.TEXT_MUTED, Styles.TEXT_SMALL);
+    }
+
+    @Override
+    protected void updateItem(PathIndex.Match match, boolean empty) {
+      super.updateItem(match, empty);
+      if (empty || match == null) {
+        setGraphic(null);
+        return;
+      }
+      String path = match.getPath();
+      int slash = path.lastIndexOf('/');
+      name.setText(path.substring(slash + 1));
+      folder.setText(slash < 0 ? "" : path.substring(0, slash));
+      setGraphic(content);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.mdwriter.app;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Schedules preview renders on a single background worker.
+ *
+ * Responsibilities:
+ * - Running Markdown parsing and HTML assembly off the FX thread.
+ * - Coalescing bursts of edits so only the latest request is rendered (latest-wins).
+ * - Adapting the debounce window to the measured cost of recent renders, while never holding
+ *   the preview back more than {@link #MAX_WAIT_MS} during continuous typing.
+ * - Handing finished results back to the FX thread in order. A render that was already running
+ *   when newer edits came in is still shown, so the preview keeps moving while the user types.
+ */
+public class RenderScheduler {
+
+    // Bounds for the adaptive debounce window (milliseconds)
+    private static final long MIN_DELAY_MS = 15;
+    private static final long MAX_DELAY_MS = 400;
+    // Longest the preview lags behind the first edit it does not show yet (milliseconds)
+    private static final long MAX_WAIT_MS = 1000;
+    // Weight of the newest sample in the moving average of render cost
+    private static final double COST_SMOOTHING = 0.3;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mdwriter-render");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Incremented on every submit; a render only starts if it is still the latest
+    private final AtomicLong generation = new AtomicLong();
+    // Renders up to this ticket were cancelled and never publish
+    private final AtomicLong cancelled = new AtomicLong();
+    // FX thread only: the newest ticket shown, and when the oldest edit not shown yet came in (or 0)
+    private long published = 0;
+    private long burstStart = 0;
+    private ScheduledFuture<?> pending;
+    private volatile double averageCostMs = 0;
+
+    /**
+     * Requests a render. Any render that has not started yet is dropped in favour of this one.
+     * Must be called on the FX thread.
+     *
+     * @param job     The render work, executed on the background worker.
+     * @param onReady Receives the result on the FX thread, unless it was cancelled or a newer result
+     *                was already shown. A render that started before newer edits came in is still shown.
+     */
+    public <T> void submit(Callable<T> job, Consumer<T> onReady) {
+        long ticket = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        long now = System.nanoTime();
+        if (burstStart == 0) {
+            burstStart = now;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(now - burstStart);
+        long delay = Math.max(0, Math.min(currentDelay(), MAX_WAIT_MS - waited));
+        pending = worker.schedule(() -> run(ticket, job, onReady), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invalidates every render that is queued or in flight.
+     */
+    public void cancel() {
+        cancelled.set(generation.incrementAndGet());
+        burstStart = 0;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * The debounce window tracks the average render cost: cheap documents stay live,
+     * expensive ones wait for a pause in typing instead of rendering every keystroke.
+     */
+    private long currentDelay() {
+        long delay = Math.round(averageCostMs);
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, delay));
+    }
+
+    private <T> void run(long ticket, Callable<T> job, Consumer<T> onReady) {
+        if (ticket != generation.get()) {
+            return; // Superseded before it started
+        }
+
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = job.call();
+        } catch (Exception e) {
+            StatusReporter.shared().error("Could not render the preview", e);
+            return;
+        }
+        recordCost((System.nanoTime() - start) / 1_000_000.0);
+
+        Platform.runLater(() -> {
+            // Edits made while rendering are shown by a later render; until then this one is
+            // the freshest preview there is
+            if (ticket <= cancelled.get() || ticket <= published) {
+                return;
+            }
+            published = ticket;
+            burstStart = ticket == generation.get() ? 0 : System.nanoTime();
+            onReady.accept(result);
+        });
+    }
+
+    private void recordCost(double costMs) {
+        averageCostMs = averageCostMs == 0
+            ? costMs
+            : averageCostMs + COST_SMOOTHING * (costMs - averageCostMs);
+    }
+}
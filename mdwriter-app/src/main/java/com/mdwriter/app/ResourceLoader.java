@@ -1,19 +1,93 @@
 package com.mdwriter.app;
 
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class for loading resources (Images, CSS, Fonts) from the classpath.
  * Ensures compatibility across different execution environments (IDE vs Jar).
+ *
+ * Resources used by the renderers are read once into an immutable in-memory cache
+ * (see {@link #warmUp()}); their templates are compiled once as well.
  */
 public class ResourceLoader {
-    
+
+    // Text resources read on every render
+    private static final String[] PRELOADED_CONTENT = {
+        "/proposal.css",
+        "/proposal.js",
+        "/preview.js",
+        "/page_index.js",
+        "/title_page.html",
+        "/recommendation.html",
+        "/certification.html",
+        "/acknowledgement.html",
+        "/abstract.html",
+        "/toc_page.html",
+        "/figures_page.html",
+        "/abbreviations_page.html",
+        "/body_page.html"
+    };
+
+    // Resources referenced by URL from the generated HTML
+    private static final String[] PRELOADED_URLS = {
+        "/highlight.js",
+        "/highlight.css",
+        "/fonts/Times New Roman.ttf",
+        "/fonts/Times New Roman Bold.ttf",
+        "/fonts/Times New Roman Italic.ttf",
+        "/fonts/Times New Roman Bold Italic.ttf",
+        "/images/Purbanchal_University_Logo.png"
+    };
+
+    /**
+     * Lazily initialized holder: the maps are built once, on first use or by warmUp(),
+     * and never change afterwards, so reads need no locking.
+     */
+    private static final class Cache {
+        static final Map<String, String> URLS;
+        static final Map<String, String> CONTENT;
+        static final Map<String, CompiledTemplate> TEMPLATES;
+
+        static {
+            Map<String, String> urls = new HashMap<>();
+            for (String path : PRELOADED_URLS) {
+                String url = resolve(path);
+                if (url != null) urls.put(path, url);
+            }
+            Map<String, String> content = new HashMap<>();
+            Map<String, CompiledTemplate> templates = new HashMap<>();
+            for (String path : PRELOADED_CONTENT) {
+                String text = read(path);
+                content.put(path, text);
+                templates.put(path, CompiledTemplate.compile(text));
+            }
+            URLS = Map.copyOf(urls);
+            CONTENT = Map.copyOf(content);
+            TEMPLATES = Map.copyOf(templates);
+        }
+    }
+
+    /**
+     * Reads and compiles the preloaded resources.
+     * Called at startup so the first render does not pay for classpath I/O.
+     */
+    public static void warmUp() {
+        Cache.CONTENT.size();
+    }
+
     /**
      * Loads a resource and returns its external form URL string.
      * @param path Path to the resource (e.g., "/fonts/font.ttf")
      * @return The string representation of the URL, or null if not found.
      */
     public static String load(String path) {
+        String cached = Cache.URLS.get(path);
+        return cached != null ? cached : resolve(path);
+    }
+
+    private static String resolve(String path) {
         URL url = ResourceLoader.class.getResource(path);
         if (url == null) {
             System.err.println("Could not find resource: " + path);
@@ -21,20 +95,36 @@ public class ResourceLoader {
         }
         return url.toExternalForm();
     }
-    
+
     public static String getFontUrl(String fontName) {
         return load("/fonts/" + fontName);
     }
-    
+
     public static String getImageUrl(String imageName) {
         return load("/images/" + imageName);
     }
     /**
      * Loads a resource and returns its content as a String.
+     * Preloaded resources are served from memory.
      * @param path Path to the resource.
      * @return The text content of the resource, or empty string if not found.
      */
     public static String loadContent(String path) {
+        String cached = Cache.CONTENT.get(path);
+        return cached != null ? cached : read(path);
+    }
+
+    /**
+     * Returns the compiled form of a preloaded text resource.
+     * @param path Path to the resource.
+     * @return The compiled template; resources outside the preload list are compiled on each call.
+     */
+    public static CompiledTemplate loadTemplate(String path) {
+        CompiledTemplate cached = Cache.TEMPLATES.get(path);
+        return cached != null ? cached : CompiledTemplate.compile(read(path));
+    }
+
+    private static String read(String path) {
         try (java.io.InputStream is = ResourceLoader.class.getResourceAsStream(path)) {
             if (is == null) {
                 System.err.println("Could not find resource content: " + path);
@@ -0,0 +1,737 @@
+package com.mdwriter.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Full-text index of the Markdown files of the workspace, for the search panel.
+ *
+ * Responsibilities:
+ * - Keeping an inverted index: for each word, the files containing it and how often.
+ * - Building it at startup from the index saved by the previous session: only files whose
+ *   modification time or size changed are read again, on the {@link IndexWorkers}.
+ * - Updating single files and folders when they are saved or change on disk.
+ * - Ranking the files that contain every word of a query (BM25), the last word also
+ *   matching as a prefix while it is being typed; snippets are cut around the first match.
+ * - Saving itself in the workspace's cache directory (see {@link WorkspaceFiles}).
+ *
+ * Methods can be called from any thread. Everything but {@link #search} reads files and
+ * must stay off the FX thread. The saved index is loaded by the first build or update,
+ * before that call changes anything, so changes reported early are not lost.
+ */
+public class SearchIndex {
+
+    private static final int MAGIC = 0x4D445331; // "MDS1"
+    // Longer runs of letters and digits (e.g. base64 data) are not words worth indexing
+    private static final int MAX_TERM_LENGTH = 64;
+    // Words of the file name count as this many occurrences
+    private static final int NAME_WEIGHT = 3;
+    // BM25 parameters: term frequency saturation and length normalization
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int SNIPPET_LENGTH = 160;
+
+    /**
+     * A file matching a query.
+     */
+    public static final class Hit {
+        private final Path file;
+        private final double score;
+        private final String snippet;
+        private final int line;
+
+        Hit(Path file, double score, String snippet, int line) {
+            this.file = file;
+            this.score = score;
+            this.snippet = snippet;
+            this.line = line;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return The text around the first match, or an empty string if none was cut yet.
+         */
+        public String getSnippet() {
+            return snippet;
+        }
+
+        /**
+         * @return The 1-based line of the snippet, or 0 if unknown.
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    private static final class Doc {
+        // Changes when the ids are renumbered
+        int id;
+        final Path path;
+        final long lastModified;
+        final long size;
+        // Number of words, for length normalization
+        final int length;
+        // Distinct words, to take the file out of the postings again
+        String[] terms;
+
+        Doc(int id, Path path, long lastModified, long size, int length) {
+            this.id = id;
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The files containing a word, by increasing id, with the word's count in each.
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] counts = new int[4];
+        int size = 0;
+
+        void add(int doc, int count) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            docs[size] = doc;
+            counts[size] = count;
+            size++;
+        }
+
+        void remove(int doc) {
+            int index = Arrays.binarySearch(docs, 0, size, doc);
+            if (index >= 0) {
+                System.arraycopy(docs, index + 1, docs, index, size - index - 1);
+                System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * The words of a file, read outside the lock.
+     */
+    private static final class Analysis {
+        final Path path;
+        final long lastModified;
+        final long size;
+        final int length;
+        final Map<String, int[]> counts;
+
+        Analysis(Path path, long lastModified, long size, int length, Map<String, int[]> counts) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.length = length;
+            this.counts = counts;
+        }
+    }
+
+    private final Path root;
+    private final Path indexFile;
+
+    // Guarded by this. Ids only grow, so postings stay sorted by appending; removed files leave
+    // a null, until there are more of those than files and the ids are renumbered densely.
+    private final List<Doc> docs = new ArrayList<>();
+    private final TreeMap<String, Doc> byPath = new TreeMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    // The words in order, for prefix matching; rebuilt by the first query after words came or went
+    private String[] sortedTerms = null;
+    private long totalLength = 0;
+    private int liveDocs = 0;
+    private boolean dirty = false;
+    // Held while the index is written to disk, so saves land in order
+    private final Object saveLock = new Object();
+    // Guarded by loadLock, held while the saved index is read so searches are not blocked
+    private final Object loadLock = new Object();
+    private boolean loaded = false;
+
+    private volatile boolean ready = false;
+
+    public SearchIndex(File rootDirectory) {
+        this(rootDirectory, pathFor(rootDirectory));
+    }
+
+    /**
+     * @param indexFile Where the index is saved and loaded from.
+     */
+    SearchIndex(File rootDirectory, Path indexFile) {
+        this.root = rootDirectory.toPath().toAbsolutePath().normalize();
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @return Where the index of a workspace is kept.
+     */
+    public static Path pathFor(File rootDirectory) {
+        return WorkspaceFiles.cacheDirectory(rootDirectory).resolve("search.index");
+    }
+
+    /**
+     * @return true once the index has been checked against every file of the workspace.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Loads the saved index, brings it up to date with the workspace and saves it again.
+     * Changed files are read in parallel. Also used to start over after change events were lost.
+     */
+    public void build() {
+        ensureLoaded();
+        Set<String> found = Collections.synchronizedSet(new HashSet<>());
+        indexTree(root, found);
+        synchronized (this) {
+            for (Doc doc : new ArrayList<>(byPath.values())) {
+                if (!found.contains(doc.path.toString()) && !Files.exists(doc.path)) {
+                    removeDoc(doc);
+                }
+            }
+        }
+        ready = true;
+        save();
+    }
+
+    /**
+     * Applies changes reported by the workspace watcher, or a save.
+     *
+     * @param directories Folders whose entries were created, deleted or renamed.
+     * @param files       Files and folders that were created or modified.
+     */
+    public void update(Collection<Path> directories, Collection<Path> files) {
+        ensureLoaded();
+        for (Path directory : directories) {
+            removeVanished(directory);
+        }
+        for (Path file : files) {
+            if (Files.isDirectory(file)) {
+                indexTree(file, null); // Created or moved in, with everything inside
+            } else if (isMarkdown(file)) {
+                indexFile(file);
+            }
+        }
+    }
+
+    /**
+     * Reads again every Markdown file below a folder that changed since it was indexed.
+     */
+    private void indexTree(Path start, Set<String> found) {
+        List<Path> changed = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return !dir.equals(root) && WorkspaceFiles.isHidden(dir, attributes) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && isMarkdown(file) && !WorkspaceFiles.isHidden(file, attributes)) {
+                        if (found != null) {
+                            found.add(file.toString());
+                        }
+                        if (!isCurrent(file, attributes)) {
+                            changed.add(file);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Unreadable or deleted meanwhile
+                }
+            });
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index " + start.getFileName(), e);
+        }
+        IndexWorkers.forEach(changed, this::indexFile);
+    }
+
+    private void indexFile(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!isCurrent(file, attributes)) {
+                apply(analyze(file, attributes));
+            }
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Doc doc = byPath.get(file.toString());
+                if (doc != null) {
+                    removeDoc(doc);
+                }
+            }
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index " + file.getFileName(), e);
+        }
+    }
+
+    /**
+     * Drops the indexed files below a folder whose entry in that folder is gone.
+     */
+    private void removeVanished(Path directory) {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // The folder itself is gone: so is everything below it
+        } catch (IOException e) {
+            StatusReporter.shared().error("Could not index " + directory.getFileName(), e);
+            return;
+        }
+        String prefix = directory.toString() + File.separator;
+        synchronized (this) {
+            List<Doc> below = new ArrayList<>(byPath.subMap(prefix, prefix + Character.MAX_VALUE).values());
+            for (Doc doc : below) {
+                if (!names.contains(directory.relativize(doc.path).getName(0).toString())) {
+                    removeDoc(doc);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(Path file, BasicFileAttributes attributes) {
+        Doc doc = byPath.get(file.toString());
+        return doc != null && doc.lastModified == attributes.lastModifiedTime().toMillis() && doc.size == attributes.size();
+    }
+
+    private static Analysis analyze(Path file, BasicFileAttributes attributes) throws IOException {
+        // The attributes were read first, so the text is at least as new as the recorded time
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Map<String, int[]> counts = new HashMap<>();
+        int length = tokenize(text, term -> counts.computeIfAbsent(term, key -> new int[1])[0]++);
+        tokenize(file.getFileName().toString(), term -> counts.computeIfAbsent(term, key -> new int[1])[0] += NAME_WEIGHT);
+        return new Analysis(file, attributes.lastModifiedTime().toMillis(), attributes.size(), length, counts);
+    }
+
+    private synchronized void apply(Analysis analysis) {
+        Doc existing = byPath.get(analysis.path.toString());
+        if (existing != null) {
+            if (existing.lastModified > analysis.lastModified) {
+                return; // A newer version was indexed meanwhile
+            }
+            removeDoc(existing);
+        }
+        Doc doc = new Doc(docs.size(), analysis.path, analysis.lastModified, analysis.size, analysis.length);
+        doc.terms = new String[analysis.counts.size()];
+        int i = 0;
+        for (Map.Entry<String, int[]> count : analysis.counts.entrySet()) {
+            doc.terms[i++] = count.getKey();
+            Postings list = postings.get(count.getKey());
+            if (list == null) {
+                list = new Postings();
+                postings.put(count.getKey(), list);
+                sortedTerms = null;
+            }
+            list.add(doc.id, count.getValue()[0]);
+        }
+        addDoc(doc);
+    }
+
+    private void addDoc(Doc doc) {
+        docs.add(doc);
+        byPath.put(doc.path.toString(), doc);
+        totalLength += doc.length;
+        liveDocs++;
+        dirty = true;
+    }
+
+    private void removeDoc(Doc doc) {
+        for (String term : doc.terms) {
+            Postings list = postings.get(term);
+            list.remove(doc.id);
+            if (list.size == 0) {
+                postings.remove(term);
+                sortedTerms = null;
+            }
+        }
+        docs.set(doc.id, null);
+        byPath.remove(doc.path.toString());
+        totalLength -= doc.length;
+        liveDocs--;
+        dirty = true;
+        if (docs.size() - liveDocs > liveDocs) {
+            renumber();
+        }
+    }
+
+    /**
+     * Numbers the files densely again, so each save of a file does not leave a slot that every
+     * search has to scan. The order is kept, so the postings stay sorted.
+     */
+    private void renumber() {
+        int[] number = new int[docs.size()];
+        List<Doc> live = new ArrayList<>(liveDocs);
+        for (Doc doc : docs) {
+            if (doc == null) continue;
+            number[doc.id] = live.size();
+            doc.id = live.size();
+            live.add(doc);
+        }
+        docs.clear();
+        docs.addAll(live);
+        for (Postings list : postings.values()) {
+            for (int i = 0; i < list.size; i++) {
+                list.docs[i] = number[list.docs[i]];
+            }
+        }
+    }
+
+    /**
+     * Finds the files containing every word of the query, best first. Only touches memory.
+     *
+     * @return At most limit hits, without snippets.
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = new ArrayList<>();
+        tokenize(query, terms::add);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // While the last word is being typed, it also matches longer words
+        boolean prefixLast = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+
+        List<Hit> hits = new ArrayList<>();
+        synchronized (this) {
+            double[] scores = new double[docs.size()];
+            int[] matched = new int[docs.size()];
+            double averageLength = liveDocs == 0 ? 1 : Math.max(1, (double) totalLength / liveDocs);
+            for (int q = 0; q < terms.size(); q++) {
+                String term = terms.get(q);
+                Collection<Postings> lists;
+                if (q == terms.size() - 1 && prefixLast) {
+                    lists = withPrefix(term);
+                } else {
+                    Postings list = postings.get(term);
+                    lists = list == null ? Collections.emptyList() : Collections.singletonList(list);
+                }
+                for (Postings list : lists) {
+                    double idf = Math.log(1 + (liveDocs - list.size + 0.5) / (list.size + 0.5));
+                    for (int i = 0; i < list.size; i++) {
+                        int id = list.docs[i];
+                        if (matched[id] < q) {
+                            continue; // Misses an earlier word
+                        }
+                        int count = list.counts[i];
+                        double norm = K1 * (1 - B + B * docs.get(id).length / averageLength);
+                        scores[id] += idf * count * (K1 + 1) / (count + norm);
+                        matched[id] = q + 1;
+                    }
+                }
+            }
+            for (int id = 0; id < matched.length; id++) {
+                if (matched[id] == terms.size()) {
+                    hits.add(new Hit(docs.get(id).path, scores[id], "", 0));
+                }
+            }
+        }
+        hits.sort((a, b) -> Double.compare(b.score, a.score));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    private List<Postings> withPrefix(String prefix) {
+        if (sortedTerms == null) {
+            sortedTerms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(sortedTerms);
+        }
+        List<Postings> lists = new ArrayList<>();
+        int index = Arrays.binarySearch(sortedTerms, prefix);
+        for (int i = index < 0 ? -index - 1 : index; i < sortedTerms.length && sortedTerms[i].startsWith(prefix); i++) {
+            lists.add(postings.get(sortedTerms[i]));
+        }
+        return lists;
+    }
+
+    /**
+     * Reads the file of a hit and cuts the line around the first match of the query.
+     */
+    public Hit withSnippet(Hit hit, String query) {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(hit.file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return hit; // Deleted meanwhile; the watcher drops it from the index
+        }
+        List<String> terms = new ArrayList<>();
+        tokenize(query, terms::add);
+        String lower = text.toLowerCase(Locale.ROOT);
+        int match = -1;
+        if (lower.length() == text.length()) { // Offsets only carry over if lowercasing kept the length
+            for (String term : terms) {
+                int index = lower.indexOf(term);
+                if (index >= 0 && (match < 0 || index < match)) {
+                    match = index;
+                }
+            }
+        }
+        if (match < 0) {
+            match = 0;
+        }
+
+        int lineStart = text.lastIndexOf('\n', match) + 1;
+        int lineEnd = text.indexOf('\n', match);
+        if (lineEnd < 0) {
+            lineEnd = text.length();
+        }
+        int start = Math.max(lineStart, match - SNIPPET_LENGTH / 3);
+        int end = Math.min(lineEnd, start + SNIPPET_LENGTH);
+        String snippet = (start > lineStart ? "…" : "") + text.substring(start, end).strip() + (end < lineEnd ? "…" : "");
+        int line = 1;
+        for (int i = 0; i < lineStart; i++) {
+            if (text.charAt(i) == '\n') line++;
+        }
+        return new Hit(hit.file, hit.score, snippet, line);
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits.
+     *
+     * @return The number of words.
+     */
+    private static int tokenize(CharSequence text, Consumer<String> onTerm) {
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start && i - start <= MAX_TERM_LENGTH) {
+                onTerm.accept(text.subSequence(start, i).toString().toLowerCase(Locale.ROOT));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isMarkdown(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".md") || name.endsWith(".markdown");
+    }
+
+    /**
+     * Writes the index if it changed since it was loaded or last saved. The index is only
+     * locked while it is copied into memory, not while the copy is written to disk.
+     */
+    public void save() {
+        synchronized (saveLock) {
+            byte[] bytes;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 << 10);
+                try (DataOutputStream out = new DataOutputStream(buffer)) {
+                    write(out);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e); // Writes to memory only
+                }
+                bytes = buffer.toByteArray();
+                dirty = false;
+            }
+            try {
+                Files.createDirectories(indexFile.getParent());
+                AtomicFiles.write(indexFile, out -> out.write(bytes), null);
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true; // Written again by the next save
+                }
+                StatusReporter.shared().error("Could not save the search index", e);
+            }
+        }
+    }
+
+    /**
+     * Format: header (magic, workspace path), the files (relative path, modification time,
+     * size, length), then the postings of each word with the files renumbered densely:
+     * deltas between file numbers and counts, as variable-length integers.
+     */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(root.toString());
+        int[] number = new int[docs.size()];
+        out.writeInt(liveDocs);
+        int next = 0;
+        for (Doc doc : docs) {
+            if (doc == null) continue;
+            number[doc.id] = next++;
+            out.writeUTF(root.relativize(doc.path).toString());
+            out.writeLong(doc.lastModified);
+            out.writeLong(doc.size);
+            out.writeInt(doc.length);
+        }
+        out.writeInt(postings.size());
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            Postings list = entry.getValue();
+            out.writeUTF(entry.getKey());
+            writeVarInt(out, list.size);
+            int previous = 0;
+            for (int i = 0; i < list.size; i++) {
+                int current = number[list.docs[i]];
+                writeVarInt(out, current - previous);
+                writeVarInt(out, list.counts[i]);
+                previous = current;
+            }
+        }
+    }
+
+    /**
+     * Loads the saved index, once, before the first change is applied.
+     */
+    private void ensureLoaded() {
+        synchronized (loadLock) {
+            if (!loaded) {
+                loaded = true;
+                load();
+            }
+        }
+    }
+
+    /**
+     * Reads the index saved by the previous session; a missing or damaged one is ignored.
+     * The saved files are added to what is indexed already, skipping files indexed meanwhile.
+     */
+    private void load() {
+        List<Doc> loadedDocs = new ArrayList<>();
+        List<String> loadedTerms = new ArrayList<>();
+        List<Postings> loadedPostings = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(root.toString())) {
+                return;
+            }
+            int docCount = in.readInt();
+            for (int i = 0; i < docCount; i++) {
+                // Numbered in file order for now; renumbered when merged
+                loadedDocs.add(new Doc(i, root.resolve(in.readUTF()), in.readLong(), in.readLong(), in.readInt()));
+            }
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                loadedTerms.add(in.readUTF());
+                Postings list = new Postings();
+                int size = readVarInt(in);
+                int doc = 0;
+                for (int i = 0; i < size; i++) {
+                    doc += readVarInt(in);
+                    if (doc < 0 || doc >= docCount) {
+                        throw new IOException("Corrupt search index");
+                    }
+                    list.add(doc, readVarInt(in));
+                }
+                loadedPostings.add(list);
+            }
+        } catch (NoSuchFileException e) {
+            return; // First launch: everything is read
+        } catch (IOException e) {
+            // A damaged index only costs reading every file again
+            StatusReporter.shared().error("Could not read the saved search index", e);
+            return;
+        }
+
+        synchronized (this) {
+            merge(loadedDocs, loadedTerms, loadedPostings);
+        }
+    }
+
+    /**
+     * Adds the files and postings read from the saved index.
+     */
+    private void merge(List<Doc> loadedDocs, List<String> loadedTerms, List<Postings> loadedPostings) {
+        // New ids follow the ids in use, so every postings list stays sorted by appending
+        int[] ids = new int[loadedDocs.size()];
+        List<List<String>> terms = new ArrayList<>();
+        for (int i = 0; i < loadedDocs.size(); i++) {
+            Doc saved = loadedDocs.get(i);
+            if (byPath.containsKey(saved.path.toString())) {
+                ids[i] = -1; // Indexed meanwhile: newer than the saved entry
+                terms.add(null);
+                continue;
+            }
+            Doc doc = new Doc(docs.size(), saved.path, saved.lastModified, saved.size, saved.length);
+            ids[i] = doc.id;
+            terms.add(new ArrayList<>());
+            addDoc(doc);
+        }
+        for (int t = 0; t < loadedTerms.size(); t++) {
+            String term = loadedTerms.get(t);
+            Postings saved = loadedPostings.get(t);
+            Postings list = postings.get(term);
+            for (int i = 0; i < saved.size; i++) {
+                int id = ids[saved.docs[i]];
+                if (id < 0) {
+                    continue;
+                }
+                if (list == null) {
+                    list = new Postings();
+                    postings.put(term, list);
+                }
+                list.add(id, saved.counts[i]);
+                terms.get(saved.docs[i]).add(term);
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= 0) {
+                docs.get(ids[i]).terms = terms.get(i).toArray(new String[0]);
+            }
+        }
+        sortedTerms = null;
+        // Only unchanged if nothing else was indexed before
+        dirty = liveDocs != loadedDocs.size();
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt search index");
+    }
+}
@@ -0,0 +1,158 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import atlantafx.base.theme.Styles;
+import javafx.animation.PauseTransition;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+/**
+ * The workspace search panel.
+ * Searches the Markdown files of the workspace while the user types and lists the matching
+ * files best first, each with the line around its first match. Results stream in as their
+ * snippets are read; choosing one opens the file.
+ */
+public class SearchPanel extends Dialog {
+  // Files listed per query; a snippet is read for each of them
+  private static final int MAX_RESULTS = 50;
+
+  private final SearchIndex index;
+  private final Path root;
+  private final Consumer<File> onOpen;
+  private final WorkspaceIO io = WorkspaceIO.shared();
+  private final TextField query = new TextField();
+  private final Label status = new Label();
+  private final ListView<SearchIndex.Hit> results = new ListView<>();
+  // Searches once typing pauses
+  private final PauseTransition typingPause = new PauseTransition(Duration.millis(150));
+
+  public SearchPanel(SearchIndex index, File rootDirectory, Consumer<File> onOpen) {
+    super(420, -1);
+    this.index = index;
+    this.root = rootDirectory.toPath().toAbsolutePath().normalize();
+    this.onOpen = onOpen;
+
+    query.setPromptText("Search workspace");
+    query.textProperty().addListener((observable, oldValue, newValue) -> typingPause.playFromStart());
+    typingPause.setOnFinished(event -> search(query.getText()));
+    query.setOnAction(event -> {
+      // Enter opens the selected result, or the best one
+      if (results.getSelectionModel().isEmpty()) {
+        results.getSelectionModel().selectFirst();
+      }
+      openSelected();
+    });
+
+    status.getStyleClass().addAll(Styles.TEXT_MUTED, Styles.TEXT_SMALL);
+    results.setCellFactory(list -> new ResultCell());
+    results.setOnMouseClicked(event -> openSelected());
+    results.setOnKeyPressed(event -> {
+      if (event.getCode() == KeyCode.ENTER) {
+        openSelected();
+      }
+    });
+
+    VBox panel = new VBox(8, query, status, results);
+    panel.setPadding(new Insets(10));
+    panel.prefHeightProperty().bind(heightProperty());
+    VBox.setVgrow(results, Priority.ALWAYS);
+    setAlignment(Pos.TOP_LEFT);
+    getChildren().add(panel);
+  }
+
+  /**
+   * Puts the cursor into the query field, ready to type.
+   */
+  public void focusQuery() {
+    query.requestFocus();
+    query.selectAll();
+  }
+
+  /**
+   * Runs a query in the background; a newer query cancels this one.
+   */
+  private void search(String text) {
+    if (text.isBlank()) {
+      io.cancel(this);
+      results.getItems().clear();
+      status.setText("");
+      return;
+    }
+    io.submit(this, job -> {
+      long start = System.nanoTime();
+      List<SearchIndex.Hit> hits = index.search(text, MAX_RESULTS);
+      long millis = (System.nanoTime() - start) / 1_000_000;
+      boolean complete = index.isReady();
+      job.publish(() -> {
+        results.getItems().clear();
+        status.setText(summary(hits.size(), millis, complete));
+      });
+      // Best first: each result shows up as soon as its snippet is read
+      for (SearchIndex.Hit hit : hits) {
+        if (job.isCancelled()) {
+          return null;
+        }
+        SearchIndex.Hit withSnippet = index.withSnippet(hit, text);
+        job.publish(() -> results.getItems().add(withSnippet));
+      }
+      return null;
+    }, done -> {
+    }, error -> StatusReporter.shared().error("Search failed", error));
+  }
+
+  private static String summary(int count, long millis, boolean complete) {
+    String text = count == 0 ? "No results"
+        : (count == MAX_RESULTS ? "Top " : "") + count + (count == 1 ? " result" : " results") + " in " + millis + " ms";
+    return complete ? text : text + " (still indexing)";
+  }
+
+  private void openSelected() {
+    SearchIndex.Hit hit = results.getSelectionModel().getSelectedItem();
+    if (hit != null) {
+      onOpen.accept(hit.getFile().toFile());
+    }
+  }
+
+  /**
+   * Shows a result as its file name and line, its folder, and the snippet.
+   */
+  private class ResultCell extends ListCell<SearchIndex.Hit> {
+    private final Label title = new Label();
+    private final Label folder = new Label();
+    private final Label snippet = new Label();
+    private final VBox content = new VBox(2, title, folder, snippet);
+
+    ResultCell() {
+      title.getStyleClass().add(Styles.TEXT_BOLD);
+      folder.getStyleClass().addAll(Styles.TEXT_MUTED, Styles.TEXT_SMALL);
+      snippet.setWrapText(true);
+      snippet.setMaxWidth(380);
+    }
+
+    @Override
+    protected void updateItem(SearchIndex.Hit hit, boolean empty) {
+      super.updateItem(hit, empty);
+      if (empty || hit == null) {
+        setGraphic(null);
+        return;
+      }
+      title.setText(hit.getFile().getFileName() + (hit.getLine() > 0 ? ":" + hit.getLine() : ""));
+      Path parent = root.relativize(hit.getFile()).getParent();
+      folder.setText(parent == null ? "" : parent.toString());
+      snippet.setText(hit.getSnippet());
+      setGraphic(content);
+    }
+  }
+}
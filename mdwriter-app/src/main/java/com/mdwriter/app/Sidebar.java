@@ -1,13 +1,16 @@
 package com.mdwriter.app;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-
-import org.apache.commons.io.FileUtils;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.fxmisc.richtext.CodeArea;
 import org.kordamp.ikonli.feather.Feather;
 import org.kordamp.ikonli.javafx.FontIcon;
 
@@ -17,9 +20,12 @@ import atlantafx.base.theme.Styles;
 import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.ToolBar;
 import javafx.scene.control.TreeItem;
 import javafx.scene.layout.Priority;
@@ -30,14 +36,36 @@ import javafx.util.Duration;
  * The Sidebar component (File Explorer).
  * Displays the project file structure, handles file/folder creation, deletion, renaming,
  * and auto-saves the currently open file.
+ * Changes made to the workspace by other programs are applied to the tree, and the open
+ * file is reloaded (or the user asked, if it has unsaved edits) when it changes on disk.
+ * Also keeps the workspace search index, the index of file paths for quick open and the
+ * index of links between files up to date; renaming a file or folder rewrites the links to it.
  */
 public class Sidebar extends Dialog {
+  // Longest the application waits on exit for the open file to be written
+  private static final long EXIT_WAIT_SECONDS = 5;
+
   private File file;
   private Timeline autoSaveTimeline;
   private FolderTree folderTree;
+  private final AutoSaver autoSaver = new AutoSaver();
+  private final FileLoader fileLoader = new FileLoader();
+  private final DocumentCache documentCache = new DocumentCache();
+  private EditJournal journal;
+  private final WorkspaceIO io = WorkspaceIO.shared();
+  // Key of the background check of the open file's content on disk
+  private final Object diskCheck = new Object();
+  private boolean resolvingConflict = false;
+  private final CodeArea textarea;
+  private final File rootDirectory;
+  private final SearchIndex searchIndex;
+  private final PathIndex pathIndex;
+  private final LinkIndex linkIndex;
 
-  public Sidebar(TextArea textarea, File rootDirectory) {
+  public Sidebar(CodeArea textarea, File rootDirectory) {
     super(250, -1);
+    this.textarea = textarea;
+    this.rootDirectory = rootDirectory;
     // ... (Toolbar button setup remains the same)
     var newFile = new Button(null, new FontIcon(Feather.FILE_PLUS));
     newFile.getStyleClass().add(Styles.FLAT);
@@ -126,6 +154,7 @@ public class Sidebar extends Dialog {
           FileItem finalItem = new FileItem(file.getName(), file.getPath(), file.isDirectory());
           editedItem.setValue(finalItem);
           tree.refresh();
+          rewriteLinks(textarea, oldFile, file);
         } else {
           // Handle rename failure, revert to old name
           editedItem.setValue(oldFileItem);
@@ -135,25 +164,10 @@ public class Sidebar extends Dialog {
     // Add this inside the start() method from the example above
     var folderContextMenu = new FolderContextMenu(folderTree);
     tree.setContextMenu(folderContextMenu);
-    autoSaveTimeline = new Timeline(new KeyFrame(Duration.seconds(10), event -> {
-      if (this.file != null) {
-        try {
-          // Get content from TextArea and write to the file
-          String content = textarea.getText();
-          FileUtils.writeStringToFile(this.file, content, StandardCharsets.UTF_8);
-
-          // Update status label to give user feedback
-          // Note: This prints to stdout, could be improved to update a UI label
-          String time = LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-          System.out.println("File auto-saved at " + time);
-
-        } catch (IOException e) {
-          e.printStackTrace();
-          // Stop the timeline if saving fails to prevent repeated errors
-          autoSaveTimeline.stop();
-        }
-      }
-    }));
+    // Each tick writes the text into the file and compacts the edit journal. The journal only
+    // helps mdwriter recover; other programs (and git) see the file, so it is kept close behind.
+    // Unchanged text is skipped and the write happens off the FX thread.
+    autoSaveTimeline = new Timeline(new KeyFrame(Duration.seconds(10), event -> saveNow(textarea)));
     autoSaveTimeline.setCycleCount(Animation.INDEFINITE);
 
     tree.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
@@ -165,33 +179,377 @@ public class Sidebar extends Dialog {
       File file = new File(selectedItem.getLocation());
 
       if (!file.isDirectory() && file != null) {
-        this.file = file;
+        openFile(file);
+      }
+    });
+    // Cached documents stay valid when it is our own save that changes the file,
+    // and the search and link indexes pick up what was saved
+    autoSaver.setOnSaved((savedFile, snapshot, lastModified) -> {
+      documentCache.saved(savedFile, snapshot, lastModified);
+      updateContentIndexes(Collections.emptyList(),
+          Collections.singletonList(savedFile.toPath().toAbsolutePath().normalize()));
+    });
+    // A save found the file changed by another program: the same choice as when the watcher sees it
+    autoSaver.setOnConflict((conflicting, onDisk) -> {
+      if (conflicting.equals(this.file) && !resolvingConflict) {
+        changedOnDisk(textarea, rootDirectory, onDisk);
+      }
+    });
 
-        try {
+    // The search and link indexes start from the ones saved by the last session and catch up in the background
+    searchIndex = new SearchIndex(rootDirectory);
+    inBackground(searchIndex::build);
+    linkIndex = new LinkIndex(rootDirectory);
+    inBackground(linkIndex::build);
+    pathIndex = new PathIndex(rootDirectory);
+    inBackground(pathIndex::build);
+
+    // Follow changes made outside the app: update only the affected folders of the tree
+    // and files of the indexes, and check the open file against what we last loaded or saved
+    new WorkspaceWatcher(rootDirectory.toPath(), (directories, files, overflow) -> {
+      folderTree.sync(directories, overflow);
+      if (overflow) {
+        inBackground(searchIndex::build);
+        inBackground(linkIndex::build);
+        inBackground(pathIndex::build);
+      } else {
+        updateContentIndexes(directories, files);
+        inBackground(() -> pathIndex.update(directories, files));
+      }
+      if (this.file != null && (overflow || files.contains(this.file.toPath().toAbsolutePath().normalize()))) {
+        checkDiskContent(textarea, rootDirectory);
+      }
+    }).start();
+
+    tree.getStyleClass().add(Styles.DENSE);
+    tree.setShowRoot(false);
+    VBox sidebar = new VBox(sideToolBar, tree);
+    sidebar.prefHeightProperty().bind(heightProperty());
+    VBox.setVgrow(tree, Priority.ALWAYS);
+    setAlignment(Pos.TOP_LEFT);
+    getChildren().add(sidebar);
+
+  }
 
-          String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+  /**
+   * Opens a file in the editor, from the recently open documents or in the background.
+   * Does nothing if the file is already open.
+   */
+  public void openFile(File file) {
+    if (file.equals(this.file)) {
+      return;
+    }
+    DocumentCache.Entry cached = textarea instanceof Editor ? documentCache.get(file) : null;
+    if (cached != null) {
+      // Recently open: no disk read, no mode detection, no parse or render
+      fileLoader.cancel();
+      switchTo(textarea, rootDirectory, file, () -> ((Editor) textarea).restore(cached), cached.isSaved());
+    } else {
+      // Read in the background; selecting another file cancels this load, and binary
+      // files are refused. The open file only changes once the new text is there.
+      fileLoader.load(file, (content, hash) -> {
+        autoSaver.recordDiskContent(file, hash);
+        switchTo(textarea, rootDirectory, file, () -> {
           // Use setContent for auto mode detection if it's an Editor
           if (textarea instanceof Editor) {
             ((Editor) textarea).setContent(content);
           } else {
-            textarea.setText(content);
+            textarea.replaceText(content);
           }
-          autoSaveTimeline.playFromStart();
+        }, true);
+      });
+    }
+  }
+
+  /**
+   * Makes another file the open one.
+   *
+   * @param show   Puts the new text into the editor.
+   * @param onDisk true if that text is what the file holds on disk.
+   */
+  private void switchTo(CodeArea textarea, File rootDirectory, File file, Runnable show, boolean onDisk) {
+    if (this.file != null && !this.file.equals(file) && textarea instanceof Editor) {
+      // Do not lose the edits made since the last tick, and keep the document for switching back
+      Editor previous = (Editor) textarea;
+      saveNow(textarea);
+      documentCache.put(previous.captureState(this.file, autoSaver.isSaved(this.file, previous.snapshot())));
+    }
+    closeJournal(textarea);
+    this.file = file;
+    documentCache.remove(file);
+    show.run();
+
+    if (textarea instanceof Editor) {
+      Editor editor = (Editor) textarea;
+      DocumentSnapshot loaded = editor.snapshot();
+      if (onDisk) {
+        autoSaver.markSaved(file, loaded.getVersion());
+      }
 
-        } catch (IOException e) {
-          e.printStackTrace();
+      // Replay the edits a previous session made after its last save, then keep journaling.
+      // The journal is read in the background; until then the editor is read-only, as edits
+      // typed meanwhile would not apply to the text the recovered edits start from.
+      EditJournal opened = EditJournal.open(EditJournal.pathFor(rootDirectory, file), file, loaded);
+      journal = opened;
+      editor.setEditable(false);
+      opened.getRecovered().thenAcceptAsync(edits -> {
+        if (journal != opened) {
+          return; // Another file was opened meanwhile
+        }
+        for (EditJournal.Edit edit : edits) {
+          editor.replaceText(edit.getPosition(), edit.getRemovalEnd(), edit.getInserted());
         }
+        editor.setJournal(opened);
+        editor.setEditable(true);
+        if (!edits.isEmpty()) {
+          saveNow(textarea);
+        }
+      }, Platform::runLater);
+    }
+    autoSaveTimeline.playFromStart();
+  }
+
+  /**
+   * Checks in the background whether the open file was changed by another program: its content
+   * hash no longer matches what we last loaded or saved. Touching a file, or rewriting it with
+   * the same content, is not a change.
+   */
+  private void checkDiskContent(CodeArea textarea, File rootDirectory) {
+    File checked = this.file;
+    if (!(textarea instanceof Editor) || resolvingConflict || autoSaver.getDiskContent(checked) == null) {
+      return;
+    }
+    io.submit(diskCheck, () -> checked.isFile() ? ContentHash.of(checked.toPath()) : null, hash -> {
+      // Deleted files are written again by the next save, so no text is lost
+      if (hash != null && checked.equals(this.file) && !hash.equals(autoSaver.getDiskContent(checked))) {
+        changedOnDisk(textarea, rootDirectory, hash);
+      }
+    }, error -> StatusReporter.shared().error("Could not check " + checked.getName() + " for changes", error));
+  }
+
+  /**
+   * Reloads the open file after another program changed it. If the editor holds unsaved
+   * edits, the user chooses between the two versions; the autosave waits meanwhile.
+   */
+  private void changedOnDisk(CodeArea textarea, File rootDirectory, ContentHash hash) {
+    File changed = this.file;
+    if (autoSaver.isSaved(changed, ((Editor) textarea).snapshot())) {
+      reload(textarea, rootDirectory);
+      return;
+    }
+
+    resolvingConflict = true;
+    autoSaveTimeline.pause();
+    ButtonType reload = new ButtonType("Reload");
+    ButtonType keep = new ButtonType("Keep My Version", ButtonBar.ButtonData.CANCEL_CLOSE);
+    Alert conflict = new Alert(Alert.AlertType.WARNING, null, reload, keep);
+    conflict.setTitle("File Changed on Disk");
+    conflict.setHeaderText("'" + changed.getName() + "' was changed by another program");
+    conflict.setContentText("Reload it and lose your unsaved changes, or keep your version and overwrite the file?");
+    Optional<ButtonType> choice = conflict.showAndWait();
+    resolvingConflict = false;
+
+    if (choice.isPresent() && choice.get() == reload) {
+      reload(textarea, rootDirectory);
+    } else {
+      // Our version wins: the change on disk is known now and gets overwritten
+      autoSaver.recordDiskContent(changed, hash);
+      saveNow(textarea);
+    }
+    autoSaveTimeline.play();
+  }
+
+  /**
+   * Loads the open file again, keeping the caret where it was.
+   */
+  private void reload(CodeArea textarea, File rootDirectory) {
+    File reloaded = this.file;
+    int caret = textarea.getCaretPosition();
+    fileLoader.load(reloaded, (content, hash) -> {
+      if (!reloaded.equals(this.file)) {
+        return;
       }
+      autoSaver.recordDiskContent(reloaded, hash);
+      switchTo(textarea, rootDirectory, reloaded, () -> {
+        ((Editor) textarea).setContent(content);
+        textarea.moveTo(Math.min(caret, textarea.getLength()));
+      }, true);
     });
+  }
 
-    tree.getStyleClass().add(Styles.DENSE);
-    tree.setShowRoot(false);
-    VBox sidebar = new VBox(sideToolBar, tree);
-    sidebar.prefHeightProperty().bind(heightProperty());
-    VBox.setVgrow(tree, Priority.ALWAYS);
-    setAlignment(Pos.TOP_LEFT);
-    getChildren().add(sidebar);
+  private void updateContentIndexes(Collection<Path> directories, Collection<Path> files) {
+    inBackground(() -> searchIndex.update(directories, files));
+    inBackground(() -> linkIndex.update(directories, files));
+  }
+
+  /**
+   * Makes the links to a renamed file or folder follow it. The open file is changed in the
+   * editor, keeping its unsaved edits and undo history; the other files are changed on disk.
+   * If the link index is still being built, the other files are changed once it is done.
+   */
+  private void rewriteLinks(CodeArea textarea, File oldFile, File newFile) {
+    Path from = oldFile.toPath().toAbsolutePath().normalize();
+    Path to = newFile.toPath().toAbsolutePath().normalize();
+    // Taken now, before the watcher reports the rename to the index
+    boolean complete = linkIndex.isReady();
+    List<Path> sources = linkIndex.sourcesLinkingTo(from);
+    // The open file is saved, journaled and edited at its new location from now on
+    Path openBefore = this.file == null ? null : this.file.toPath().toAbsolutePath().normalize();
+    followRename(oldFile, newFile);
+    if (openBefore != null) {
+      sources.remove(openBefore);
+      List<LinkIndex.Edit> edits = linkIndex.linkEdits(openBefore, textarea.getText(), from, to);
+      for (int i = edits.size() - 1; i >= 0; i--) {
+        LinkIndex.Edit edit = edits.get(i);
+        textarea.replaceText(edit.getStart(), edit.getEnd(), edit.getReplacement());
+      }
+    }
+    if (!complete) {
+      // Links in files changed since the last session are not known yet. Rewriting is
+      // idempotent, so the files found now are simply checked again with the rest.
+      Path openAfter = this.file == null ? null : this.file.toPath().toAbsolutePath().normalize();
+      StatusReporter.shared().report("Links to " + newFile.getName() + " will be updated once the workspace is indexed");
+      inBackground(() -> {
+        if (!linkIndex.awaitReady()) {
+          return;
+        }
+        LinkedHashSet<Path> all = new LinkedHashSet<>(sources);
+        all.addAll(linkIndex.sourcesLinkingTo(from));
+        all.remove(openBefore);
+        all.remove(openAfter);
+        int changed = linkIndex.rewriteLinks(List.copyOf(all), from, to);
+        StatusReporter.shared().report("Updated the links to " + newFile.getName() + " in " + changed
+            + (changed == 1 ? " file" : " files"));
+      });
+    } else if (!sources.isEmpty()) {
+      inBackground(() -> linkIndex.rewriteLinks(sources, from, to));
+    }
+  }
+
+  /**
+   * Follows a rename of the open file, or of a folder containing it: its saves and journal
+   * go to the new location.
+   */
+  private void followRename(File oldFile, File newFile) {
+    if (this.file == null) {
+      return;
+    }
+    Path from = oldFile.toPath().toAbsolutePath().normalize();
+    Path open = this.file.toPath().toAbsolutePath().normalize();
+    if (!open.startsWith(from)) {
+      return;
+    }
+    // Written like the tree's paths, so it still equals the file the tree hands out
+    File moved = open.equals(from) ? newFile : new File(newFile, from.relativize(open).toString());
+    autoSaver.renamed(this.file, moved);
+    if (journal != null) {
+      journal.moveTo(EditJournal.pathFor(rootDirectory, moved));
+    }
+    documentCache.remove(this.file);
+    this.file = moved;
+  }
+
+  /**
+   * Runs index work on the index threads, not on the workspace I/O slots: a build or a wait for
+   * one can take minutes in a large workspace.
+   */
+  private void inBackground(Runnable work) {
+    IndexWorkers.submit(() -> {
+      try {
+        work.run();
+      } catch (RuntimeException e) {
+        StatusReporter.shared().error("Could not update the workspace indexes", e);
+      }
+    });
+  }
+
+  /**
+   * Saves the open file in the background if it has unsaved changes.
+   */
+  private void saveNow(CodeArea textarea) {
+    if (this.file != null && textarea instanceof Editor) {
+      autoSaver.save(this.file, ((Editor) textarea).snapshot(), journal);
+    }
+  }
 
+  /**
+   * Stops journaling the open file; its journal is compacted once the last save lands.
+   */
+  private void closeJournal(CodeArea textarea) {
+    if (journal != null) {
+      ((Editor) textarea).setJournal(null);
+      journal.close();
+      journal = null;
+    }
+  }
+
+  /**
+   * @return The saver of the open file, for showing the save status.
+   */
+  public AutoSaver getAutoSaver() {
+    return autoSaver;
+  }
+
+  /**
+   * @return The loader of the files selected in the tree, for showing its progress.
+   */
+  public FileLoader getFileLoader() {
+    return fileLoader;
+  }
+
+  /**
+   * Saves the open file and closes its journal, then saves the folders loaded in the file tree
+   * and the search and link indexes for the next launch. Called on exit; returns once the open
+   * file is on disk, or after {@link #EXIT_WAIT_SECONDS}.
+   */
+  public void saveWorkspaceState() {
+    autoSaveTimeline.stop();
+    saveNow(textarea);
+    closeJournal(textarea);
+    if (folderTree != null) {
+      folderTree.saveSnapshot();
+    }
+    searchIndex.save();
+    linkIndex.save();
+
+    // The save and journal threads do not keep the JVM alive: wait for what they still have to do
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(EXIT_WAIT_SECONDS);
+    try {
+      autoSaver.awaitIdle(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      EditJournal.awaitIdle(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      StatusReporter.shared().error("Could not finish saving before exit", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return The index of the Markdown files of the workspace, for the search panel.
+   */
+  public SearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /**
+   * @return The index of the paths of the workspace files, for quick open.
+   */
+  public PathIndex getPathIndex() {
+    return pathIndex;
+  }
+
+  /**
+   * @return The index of headings and links between files, for the links panel.
+   */
+  public LinkIndex getLinkIndex() {
+    return linkIndex;
+  }
+
+  /**
+   * @return The file open in the editor, or null.
+   */
+  public File getOpenFile() {
+    return file;
   }
 
   /**
@@ -0,0 +1,65 @@
+package com.mdwriter.app;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+/**
+ * The message shown in the status bar: the save status, and the problems background work
+ * runs into (a folder that cannot be listed, an index that cannot be written, ...).
+ *
+ * Responsibilities:
+ * - Keeping the latest message; a new one replaces it.
+ * - Accepting messages from any thread and publishing them on the FX thread.
+ * - Keeping the stack trace of errors on stderr, where the status bar has no room for it.
+ */
+public final class StatusReporter {
+
+    private static final StatusReporter SHARED = new StatusReporter();
+
+    private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper("");
+
+    private StatusReporter() {
+    }
+
+    /**
+     * @return The reporter of the application window.
+     */
+    public static StatusReporter shared() {
+        return SHARED;
+    }
+
+    /**
+     * The latest message, or "" if there is nothing to report.
+     */
+    public ReadOnlyStringProperty messageProperty() {
+        return message.getReadOnlyProperty();
+    }
+
+    /**
+     * Shows a message in the status bar. May be called from any thread.
+     */
+    public void report(String text) {
+        if (Platform.isFxApplicationThread()) {
+            message.set(text);
+            return;
+        }
+        try {
+            Platform.runLater(() -> message.set(text));
+        } catch (IllegalStateException e) {
+            // No FX toolkit (unit tests, or after shutdown): nothing shows the message anyway
+            message.set(text);
+        }
+    }
+
+    /**
+     * Shows an error in the status bar. May be called from any thread.
+     *
+     * @param what What failed, e.g. "Could not save the search index".
+     */
+    public void error(String what, Throwable error) {
+        error.printStackTrace();
+        String reason = error.getMessage();
+        report(reason == null || reason.isBlank() ? what : what + ": " + reason);
+    }
+}
@@ -0,0 +1,103 @@
+package com.mdwriter.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Where mdwriter keeps its own files for a workspace, and which workspace files it shows.
+ *
+ * Journals and indexes live in the per-user cache directory, not in the workspace: they
+ * never show up in the file tree, in git status or in a synced folder, and a read-only
+ * workspace can still have them. Each workspace gets its own directory, named after the
+ * folder and a hash of its absolute path.
+ *
+ * Hidden files are skipped by the file tree, the watcher and the indexes alike, so they all
+ * use the rule here: a name starting with a dot is hidden everywhere, and on Windows a file
+ * with the DOS hidden flag is hidden too.
+ */
+public final class WorkspaceFiles {
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    /**
+     * The attributes to read for an entry that may be hidden: one stat gives its type, size,
+     * times and, on Windows, the hidden flag.
+     */
+    public static final Class<? extends BasicFileAttributes> LISTING_ATTRIBUTES =
+        WINDOWS ? DosFileAttributes.class : BasicFileAttributes.class;
+
+    private WorkspaceFiles() {
+    }
+
+    /**
+     * @return true if the file is hidden. On Windows this reads the file's attributes; prefer
+     *     {@link #isHidden(Path, BasicFileAttributes)} when they are at hand.
+     */
+    public static boolean isHidden(Path path) {
+        if (hasHiddenName(path)) {
+            return true;
+        }
+        if (!WINDOWS) {
+            return false;
+        }
+        try {
+            return Files.readAttributes(path, DosFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isHidden();
+        } catch (IOException | UnsupportedOperationException e) {
+            return false; // Deleted meanwhile, or not on a DOS-like file system
+        }
+    }
+
+    /**
+     * @param attributes The file's attributes, as read with {@link #LISTING_ATTRIBUTES} or
+     *     given by Files.walkFileTree.
+     * @return true if the file is hidden.
+     */
+    public static boolean isHidden(Path path, BasicFileAttributes attributes) {
+        if (hasHiddenName(path)) {
+            return true;
+        }
+        return WINDOWS && attributes instanceof DosFileAttributes dos && dos.isHidden();
+    }
+
+    private static boolean hasHiddenName(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    /**
+     * @return The cache directory of a workspace; it may not exist yet.
+     */
+    public static Path cacheDirectory(File rootDirectory) {
+        Path root = rootDirectory.toPath().toAbsolutePath().normalize();
+        MessageDigest digest = ContentHash.newDigest();
+        String hash = HexFormat.of().formatHex(digest.digest(root.toString().getBytes(StandardCharsets.UTF_8)), 0, 8);
+        String name = root.getFileName() == null ? "root" : root.getFileName().toString().replaceAll("[^\\w.-]", "_");
+        return userCacheDirectory().resolve("mdwriter").resolve(name + "-" + hash);
+    }
+
+    /**
+     * @return The platform's cache directory for the current user.
+     */
+    static Path userCacheDirectory() {
+        String os = System.getProperty("os.name", "").toLowerCase();
+        String home = System.getProperty("user.home");
+        if (os.startsWith("windows")) {
+            String local = System.getenv("LOCALAPPDATA");
+            return local != null && !local.isBlank() ? Path.of(local) : Path.of(home, "AppData", "Local");
+        }
+        if (os.startsWith("mac")) {
+            return Path.of(home, "Library", "Caches");
+        }
+        // XDG: relative paths are invalid and must be ignored
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        return xdg != null && Path.of(xdg).isAbsolute() ? Path.of(xdg) : Path.of(home, ".cache");
+    }
+}
@@ -0,0 +1,173 @@
+package com.mdwriter.app;
+
+import javafx.application.Platform;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs workspace file system work (directory listings, deletes, ...) in the background.
+ *
+ * Responsibilities:
+ * - Running each job on a virtual thread, with at most {@link #MAX_CONCURRENT_IO} jobs touching
+ *   the disk at once, so bursts of requests cannot flood the system with threads.
+ * - Tracking jobs by key (e.g. the tree node being loaded): a new job for a key cancels the
+ *   previous one, and jobs can be cancelled by key.
+ * - Delivering results, and partial results published while a job runs, on the FX thread,
+ *   and only if the job has not been superseded or cancelled.
+ *
+ * Methods must be called on the FX thread.
+ */
+public final class WorkspaceIO {
+
+    // Disk jobs running at the same time; the rest wait for a permit
+    private static final int MAX_CONCURRENT_IO = 4;
+
+    private static final WorkspaceIO SHARED = new WorkspaceIO();
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("mdwriter-io-", 0).factory());
+    private final Semaphore permits = new Semaphore(MAX_CONCURRENT_IO);
+    // The current job of each key
+    private final Map<Object, Job> jobs = new HashMap<>();
+
+    /**
+     * A submitted job; cancelling it drops its result.
+     */
+    public static final class Job {
+        private volatile boolean cancelled = false;
+        private Future<?> future;
+
+        public void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Runs a partial update on the FX thread, unless the job is cancelled by then.
+         * Updates run in order, and before the job's result is delivered.
+         */
+        public void publish(Runnable update) {
+            Platform.runLater(() -> {
+                if (!cancelled) {
+                    update.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Background work that checks its job for cancellation and publishes partial results.
+     */
+    public interface Work<T> {
+        T run(Job job) throws Exception;
+    }
+
+    private WorkspaceIO() {
+    }
+
+    /**
+     * @return The scheduler shared by everything that works on the workspace.
+     */
+    public static WorkspaceIO shared() {
+        return SHARED;
+    }
+
+    /**
+     * Runs a job in the background.
+     *
+     * @param key       Identifies what the job works on; a pending job with the same key is
+     *                  cancelled. Null for jobs that are never superseded.
+     * @param work      The I/O work, run on a virtual thread.
+     * @param onSuccess Receives the result on the FX thread, unless the job was superseded or cancelled.
+     * @param onFailure Receives the error on the FX thread, under the same condition.
+     */
+    public <T> Job submit(Object key, Callable<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        return submit(key, job -> work.call(), onSuccess, onFailure);
+    }
+
+    /**
+     * Runs a job whose work receives the job itself, to check for cancellation and to
+     * publish partial results. See {@link #submit(Object, Callable, Consumer, Consumer)}.
+     */
+    public <T> Job submit(Object key, Work<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        Job job = new Job();
+        if (key != null) {
+            Job previous = jobs.put(key, job);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        job.future = executor.submit(() -> run(key, job, work, onSuccess, onFailure));
+        return job;
+    }
+
+    /**
+     * Cancels the pending job of a key.
+     *
+     * @return true if a job was pending.
+     */
+    public boolean cancel(Object key) {
+        Job job = jobs.remove(key);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    /**
+     * @return true if a job for the key has been submitted and has not delivered yet.
+     */
+    public boolean isPending(Object key) {
+        return jobs.containsKey(key);
+    }
+
+    private <T> void run(Object key, Job job, Work<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        T result = null;
+        Throwable error = null;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            return; // Cancelled while waiting for a permit
+        }
+        try {
+            if (job.isCancelled()) {
+                return;
+            }
+            result = work.run(job);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            permits.release();
+        }
+
+        T value = result;
+        Throwable failure = error;
+        Platform.runLater(() -> {
+            if (job.isCancelled()) {
+                return;
+            }
+            if (key != null) {
+                jobs.remove(key, job);
+            }
+            if (failure == null) {
+                onSuccess.accept(value);
+            } else {
+                onFailure.accept(failure);
+            }
+        });
+    }
+}
@@ -0,0 +1,198 @@
+package com.mdwriter.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of the folders the file tree had loaded, saved as the tree changes and on exit so
+ * the next launch can paint the tree at once and check it against the disk in the background.
+ *
+ * Binary format: a header (magic, workspace path), then the root folder. A folder is its
+ * modification time when it was listed, whether it was expanded, and its entries; an entry is
+ * its name, flags (folder, loaded), modification time and size, followed by its own folder
+ * record if it was loaded.
+ *
+ * The snapshot is kept in the workspace's cache directory (see {@link WorkspaceFiles}).
+ */
+public class WorkspaceSnapshot {
+
+    private static final int MAGIC = 0x4D445431; // "MDT1"
+    private static final int FLAG_DIRECTORY = 1;
+    private static final int FLAG_LOADED = 2;
+
+    /**
+     * A listed folder.
+     */
+    public static final class Directory {
+        private final long lastModified;
+        private final boolean expanded;
+        private final List<Entry> entries;
+
+        /**
+         * @param lastModified The folder's modification time when it was listed.
+         */
+        public Directory(long lastModified, boolean expanded, List<Entry> entries) {
+            this.lastModified = lastModified;
+            this.expanded = expanded;
+            this.entries = entries;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isExpanded() {
+            return expanded;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+    }
+
+    /**
+     * A file or folder of a listed folder.
+     */
+    public static final class Entry {
+        private final String name;
+        private final boolean directory;
+        private final long lastModified;
+        private final long size;
+        private final Directory contents;
+
+        /**
+         * @param contents The listing of a loaded folder, or null.
+         */
+        public Entry(String name, boolean directory, long lastModified, long size, Directory contents) {
+            this.name = name;
+            this.directory = directory;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.contents = contents;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Directory getContents() {
+            return contents;
+        }
+    }
+
+    private WorkspaceSnapshot() {
+    }
+
+    /**
+     * @return Where the snapshot of a workspace is kept.
+     */
+    public static Path pathFor(File rootDirectory) {
+        return WorkspaceFiles.cacheDirectory(rootDirectory).resolve("tree.snapshot");
+    }
+
+    /**
+     * Reads the snapshot of a workspace.
+     *
+     * @return The root folder, or null if there is no usable snapshot.
+     */
+    public static Directory read(File rootDirectory) {
+        Path path = pathFor(rootDirectory);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(workspaceKey(rootDirectory))) {
+                return null; // Another format, or a workspace that was moved
+            }
+            return readDirectory(in);
+        } catch (NoSuchFileException e) {
+            return null; // First launch
+        } catch (IOException e) {
+            // A damaged snapshot only costs a full scan
+            StatusReporter.shared().error("Could not read the saved file tree", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot of a workspace, replacing the previous one atomically. Each write has
+     * its own temporary file, so a background save and the save on exit cannot mix.
+     */
+    public static void write(File rootDirectory, Directory root) throws IOException {
+        Path path = pathFor(rootDirectory);
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(workspaceKey(rootDirectory));
+                writeDirectory(out, root);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String workspaceKey(File rootDirectory) {
+        return rootDirectory.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static void writeDirectory(DataOutputStream out, Directory directory) throws IOException {
+        out.writeLong(directory.lastModified);
+        out.writeBoolean(directory.expanded);
+        out.writeInt(directory.entries.size());
+        for (Entry entry : directory.entries) {
+            out.writeUTF(entry.name);
+            out.writeByte((entry.directory ? FLAG_DIRECTORY : 0) | (entry.contents != null ? FLAG_LOADED : 0));
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.size);
+            if (entry.contents != null) {
+                writeDirectory(out, entry.contents);
+            }
+        }
+    }
+
+    private static Directory readDirectory(DataInputStream in) throws IOException {
+        long lastModified = in.readLong();
+        boolean expanded = in.readBoolean();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt workspace snapshot");
+        }
+        List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int flags = in.readByte();
+            long entryModified = in.readLong();
+            long size = in.readLong();
+            Directory contents = (flags & FLAG_LOADED) != 0 ? readDirectory(in) : null;
+            entries.add(new Entry(name, (flags & FLAG_DIRECTORY) != 0, entryModified, size, contents));
+        }
+        return new Directory(lastModified, expanded, entries);
+    }
+}
@@ -0,0 +1,186 @@
+package com.mdwriter.app;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the workspace for changes made outside the app (git checkout, other editors, ...).
+ *
+ * Responsibilities:
+ * - Registering every directory of the workspace with a {@link WatchService}, including the
+ *   directories created later. Hidden directories (.git, .mdwriter) are not watched.
+ * - Debouncing: events are collected until the workspace is quiet for a moment, so a storm
+ *   of changes is reported as one batch, at most every {@link #MAX_DELAY_MS} milliseconds.
+ * - Reporting on the FX thread which directories gained or lost entries and which files
+ *   were written.
+ */
+public class WorkspaceWatcher {
+
+    // Quiet time that ends a batch of events, and the longest a batch is held back
+    private static final long QUIET_MS = 200;
+    private static final long MAX_DELAY_MS = 1000;
+
+    /**
+     * Told on the FX thread about a batch of changes. Paths are absolute and normalized.
+     */
+    public interface Listener {
+        /**
+         * @param directories Directories whose entries were created, deleted or renamed.
+         * @param files       Files (or directories) that were created or modified.
+         * @param overflow    true if events were lost: everything may have changed.
+         */
+        void changed(Set<Path> directories, Set<Path> files, boolean overflow);
+    }
+
+    private final Path root;
+    private final Listener listener;
+
+    // Watcher thread only
+    private WatchService service;
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private boolean registrationFailed = false;
+
+    public WorkspaceWatcher(Path root, Listener listener) {
+        this.root = root.toAbsolutePath().normalize();
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching on a background thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this::watch, "mdwriter-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            service = root.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            // The tree still works; it just does not follow outside changes
+            StatusReporter.shared().error("Cannot follow changes to the workspace", e);
+            return;
+        }
+        registerTree(root);
+
+        Set<Path> directories = new HashSet<>();
+        Set<Path> files = new HashSet<>();
+        boolean overflow = false;
+        long batchStart = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (directories.isEmpty() && files.isEmpty() && !overflow) {
+                    key = service.take();
+                    batchStart = System.nanoTime();
+                } else {
+                    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+                    key = waited < MAX_DELAY_MS
+                        ? service.poll(Math.min(QUIET_MS, MAX_DELAY_MS - waited), TimeUnit.MILLISECONDS)
+                        : null;
+                    if (key == null) {
+                        deliver(directories, files, overflow);
+                        directories = new HashSet<>();
+                        files = new HashSet<>();
+                        overflow = false;
+                        continue;
+                    }
+                }
+
+                Path directory = watched.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    WatchEvent.Kind<?> kind = event.kind();
+                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    if (directory == null) {
+                        continue;
+                    }
+                    Path child = directory.resolve((Path) event.context());
+                    if (WorkspaceFiles.isHidden(child)) {
+                        continue; // Also skips the temporary files of our own saves
+                    }
+                    if (kind != StandardWatchEventKinds.ENTRY_MODIFY) {
+                        directories.add(directory);
+                    }
+                    if (kind != StandardWatchEventKinds.ENTRY_DELETE) {
+                        files.add(child);
+                    }
+                    if (kind == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        registerTree(child);
+                    }
+                }
+                if (!key.reset()) {
+                    watched.remove(key); // The directory is gone
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private void deliver(Set<Path> directories, Set<Path> files, boolean overflow) {
+        Platform.runLater(() -> listener.changed(directories, files, overflow));
+    }
+
+    /**
+     * Watches a directory and every visible directory below it.
+     */
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    if (!dir.equals(root) && WorkspaceFiles.isHidden(dir, attributes)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return register(dir) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Unreadable or deleted meanwhile
+                }
+            });
+        } catch (IOException e) {
+            StatusReporter.shared().error("Cannot watch " + start.getFileName() + " for changes", e);
+        }
+    }
+
+    private boolean register(Path dir) {
+        try {
+            watched.put(dir.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY), dir);
+            return true;
+        } catch (IOException e) {
+            // Usually the system limit of watches; report it once
+            if (!registrationFailed) {
+                registrationFailed = true;
+                StatusReporter.shared().error("Cannot watch " + dir.getFileName() + " for changes", e);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+// Page-number resolution for cross-references (TOC links, List of Figures, data-page-ref).
+// The body pages are indexed in one walk (element id / image src -> page number);
+// each reference is then resolved with a map lookup instead of searching the pages.
+// Used by proposal.js in the preview, by the exported page, and by the exporter before saving.
+window.mdPageIndex = (function () {
+
+    // Ids and image sources found on each page, kept until the page is re-flowed
+    const pageEntries = new WeakMap();
+
+    // Reference kinds: how to find them, what they point to, and how to show the number
+    const references = [];
+
+    function register(selector, targetOf, apply) {
+        references.push({ selector: selector, targetOf: targetOf, apply: apply });
+    }
+
+    function entriesOf(page) {
+        const ids = [];
+        const images = [];
+        page.querySelectorAll('[id], img').forEach(el => {
+            if (el.id) ids.push(el.id);
+            if (el.tagName === 'IMG') images.push('img:' + el.getAttribute('src'));
+        });
+        return ids.concat(images);
+    }
+
+    // Builds the index over the pages; pages in `stale` (or never seen) are walked again.
+    // Keys are element ids, or 'img:' + src for images. The first occurrence wins.
+    function build(pages, stale) {
+        const index = new Map();
+        pages.forEach((page, position) => {
+            let entries = pageEntries.get(page);
+            if (!entries || (stale && stale.has(page))) {
+                entries = entriesOf(page);
+                pageEntries.set(page, entries);
+            }
+            entries.forEach(key => {
+                if (!index.has(key)) index.set(key, position + 1);
+            });
+        });
+        return index;
+    }
+
+    function resolve(index) {
+        references.forEach(reference => {
+            document.querySelectorAll(reference.selector).forEach(el => {
+                const key = reference.targetOf(el);
+                const pageNum = key ? index.get(key) : undefined;
+                if (pageNum !== undefined) reference.apply(el, pageNum);
+            });
+        });
+    }
+
+    function setTocPageNumber(link, pageNum) {
+        const pageSpan = link.querySelector('.toc-page');
+        if (pageSpan) {
+            // Already decorated by a previous pass
+            pageSpan.textContent = pageNum;
+        } else {
+            // textContent, not innerHTML: heading text with < or & must stay text
+            link.replaceChildren(span('toc-text', link.textContent), span('toc-dots', ''), span('toc-page', pageNum));
+            link.classList.add('toc-link');
+        }
+    }
+
+    function span(className, text) {
+        const el = document.createElement('span');
+        el.className = className;
+        el.textContent = text;
+        return el;
+    }
+
+    // TOC links point at heading ids
+    register('.toc-content a[href^="#"]', el => el.getAttribute('href').substring(1), setTocPageNumber);
+    // List of Figures entries point at image sources
+    register('.toc-count-page', el => 'img:' + el.getAttribute('data-target-image'), (el, pageNum) => {
+        el.textContent = pageNum;
+    });
+    // Any other reference: <span data-page-ref="element-id"></span>
+    register('[data-page-ref]', el => el.getAttribute('data-page-ref'), (el, pageNum) => {
+        el.textContent = pageNum;
+    });
+
+    return {
+        register: register,
+
+        // Re-indexes the pages in `stale` and resolves every reference
+        update: function (pages, stale) {
+            resolve(build(pages, stale));
+        },
+
+        // Re-indexes all body pages from the DOM and resolves every reference
+        refresh: function () {
+            const pages = Array.prototype.slice.call(document.querySelectorAll('.body-page'));
+            resolve(build(pages, new Set(pages)));
+        }
+    };
+})();
@@ -0,0 +1,107 @@
+// Preview patching support.
+// The Java side (PreviewPatcher) calls mdPreview.apply(...) with only the blocks
+// that changed since the last render, instead of reloading the whole page.
+// The editor calls mdPreview.scrollToLine(...) to keep the preview at the same source line.
+window.mdPreview = (function () {
+
+    // Blocks in document order and their source lines (data-line), rebuilt after each patch
+    let blockCache = null;
+    let lineCache = null;
+
+    function indexBlocks() {
+        if (blockCache === null) {
+            blockCache = Array.prototype.slice.call(document.querySelectorAll('.md-block'));
+            lineCache = blockCache.map(block => parseInt(block.getAttribute('data-line'), 10));
+        }
+    }
+
+    // Index of the last block that starts at or before the line, or -1
+    function blockAtLine(line) {
+        let low = 0;
+        let high = lineCache.length - 1;
+        let found = -1;
+        while (low <= high) {
+            const mid = (low + high) >> 1;
+            if (lineCache[mid] <= line) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    function createBlock(html) {
+        const block = document.createElement('div');
+        block.className = 'md-block';
+        block.innerHTML = html;
+        return block;
+    }
+
+    function highlight(blocks) {
+        if (typeof hljs === 'undefined') return;
+        blocks.forEach(block => {
+            block.querySelectorAll('pre code').forEach(code => hljs.highlightElement(code));
+        });
+    }
+
+    return {
+        // Optional hook installed by layout scripts (proposal.js).
+        // Receives the ordered list of block elements, the index of the first block of
+        // each page when the renderer paginated them, and where the new blocks are.
+        relayout: null,
+
+        apply: function (patch) {
+            const blocks = Array.prototype.slice.call(document.querySelectorAll('.md-block'));
+            const removed = blocks.slice(patch.start, patch.start + patch.removeCount);
+            const reference = blocks[patch.start + patch.removeCount] || null;
+            const inserted = patch.blocks.map(createBlock);
+
+            Object.keys(patch.regions).forEach(id => {
+                const region = document.getElementById(id);
+                if (region) region.innerHTML = patch.regions[id];
+            });
+
+            removed.forEach(block => block.remove());
+            blockCache = null;
+            // Before layout: highlighting changes the height of code blocks
+            highlight(inserted);
+
+            if (this.relayout) {
+                blocks.splice.apply(blocks, [patch.start, patch.removeCount].concat(inserted));
+                this.relayout(blocks, patch.pageStarts || null, patch.start, inserted.length);
+            } else {
+                const host = document.getElementById('md-blocks');
+                inserted.forEach(block => host.insertBefore(block, reference));
+            }
+
+            if (patch.lines) {
+                indexBlocks();
+                blockCache.forEach((block, index) => block.setAttribute('data-line', patch.lines[index]));
+                lineCache = patch.lines;
+            }
+        },
+
+        // Scrolls so that the given 0-based source line is at the top of the view.
+        // Positions between two blocks are interpolated by line.
+        scrollToLine: function (line) {
+            indexBlocks();
+            const index = blockAtLine(line);
+            if (index < 0) {
+                window.scrollTo(0, 0);
+                return;
+            }
+            const top = blockCache[index].getBoundingClientRect().top + window.pageYOffset;
+            let y = top;
+            if (index + 1 < blockCache.length) {
+                const nextTop = blockCache[index + 1].getBoundingClientRect().top + window.pageYOffset;
+                const span = lineCache[index + 1] - lineCache[index];
+                if (span > 0 && nextTop > top) {
+                    y += (nextTop - top) * Math.min(1, (line - lineCache[index]) / span);
+                }
+            }
+            window.scrollTo(0, y);
+        }
+    };
+})();
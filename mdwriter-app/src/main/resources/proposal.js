@@ -1,152 +1,202 @@
-document.addEventListener("DOMContentLoaded", function () {
-    if (typeof hljs !== 'undefined') {
-        hljs.highlightAll();
+(function () {
+    // Height budget of the A4 page content area: ProposalPaginator.CONTENT_HEIGHT, filled in by ProposalRenderer
+    const MAX_CONTENT_HEIGHT = {{CONTENT_HEIGHT}};
+
+    // Layout state kept between passes, so an edit only re-flows the pages it affects.
+    // pages: the .body-page elements in order; pageBlocks: the .md-block elements of each page.
+    let pages = [];
+    let pageBlocks = [];
+    // Set once fonts and images are in; before that, measured heights are not reliable
+    let ready = false;
+
+    function createBodyPage() {
+        const page = document.createElement('div');
+        page.className = 'page body-page';
+        page.innerHTML = '<div class="main-content"></div><div class="footer-number"><p class="dynamic-page-number">?</p></div>';
+        return page;
     }
-    // Delay to ensure DOM is fully rendered in WebView
-    setTimeout(function () {
-        // Constants for A4 page content area
-        const MAX_CONTENT_HEIGHT = 800; // ~800px content area
 
-        console.log('=== Starting Pagination ===');
-        console.log('Max content height:', MAX_CONTENT_HEIGHT + 'px');
-
-        // 1. PAGINATION: Split overflow content into new pages
-        function paginateContent() {
-            let totalNewPages = 0;
-            let iterations = 0;
-            const maxIterations = 50;
-
-            while (iterations < maxIterations) {
-                iterations++;
-                let madeChanges = false;
-
-                const bodyPages = document.querySelectorAll('.body-page');
-                console.log('Iteration ' + iterations + ': Found ' + bodyPages.length + ' body pages');
-
-                for (let i = 0; i < bodyPages.length; i++) {
-                    const page = bodyPages[i];
-                    const mainContent = page.querySelector('.main-content');
-                    if (!mainContent) continue;
-
-                    // Use getBoundingClientRect for accurate measurement
-                    const rect = mainContent.getBoundingClientRect();
-                    const contentHeight = rect.height;
-
-                    console.log('Page ' + (i + 1) + ' height: ' + contentHeight.toFixed(0) + 'px');
-
-                    if (contentHeight > MAX_CONTENT_HEIGHT) {
-                        console.log('  -> OVERFLOW detected!');
-
-                        const children = mainContent.children;
-                        if (children.length <= 1) {
-                            console.log('  -> Only 1 child, cannot split');
-                            continue;
-                        }
-
-                        // Find where to split
-                        let splitAt = -1;
-                        let runningHeight = 0;
-
-                        for (let j = 0; j < children.length; j++) {
-                            const childRect = children[j].getBoundingClientRect();
-                            runningHeight += childRect.height;
-
-                            if (runningHeight > MAX_CONTENT_HEIGHT && j > 0) {
-                                splitAt = j;
-                                console.log('  -> Split at child ' + j);
-                                break;
-                            }
-                        }
-
-                        if (splitAt > 0) {
-                            // Create new page
-                            const newPage = document.createElement('div');
-                            newPage.className = 'page body-page';
-                            newPage.innerHTML = '<div class=\"main-content\"></div><div class=\"footer-number\"><p class=\"dynamic-page-number\">?</p></div>';
-
-                            // Move elements to new page
-                            const newContent = newPage.querySelector('.main-content');
-                            while (mainContent.children.length > splitAt) {
-                                newContent.appendChild(mainContent.children[splitAt]);
-                            }
-
-                            // Insert after current page
-                            page.parentNode.insertBefore(newPage, page.nextSibling);
-                            totalNewPages++;
-                            madeChanges = true;
-                            console.log('  -> Created new page');
-                            break; // Restart iteration
-                        }
-                    }
-                }
+    function isChapterStart(block) {
+        const first = block.firstElementChild;
+        return first !== null && first.tagName === 'H1';
+    }
 
-                if (!madeChanges) {
-                    console.log('No changes in iteration ' + iterations + ', done!');
-                    break;
-                }
+    // 1. PAGINATION: compute page breaks from the measured block heights.
+    // Only reads the DOM, so the browser lays out once however many blocks are measured.
+    // A new page starts at every chapter (<h1>) and before the block that overflows the page.
+    // With stopAt, stops as soon as a page would start where a previous page started
+    // (after the changed blocks): from there on, the previous layout is still valid.
+    function computeBreaks(blocks, from, changedEnd, stopAt) {
+        const breaks = [];
+        let keepFrom = -1;
+        let i = from;
+        while (i < blocks.length) {
+            if (stopAt && breaks.length > 0 && i >= changedEnd && stopAt.has(blocks[i])) {
+                keepFrom = stopAt.get(blocks[i]);
+                break;
+            }
+            breaks.push(i);
+            let runningHeight = blocks[i].getBoundingClientRect().height;
+            let j = i + 1;
+            while (j < blocks.length && !isChapterStart(blocks[j])) {
+                const height = blocks[j].getBoundingClientRect().height;
+                if (runningHeight + height > MAX_CONTENT_HEIGHT) break;
+                runningHeight += height;
+                j++;
             }
+            i = j;
+        }
+        return { breaks: breaks, keepFrom: keepFrom, end: i };
+    }
+
+    // Moves the blocks into pages according to the breaks (DOM writes only).
+    // The page elements in `reuse` are refilled first; missing ones are created before `before`.
+    function fillPages(blocks, breaks, end, reuse, before) {
+        const host = document.getElementById('body-pages');
+        const filled = [];
+        const filledBlocks = [];
+        breaks.forEach((start, index) => {
+            const stop = index + 1 < breaks.length ? breaks[index + 1] : end;
+            let page = reuse[index];
+            if (!page) {
+                page = createBodyPage();
+                host.insertBefore(page, before);
+            }
+            const content = page.querySelector('.main-content');
+            const pageContent = blocks.slice(start, stop);
+            pageContent.forEach(block => content.appendChild(block));
+            filled.push(page);
+            filledBlocks.push(pageContent);
+        });
+        // Pages left over only hold blocks that were removed by the patch
+        reuse.slice(breaks.length).forEach(page => page.remove());
+        return { pages: filled, blocks: filledBlocks };
+    }
 
-            console.log('=== Pagination Complete: Created ' + totalNewPages + ' new pages ===');
+    // Lays out every body page, starting from the pages built by the renderer
+    function fullLayout() {
+        console.log('=== Starting Pagination ===');
+        const oldPages = Array.prototype.slice.call(document.querySelectorAll('.body-page'));
+        const blocks = Array.prototype.slice.call(document.querySelectorAll('.body-page .main-content > .md-block'));
+
+        const result = computeBreaks(blocks, 0, 0, null);
+        const filled = fillPages(blocks, result.breaks, blocks.length, oldPages, null);
+        pages = filled.pages;
+        pageBlocks = filled.blocks;
+
+        updatePageNumbers(0, pages.length);
+        updateEntryPageNumbers(new Set(pages));
+        console.log('=== Pagination Complete: ' + pages.length + ' body pages ===');
+    }
+
+    // Re-flows the layout after a preview patch put `count` new blocks at `start`.
+    // Pages before the change are kept as they are, and re-flow stops as soon as the
+    // breaks line up with the previous layout again.
+    function incrementalLayout(blocks, start, count) {
+        // Old page holding the first changed block; the page before it may take blocks back
+        let changedPage = pageBlocks.length - 1;
+        let seen = 0;
+        for (let p = 0; p < pageBlocks.length; p++) {
+            if (start < seen + pageBlocks[p].length) {
+                changedPage = p;
+                break;
+            }
+            seen += pageBlocks[p].length;
+        }
+        const firstPage = Math.max(0, changedPage - 1);
+        let firstBlock = 0;
+        for (let p = 0; p < firstPage; p++) {
+            firstBlock += pageBlocks[p].length;
         }
 
-        // Run pagination
-        paginateContent();
+        // New blocks must be in a page to be measured; fillPages moves them to their own page
+        const scratch = pages[firstPage].querySelector('.main-content');
+        blocks.slice(start, start + count).forEach(block => scratch.appendChild(block));
 
-        // 2. Update page numbers after pagination
-        function updatePageNumbers() {
-            const allBodyPages = document.querySelectorAll('.body-page');
-            allBodyPages.forEach((page, index) => {
-                const pageNum = page.querySelector('.dynamic-page-number');
-                if (pageNum) {
-                    pageNum.textContent = (index + 1);
-                }
-                page.id = 'body-page-' + (index + 1);
-            });
-            console.log('Total body pages after pagination:', allBodyPages.length);
-            return allBodyPages;
+        const previousStarts = new Map();
+        for (let p = firstPage + 1; p < pageBlocks.length; p++) {
+            if (pageBlocks[p].length > 0) previousStarts.set(pageBlocks[p][0], p);
         }
 
-        const pages = updatePageNumbers();
-
-        // 3. Update TOC Page Numbers for chapter links
-        const tocLinks = document.querySelectorAll('.toc-content a');
-        console.log('Found ' + tocLinks.length + ' TOC content links');
-
-        tocLinks.forEach(link => {
-            const href = link.getAttribute('href');
-            if (href && href.startsWith('#')) {
-                const targetId = href.substring(1);
-                const target = document.getElementById(targetId);
-                if (target) {
-                    let pageNum = 0;
-                    pages.forEach((page, index) => {
-                        if (page.contains(target)) {
-                            pageNum = index + 1;
-                        }
-                    });
-
-                    if (pageNum > 0) {
-                        const text = link.innerText;
-                        link.innerHTML = '<span class="toc-text">' + text + '</span><span class="toc-dots"></span><span class="toc-page">' + pageNum + '</span>';
-                        link.classList.add('toc-link');
-                    }
-                }
+        const result = computeBreaks(blocks, firstBlock, start + count, previousStarts);
+        const keepFrom = result.keepFrom >= 0 ? result.keepFrom : pages.length;
+
+        const filled = fillPages(blocks, result.breaks, result.end, pages.slice(firstPage, keepFrom), pages[keepFrom] || null);
+        const shift = filled.pages.length - (keepFrom - firstPage);
+
+        pages = pages.slice(0, firstPage).concat(filled.pages, pages.slice(keepFrom));
+        pageBlocks = pageBlocks.slice(0, firstPage).concat(filled.blocks, pageBlocks.slice(keepFrom));
+
+        // Kept pages after the change only need new numbers if the page count changed
+        updatePageNumbers(firstPage, shift === 0 ? firstPage + filled.pages.length : pages.length);
+        updateEntryPageNumbers(new Set(filled.pages));
+        console.log('Re-flowed ' + filled.pages.length + ' of ' + pages.length + ' body pages');
+    }
+
+    // 2. Update page numbers of pages [from, to)
+    function updatePageNumbers(from, to) {
+        for (let index = from; index < to; index++) {
+            const page = pages[index];
+            const pageNum = page.querySelector('.dynamic-page-number');
+            if (pageNum) {
+                pageNum.textContent = (index + 1);
             }
-        });
+            page.id = 'body-page-' + (index + 1);
+        }
+    }
 
-        // 4. Figures Page Numbering
-        document.querySelectorAll('.toc-count-page').forEach(span => {
-            const url = span.getAttribute('data-target-image');
-            const img = document.querySelector('img[src="' + url + '"]');
-            if (img) {
-                pages.forEach((page, index) => {
-                    if (page.contains(img)) {
-                        span.innerText = (index + 1);
-                    }
-                });
+    // 3 & 4. TOC, figure and other cross-reference page numbers (page_index.js).
+    // Only the re-flowed pages are indexed again.
+    function updateEntryPageNumbers(reflowed) {
+        if (window.mdPageIndex) {
+            window.mdPageIndex.update(pages, reflowed);
+        }
+    }
+
+    // Called by preview.js after a patch with the ordered list of all blocks, of which
+    // `count` new ones start at `start`.
+    // pageStarts holds the first block of each page as computed by ProposalPaginator;
+    // it places the blocks when there is no measured layout to update yet.
+    function relayout(blocks, pageStarts, start, count) {
+        if (ready && pages.length > 0) {
+            incrementalLayout(blocks, start, count);
+            return;
+        }
+
+        const host = document.getElementById('body-pages');
+        host.querySelectorAll('.body-page').forEach(page => page.remove());
+
+        const starts = pageStarts ? new Set(pageStarts) : null;
+        let content = null;
+        blocks.forEach((block, index) => {
+            const startsPage = starts ? starts.has(index) : isChapterStart(block);
+            if (content === null || startsPage) {
+                const page = createBodyPage();
+                host.appendChild(page);
+                content = page.querySelector('.main-content');
             }
+            content.appendChild(block);
         });
 
+        if (ready) {
+            fullLayout();
+        }
+    }
+
+    // Preview patches hand their blocks to us instead of touching the DOM directly
+    if (window.mdPreview) {
+        window.mdPreview.relayout = relayout;
+    }
+
+    // Heights are only final once the web fonts and images are in
+    const fontsReady = document.fonts ? document.fonts.ready : Promise.resolve();
+    const pageLoaded = new Promise(resolve => window.addEventListener('load', resolve));
+
+    document.addEventListener("DOMContentLoaded", function () {
+        if (typeof hljs !== 'undefined') {
+            hljs.highlightAll();
+        }
+
         // 5. Smooth scroll using event delegation
         document.body.addEventListener('click', function (e) {
             const anchor = e.target.closest('a[href^="#"]');
@@ -162,6 +212,9 @@ document.addEventListener("DOMContentLoaded", function () {
             }
         });
 
-        console.log('Page setup complete');
-    }, 100); // End setTimeout with 100ms delay
-});
+        Promise.all([fontsReady, pageLoaded]).then(function () {
+            ready = true;
+            fullLayout();
+        });
+    });
+})();
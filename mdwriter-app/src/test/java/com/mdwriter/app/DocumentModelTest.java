@@ -0,0 +1,97 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DocumentModelTest {
+
+    @Test
+    public void appliesEdits() {
+        DocumentModel model = new DocumentModel();
+        model.reset("hello world");
+        model.replace(5, 5, ",");
+        model.replace(7, 12, "there");
+        model.replace(0, 1, "H");
+
+        assertEquals("Hello, there", model.snapshot().toString());
+        assertEquals(12, model.length());
+    }
+
+    @Test
+    public void snapshotsDoNotChangeWithTheModel() {
+        DocumentModel model = new DocumentModel();
+        model.reset("one");
+        DocumentSnapshot before = model.snapshot();
+        model.replace(3, 3, " two");
+
+        assertEquals("one", before.toString());
+        assertEquals("one two", model.snapshot().toString());
+        assertEquals(before.getVersion() + 1, model.getVersion());
+    }
+
+    @Test
+    public void readsRangesAndCharacters() {
+        DocumentModel model = new DocumentModel();
+        model.reset("abcdef");
+        model.replace(3, 3, "XYZ");
+        DocumentSnapshot snapshot = model.snapshot();
+
+        assertEquals('X', snapshot.charAt(3));
+        assertEquals("cXYZd", snapshot.subSequence(2, 7));
+        char[] chars = new char[4];
+        snapshot.getChars(1, 5, chars, 0);
+        assertEquals("bcXY", new String(chars));
+    }
+
+    @Test
+    public void tracksLines() {
+        DocumentModel model = new DocumentModel();
+        model.reset("first\nsecond\nthird");
+        model.replace(6, 6, "inserted\n");
+        DocumentSnapshot snapshot = model.snapshot();
+
+        assertEquals(4, snapshot.getLineCount());
+        assertEquals(6, snapshot.getLineStart(1));
+        assertEquals(15, snapshot.getLineStart(2));
+        assertEquals(2, snapshot.getLineOfOffset(16));
+        assertEquals(14, snapshot.nextLineBreak(6));
+        assertEquals(-1, snapshot.nextLineBreak(snapshot.getLineStart(3)));
+    }
+
+    @Test
+    public void matchesAStringBuilderOverManyRandomEdits() throws Exception {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder("start\n");
+        DocumentModel model = new DocumentModel();
+        model.reset(expected.toString());
+
+        // Enough edits to go past the piece limit, and inserts larger than an add block
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(expected.length() + 1);
+            int end = Math.min(expected.length(), start + random.nextInt(4));
+            String text = i % 1000 == 0 ? "x".repeat(DocumentModel.BLOCK_SIZE + 7) + "\n"
+                : random.nextBoolean() ? "ab\n" : "c";
+            expected.replace(start, end, text);
+            model.replace(start, end, text);
+        }
+
+        DocumentSnapshot snapshot = model.snapshot();
+        assertEquals(expected.toString(), snapshot.toString());
+        StringWriter written = new StringWriter();
+        snapshot.writeTo(written);
+        assertEquals(expected.toString(), written.toString());
+
+        String text = expected.toString();
+        assertEquals(text.split("\n", -1).length, snapshot.getLineCount());
+        int line = 0;
+        for (int offset = text.indexOf('\n'); offset >= 0; offset = text.indexOf('\n', offset + 1)) {
+            line++;
+            assertEquals(offset + 1, snapshot.getLineStart(line));
+            assertEquals(line, snapshot.getLineOfOffset(offset + 1));
+        }
+    }
+}
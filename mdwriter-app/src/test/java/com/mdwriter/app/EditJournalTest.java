@@ -0,0 +1,169 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EditJournalTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+    private Path journalPath;
+
+    @Before
+    public void setUp() throws IOException {
+        file = temp.newFile("notes.md");
+        Files.writeString(file.toPath(), "hello");
+        // Older than any journal written by the test
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 60_000));
+        journalPath = temp.getRoot().toPath().resolve("journal").resolve("notes.journal");
+    }
+
+    private static DocumentModel model(String text) {
+        DocumentModel model = new DocumentModel();
+        model.reset(text);
+        return model;
+    }
+
+    /**
+     * Applies an edit to the model and records it, as the editor does.
+     */
+    private static void edit(DocumentModel model, EditJournal journal, int start, int end, String text) {
+        model.replace(start, end, text);
+        journal.append(model.getVersion(), start, end - start, text);
+    }
+
+    private static String replay(String text, List<EditJournal.Edit> edits) {
+        StringBuilder out = new StringBuilder(text);
+        for (EditJournal.Edit edit : edits) {
+            out.replace(edit.getPosition(), edit.getRemovalEnd(), edit.getInserted());
+        }
+        return out.toString();
+    }
+
+    private List<EditJournal.Edit> reopen(String loaded) throws Exception {
+        EditJournal journal = EditJournal.open(journalPath, file, model(loaded).snapshot());
+        List<EditJournal.Edit> recovered = journal.getRecovered().get();
+        journal.close();
+        return recovered;
+    }
+
+    @Test
+    public void startsEmpty() throws Exception {
+        EditJournal journal = EditJournal.open(journalPath, file, model("hello").snapshot());
+        assertTrue(journal.getRecovered().get().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void replaysTheEditsOfAPreviousSession() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        edit(model, journal, 0, 1, "H");
+        edit(model, journal, 5, 11, "!");
+        journal.close();
+
+        List<EditJournal.Edit> recovered = reopen("hello");
+        assertEquals(3, recovered.size());
+        assertEquals("Hello!", replay("hello", recovered));
+        assertEquals(model.snapshot().toString(), replay("hello", recovered));
+    }
+
+    @Test
+    public void keepsAppendingAfterRecoveredEdits() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        journal.close();
+
+        DocumentModel reopened = model("hello");
+        EditJournal second = EditJournal.open(journalPath, file, reopened.snapshot());
+        String recovered = replay("hello", second.getRecovered().get());
+        reopened.replace(0, reopened.length(), recovered);
+        edit(reopened, second, recovered.length(), recovered.length(), "!");
+        second.close();
+
+        assertEquals("hello world!", replay("hello", reopen("hello")));
+    }
+
+    @Test
+    public void compactionKeepsOnlyTheEditsAfterTheSave() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        DocumentSnapshot saved = model.snapshot();
+        edit(model, journal, 11, 11, "!");
+        journal.compact(saved);
+        journal.close();
+
+        // The journal now starts from the saved text
+        List<EditJournal.Edit> recovered = reopen("hello world");
+        assertEquals(1, recovered.size());
+        assertEquals("hello world!", replay("hello world", recovered));
+    }
+
+    @Test
+    public void followsARenamedFile() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        Path movedPath = journalPath.resolveSibling("renamed.journal");
+        journal.moveTo(movedPath);
+        edit(model, journal, 11, 11, "!");
+        journal.close();
+
+        journalPath = movedPath;
+        assertEquals("hello world!", replay("hello", reopen("hello")));
+        assertTrue(Files.notExists(journalPath.resolveSibling("notes.journal")));
+    }
+
+    @Test
+    public void closedEditsAreOnDiskOnceIdle() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        journal.close();
+
+        EditJournal.awaitIdle(5, TimeUnit.SECONDS);
+
+        // Header (magic, length, checksum), then one record: position, removed, length, text
+        assertEquals(16 + 12 + " world".length(), Files.size(journalPath));
+    }
+
+    @Test
+    public void ignoresAJournalOfOtherText() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        journal.close();
+
+        assertTrue(reopen("changed outside").isEmpty());
+    }
+
+    @Test
+    public void ignoresAJournalOlderThanTheFile() throws Exception {
+        DocumentModel model = model("hello");
+        EditJournal journal = EditJournal.open(journalPath, file, model.snapshot());
+        edit(model, journal, 5, 5, " world");
+        journal.close();
+        assertEquals(1, reopen("hello").size());
+        // Saved by something else after the journal was written
+        assertTrue(file.setLastModified(System.currentTimeMillis() + 60_000));
+
+        assertTrue(reopen("hello").isEmpty());
+    }
+}
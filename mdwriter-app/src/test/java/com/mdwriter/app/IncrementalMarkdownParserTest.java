@@ -0,0 +1,124 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+public class IncrementalMarkdownParserTest {
+
+    private IncrementalMarkdownParser parser;
+
+    @Before
+    public void setUp() {
+        MutableDataSet options = new MutableDataSet();
+        options.set(HtmlRenderer.GENERATE_HEADER_ID, true);
+        options.set(HtmlRenderer.RENDER_HEADER_ID, true);
+        parser = new IncrementalMarkdownParser(Parser.builder(options).build(), HtmlRenderer.builder(options).build());
+    }
+
+    private static List<String> chunks(String text) {
+        List<String> chunks = new ArrayList<>();
+        for (int[] range : IncrementalMarkdownParser.split(text)) {
+            chunks.add(text.substring(range[0], range[1]));
+        }
+        return chunks;
+    }
+
+    @Test
+    public void splitsAtBlankLines() {
+        assertEquals(Arrays.asList("# Title", "First paragraph\nstill first", "Second"),
+            chunks("# Title\n\nFirst paragraph\nstill first\n\n\nSecond\n"));
+    }
+
+    @Test
+    public void splitReportsStartLines() {
+        List<int[]> ranges = IncrementalMarkdownParser.split("a\n\nb\n\n\nc");
+        assertEquals(0, ranges.get(0)[2]);
+        assertEquals(2, ranges.get(1)[2]);
+        assertEquals(5, ranges.get(2)[2]);
+    }
+
+    @Test
+    public void keepsFencedCodeTogether() {
+        assertEquals(Arrays.asList("```\ncode\n\nmore code\n```", "after"),
+            chunks("```\ncode\n\nmore code\n```\n\nafter"));
+    }
+
+    @Test
+    public void keepsLooseListsAndIndentedContinuationsTogether() {
+        assertEquals(Arrays.asList("- one\n\n- two\n\n    continued", "text"),
+            chunks("- one\n\n- two\n\n    continued\n\ntext"));
+    }
+
+    @Test
+    public void keepsFrontMatterTogether() {
+        assertEquals(Arrays.asList("---\ntitle: x\n\nsubject: y\n---", "Body"),
+            chunks("---\ntitle: x\n\nsubject: y\n---\n\nBody"));
+    }
+
+    @Test
+    public void splitsSnapshotsLikeStrings() {
+        String text = "---\ntitle: x\n---\n\n# Title\n\n- item\n\n- item\n\n<pre>\n\n</pre>\n\n~~~~\n~~~\n~~~~~\n\ntext\n";
+        DocumentModel model = new DocumentModel();
+        model.reset("");
+        model.replace(0, 0, text.substring(0, 20));
+        model.replace(20, 20, text.substring(20));
+
+        List<int[]> expected = IncrementalMarkdownParser.split(text);
+        List<int[]> actual = IncrementalMarkdownParser.split(model.snapshot());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(Arrays.toString(expected.get(i)), Arrays.toString(actual.get(i)));
+        }
+        assertEquals(Arrays.asList("---\ntitle: x\n---", "# Title", "- item\n\n- item", "<pre>\n\n</pre>", "~~~~\n~~~\n~~~~~", "text"),
+            chunks(text));
+    }
+
+    @Test
+    public void reusesUnchangedChunks() {
+        List<IncrementalMarkdownParser.Block> before = parser.parse("# Title\n\nFirst\n\nSecond");
+        List<IncrementalMarkdownParser.Block> after = parser.parse("# Title\n\nFirst, edited\n\nSecond");
+
+        assertSame(before.get(0).getChunk(), after.get(0).getChunk());
+        assertNotSame(before.get(1).getChunk(), after.get(1).getChunk());
+        assertSame(before.get(2).getChunk(), after.get(2).getChunk());
+    }
+
+    @Test
+    public void definitionsApplyToEveryChunk() {
+        List<IncrementalMarkdownParser.Block> blocks = parser.parse("See [the site][site]\n\n[site]: https://example.com");
+        assertTrue(blocks.get(0).getChunk().getHtml().get(0).contains("href=\"https://example.com\""));
+    }
+
+    @Test
+    public void headingIdsAreUniqueAcrossChunks() {
+        List<IncrementalMarkdownParser.Block> blocks = parser.parse("# Notes\n\ntext\n\n# Notes\n\n# Notes");
+
+        assertEquals(Arrays.asList("notes"), blocks.get(0).getChunk().getHeadingIds());
+        assertEquals(Arrays.asList("notes-1"), blocks.get(2).getChunk().getHeadingIds());
+        assertEquals(Arrays.asList("notes-2"), blocks.get(3).getChunk().getHeadingIds());
+        assertTrue(blocks.get(2).getChunk().getHtml().get(0).contains("id=\"notes-1\""));
+    }
+
+    @Test
+    public void rendersAgainWhenHeadingIdsShift() {
+        List<IncrementalMarkdownParser.Block> before = parser.parse("# Intro\n\n# Notes");
+        List<IncrementalMarkdownParser.Block> after = parser.parse("# Notes\n\n# Intro\n\n# Notes");
+
+        assertSame(before.get(0).getChunk(), after.get(1).getChunk());
+        assertNotSame(before.get(1).getChunk(), after.get(2).getChunk());
+        assertTrue(after.get(2).getChunk().getHtml().get(0).contains("id=\"notes-1\""));
+    }
+}
@@ -0,0 +1,199 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File workspace;
+    private Path root;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        workspace = temp.newFolder("workspace");
+        root = workspace.toPath().toAbsolutePath().normalize();
+        indexFile = temp.getRoot().toPath().resolve("cache").resolve("links.index");
+    }
+
+    private Path write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        return file;
+    }
+
+    private LinkIndex build() {
+        LinkIndex index = new LinkIndex(workspace, indexFile);
+        index.build();
+        return index;
+    }
+
+    private static List<String> urls(List<LinkIndex.LinkRef> links) {
+        List<String> urls = new ArrayList<>();
+        for (LinkIndex.LinkRef link : links) {
+            urls.add(link.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Renames in the given text as if it were the file at source.
+     */
+    private String renamed(String source, String text, String from, String to) {
+        LinkIndex index = new LinkIndex(workspace, indexFile);
+        return LinkIndex.apply(text, index.linkEdits(root.resolve(source), text, root.resolve(from), root.resolve(to)));
+    }
+
+    @Test
+    public void resolvesRelativeAbsoluteAndEscapedLinks() throws IOException {
+        write("notes/a.md", "[b](b.md) [c](/c.md) [d](../My%20Docs/d.md) [e](<../My%20Docs/d.md>) [web](https://example.com/b.md)");
+        write("notes/b.md", "");
+        write("c.md", "");
+        write("My Docs/d.md", "");
+        LinkIndex index = build();
+
+        assertEquals(List.of("b.md"), urls(index.backlinks(root.resolve("notes/b.md"))));
+        assertEquals(List.of("/c.md"), urls(index.backlinks(root.resolve("c.md"))));
+        assertEquals(List.of("../My%20Docs/d.md", "../My%20Docs/d.md"),
+            urls(index.backlinks(root.resolve("My Docs/d.md"))));
+        assertTrue(index.brokenLinks().isEmpty());
+    }
+
+    @Test
+    public void findsMissingFilesAndAnchors() throws IOException {
+        write("a.md", "[ok](b.md#second-part)\n\n[gone](missing.md)\n\n[bad](b.md#nope)\n\n[self](#title)\n\n# Title\n");
+        write("b.md", "# Intro\n\n## Second part\n");
+        LinkIndex index = build();
+
+        assertEquals(List.of("missing.md", "b.md#nope"), urls(index.brokenLinks()));
+        assertEquals(2, index.headings(root.resolve("b.md")).size());
+        assertEquals("second-part", index.headings(root.resolve("b.md")).get(1).getAnchor());
+    }
+
+    @Test
+    public void findsSourcesLinkingIntoAFolder() throws IOException {
+        write("a.md", "[x](docs/x.md)");
+        write("b.md", "[y](docs/sub/y.md)");
+        write("c.md", "[z](other.md)");
+        LinkIndex index = build();
+
+        assertEquals(List.of(root.resolve("a.md"), root.resolve("b.md")), index.sourcesLinkingTo(root.resolve("docs")));
+    }
+
+    @Test
+    public void renamingAFileKeepsFormAnchorAndQuery() {
+        assertEquals("[b](new.md#part) [c](/new.md?x=1) ![i](<new.md>)",
+            renamed("a.md", "[b](old.md#part) [c](/old.md?x=1) ![i](<old.md>)", "old.md", "new.md"));
+        assertEquals("[b]: sub/new.md \"Title\"\n",
+            renamed("a.md", "[b]: sub/old.md \"Title\"\n", "sub/old.md", "sub/new.md"));
+    }
+
+    @Test
+    public void renamingAFolderRewritesOnlyLinksThatBreak() {
+        // From outside: the folder part changes
+        assertEquals("[x](drafts/x.md)", renamed("a.md", "[x](docs/x.md)", "docs", "drafts"));
+        // From inside, to a sibling: still right as written
+        assertEquals("[y](y.md)", renamed("docs/x.md", "[y](y.md)", "docs", "drafts"));
+        // From inside, to outside, moved deeper: the relative path changes
+        assertEquals("[a](../../a.md)", renamed("docs/x.md", "[a](../a.md)", "docs", "archive/docs"));
+        // Same-file anchors follow the file
+        assertEquals("[t](#top)", renamed("docs/x.md", "[t](#top)", "docs", "drafts"));
+    }
+
+    @Test
+    public void renamedLinksAreEscaped() {
+        assertEquals("[a](my%20notes%20%281%29.md)", renamed("x.md", "[a](notes.md)", "notes.md", "my notes (1).md"));
+        assertEquals("[a](a%23b%3F.md#part)", renamed("x.md", "[a](notes.md#part)", "notes.md", "a#b?.md"));
+        assertEquals("[a](100%25%3Cdone%3E.md)", renamed("x.md", "[a](notes.md)", "notes.md", "100%<done>.md"));
+        // Between angle brackets, parentheses stay as they are
+        assertEquals("[a](<my%20notes%20(1).md>)", renamed("x.md", "[a](<notes.md>)", "notes.md", "my notes (1).md"));
+    }
+
+    @Test
+    public void renamedLinksKeepTheirEscapes() {
+        // Escapes that were not needed stay too
+        assertEquals("[a](Notes%5FA/new%20one.md)",
+            renamed("x.md", "[a](Notes%5FA/old.md)", "Notes_A/old.md", "Notes_A/new one.md"));
+        assertEquals("[a](../My%20Docs/b%20c.md)",
+            renamed("sub/x.md", "[a](../My%20Docs/b.md)", "My Docs/b.md", "My Docs/b c.md"));
+    }
+
+    @Test
+    public void rewritesOtherFilesOnDisk() throws IOException {
+        Path source = write("a.md", "See [b](b.md) and [b again](./b.md#top).\n");
+        write("b.md", "# Top\n");
+        LinkIndex index = build();
+        List<Path> sources = index.sourcesLinkingTo(root.resolve("b.md"));
+        Files.move(root.resolve("b.md"), root.resolve("renamed.md"));
+
+        assertEquals(1, index.rewriteLinks(sources, root.resolve("b.md"), root.resolve("renamed.md")));
+
+        assertEquals("See [b](renamed.md) and [b again](renamed.md#top).\n", Files.readString(source));
+        index.update(List.of(root), Collections.emptyList());
+        assertEquals(2, index.backlinks(root.resolve("renamed.md")).size());
+    }
+
+    @Test
+    public void rewrittenFilesKeepTheirPermissions() throws IOException {
+        Path source = write("a.md", "[b](b.md)");
+        write("b.md", "");
+        Files.setPosixFilePermissions(source, PosixFilePermissions.fromString("rw-------"));
+        LinkIndex index = build();
+        List<Path> sources = index.sourcesLinkingTo(root.resolve("b.md"));
+
+        assertEquals(1, index.rewriteLinks(sources, root.resolve("b.md"), root.resolve("c.md")));
+
+        assertEquals("[b](c.md)", Files.readString(source));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(source)));
+    }
+
+    @Test
+    public void updateBeforeBuildKeepsTheSavedIndex() throws IOException {
+        write("a.md", "[b](b.md)");
+        write("b.md", "");
+        LinkIndex first = build();
+        first.save();
+
+        Path added = write("c.md", "[b](b.md)");
+        LinkIndex second = new LinkIndex(workspace, indexFile);
+        second.update(Collections.emptyList(), List.of(added));
+
+        assertEquals(2, second.backlinks(root.resolve("b.md")).size());
+        assertFalse(second.isReady());
+        second.build();
+        assertTrue(second.awaitReady());
+        assertEquals(2, second.backlinks(root.resolve("b.md")).size());
+    }
+
+    @Test
+    public void movedAndRelativeLink() {
+        assertEquals("new.md", LinkIndex.moved("old.md", "old.md", "new.md"));
+        assertEquals("drafts/sub/x.md", LinkIndex.moved("docs/sub/x.md", "docs", "drafts"));
+        // Only whole path segments match
+        assertEquals("docs2/x.md", LinkIndex.moved("docs2/x.md", "docs", "drafts"));
+
+        assertEquals("b.md", LinkIndex.relativeLink("a.md", "b.md"));
+        assertEquals("sub/b.md", LinkIndex.relativeLink("a.md", "sub/b.md"));
+        assertEquals("../b.md", LinkIndex.relativeLink("sub/a.md", "b.md"));
+        assertEquals("../other/b.md", LinkIndex.relativeLink("sub/a.md", "other/b.md"));
+    }
+}
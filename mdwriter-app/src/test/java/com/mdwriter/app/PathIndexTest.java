@@ -0,0 +1,132 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PathIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File workspace;
+
+    @Before
+    public void setUp() throws IOException {
+        workspace = temp.newFolder("workspace");
+    }
+
+    private Path write(String name) throws IOException {
+        Path file = workspace.toPath().resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "");
+        return file.toAbsolutePath().normalize();
+    }
+
+    private PathIndex build(String... names) throws IOException {
+        for (String name : names) {
+            write(name);
+        }
+        PathIndex index = new PathIndex(workspace);
+        index.build();
+        return index;
+    }
+
+    private static List<String> paths(List<PathIndex.Match> matches) {
+        List<String> paths = new ArrayList<>();
+        for (PathIndex.Match match : matches) {
+            paths.add(match.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void matchesCharactersInOrder() throws IOException {
+        PathIndex index = build("src/App.java", "docs/readme.md");
+
+        assertEquals(List.of("src/App.java"), paths(index.match("sapj", 10)));
+        assertTrue(index.match("jpas", 10).isEmpty());
+        // Spaces and case are ignored
+        assertEquals(List.of("docs/readme.md"), paths(index.match("READ me", 10)));
+    }
+
+    @Test
+    public void matchesInTheFileNameRankFirst() throws IOException {
+        PathIndex index = build("notes/index.md", "index/notes.md");
+
+        assertEquals(List.of("index/notes.md", "notes/index.md"), paths(index.match("notes", 10)));
+        assertEquals(List.of("notes/index.md", "index/notes.md"), paths(index.match("index", 10)));
+    }
+
+    @Test
+    public void wordStartsRankAboveMatchesInsideWords() throws IOException {
+        PathIndex index = build("afbz.md", "fooBar.md");
+
+        assertEquals(List.of("fooBar.md", "afbz.md"), paths(index.match("fb", 10)));
+    }
+
+    @Test
+    public void shorterPathsWinTies() throws IOException {
+        PathIndex index = build("a/plan.md", "a/b/plan.md");
+
+        assertEquals(List.of("a/plan.md", "a/b/plan.md"), paths(index.match("plan", 10)));
+        assertEquals(List.of("a/plan.md"), paths(index.match("plan", 1)));
+    }
+
+    @Test
+    public void typingOnNarrowsTheSameResults() throws IOException {
+        PathIndex index = build("chapter1.md", "chapter2.md", "cover.md", "notes.md");
+
+        assertEquals(3, index.match("c", 10).size());
+        assertEquals(List.of("chapter2.md"), paths(index.match("ch2", 10)));
+        // Back to a shorter query: scans everything again
+        assertEquals(3, index.match("c", 10).size());
+    }
+
+    @Test
+    public void hiddenFilesAndFoldersAreSkipped() throws IOException {
+        PathIndex index = build(".git/config", ".hidden.md", "visible.md");
+
+        assertEquals(List.of("visible.md"), paths(index.match("i", 10)));
+    }
+
+    @Test
+    public void updatesFollowCreatesAndDeletes() throws IOException {
+        PathIndex index = build("old.md");
+
+        Path added = write("drafts/new.md");
+        index.update(Collections.emptyList(), List.of(added.getParent()));
+        assertEquals(List.of("drafts/new.md"), paths(index.match("new", 10)));
+        assertEquals(added, index.match("new", 10).get(0).getFile());
+
+        Files.delete(added);
+        Files.delete(added.getParent());
+        index.update(List.of(workspace.toPath().toAbsolutePath().normalize()), Collections.emptyList());
+        assertTrue(index.match("new", 10).isEmpty());
+        assertEquals(List.of("old.md"), paths(index.match("old", 10)));
+    }
+
+    @Test
+    public void rebuildAgreesWithUpdates() throws IOException {
+        PathIndex index = build("old.md");
+        Path added = write("new.md");
+        index.update(Collections.emptyList(), List.of(added));
+
+        index.build();
+
+        assertEquals(List.of("new.md"), paths(index.match("new", 10)));
+        assertTrue(index.isReady());
+    }
+}
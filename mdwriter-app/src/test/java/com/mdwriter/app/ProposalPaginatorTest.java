@@ -0,0 +1,69 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+public class ProposalPaginatorTest {
+
+    private static final double PAGE = ProposalPaginator.CONTENT_HEIGHT;
+
+    private final ProposalPaginator paginator = new ProposalPaginator();
+
+    private static List<Boolean> none(int count) {
+        return Collections.nCopies(count, false);
+    }
+
+    @Test
+    public void fillsPagesUpToTheContentHeight() {
+        List<Double> heights = Arrays.asList(PAGE / 2, PAGE / 2, PAGE / 2, 1.0);
+        assertEquals(Arrays.asList(0, 2), paginator.paginate(heights, none(4), none(4)));
+    }
+
+    @Test
+    public void chaptersStartNewPages() {
+        List<Double> heights = Arrays.asList(10.0, 10.0, 10.0);
+        List<Boolean> chapters = Arrays.asList(true, false, true);
+        assertEquals(Arrays.asList(0, 2), paginator.paginate(heights, none(3), chapters));
+    }
+
+    @Test
+    public void headingsMoveToThePageOfTheirContent() {
+        List<Double> heights = Arrays.asList(PAGE - 100, 50.0, 200.0);
+        List<Boolean> keep = Arrays.asList(false, true, false);
+        assertEquals(Arrays.asList(0, 1), paginator.paginate(heights, keep, none(3)));
+    }
+
+    @Test
+    public void oversizedBlocksGetAPageOfTheirOwn() {
+        List<Double> heights = Arrays.asList(10.0, PAGE * 2, 10.0);
+        assertEquals(Arrays.asList(0, 1, 2), paginator.paginate(heights, none(3), none(3)));
+    }
+
+    @Test
+    public void measuresHeadingsAndWrappedText() {
+        MutableDataSet options = new MutableDataSet();
+        IncrementalMarkdownParser parser = new IncrementalMarkdownParser(Parser.builder(options).build(), HtmlRenderer.builder(options).build());
+        String longText = String.join(" ", Collections.nCopies(200, "word"));
+        List<IncrementalMarkdownParser.Block> blocks = parser.parse("# Heading\n\nshort\n\n" + longText);
+
+        ProposalPaginator.BlockMetrics heading = paginator.measure(blocks.get(0).getChunk());
+        ProposalPaginator.BlockMetrics shortText = paginator.measure(blocks.get(1).getChunk());
+        ProposalPaginator.BlockMetrics wrapped = paginator.measure(blocks.get(2).getChunk());
+
+        assertTrue(heading.keepsWithNext(0));
+        assertFalse(shortText.keepsWithNext(0));
+        assertTrue(shortText.getHeight(0) > 0);
+        assertTrue(wrapped.getHeight(0) > 5 * shortText.getHeight(0));
+    }
+}
@@ -0,0 +1,189 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearchIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File workspace;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        workspace = temp.newFolder("workspace");
+        indexFile = temp.getRoot().toPath().resolve("cache").resolve("search.index");
+    }
+
+    private Path write(String name, String text) throws IOException {
+        Path file = workspace.toPath().resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        return file.toAbsolutePath().normalize();
+    }
+
+    private SearchIndex newIndex() {
+        return new SearchIndex(workspace, indexFile);
+    }
+
+    private static List<String> names(List<SearchIndex.Hit> hits) {
+        List<String> names = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            names.add(hit.getFile().getFileName().toString());
+        }
+        return names;
+    }
+
+    @Test
+    public void ranksFilesMentioningAWordMoreOftenFirst() throws IOException {
+        write("once.md", "a paragraph about rivers and some other things entirely");
+        write("often.md", "rivers rivers rivers and more rivers");
+        write("never.md", "mountains only");
+        SearchIndex index = newIndex();
+        index.build();
+
+        assertEquals(List.of("often.md", "once.md"), names(index.search("rivers ", 10)));
+    }
+
+    @Test
+    public void matchesEveryWordAndTheLastAsAPrefix() throws IOException {
+        write("both.md", "green valleys");
+        write("one.md", "green hills");
+        SearchIndex index = newIndex();
+        index.build();
+
+        assertEquals(List.of("both.md"), names(index.search("green valleys", 10)));
+        assertEquals(List.of("both.md"), names(index.search("green val", 10)));
+        // A finished word only matches itself
+        assertTrue(index.search("green val ", 10).isEmpty());
+    }
+
+    @Test
+    public void fileNamesAreSearchable() throws IOException {
+        write("notes/glossary.md", "nothing to see");
+        SearchIndex index = newIndex();
+        index.build();
+
+        assertEquals(List.of("glossary.md"), names(index.search("glossary", 10)));
+    }
+
+    @Test
+    public void hiddenFoldersAndOtherFilesAreSkipped() throws IOException {
+        write(".git/notes.md", "secret");
+        write("notes.txt", "secret");
+        SearchIndex index = newIndex();
+        index.build();
+
+        assertTrue(index.search("secret", 10).isEmpty());
+    }
+
+    @Test
+    public void updatesFollowEditsAndDeletes() throws IOException {
+        Path file = write("notes.md", "apples");
+        SearchIndex index = newIndex();
+        index.build();
+
+        Files.writeString(file, "pears and plums");
+        assertTrue(file.toFile().setLastModified(file.toFile().lastModified() + 2000));
+        index.update(Collections.emptyList(), List.of(file));
+        assertTrue(index.search("apples", 10).isEmpty());
+        assertEquals(List.of("notes.md"), names(index.search("plums", 10)));
+
+        Files.delete(file);
+        index.update(List.of(file.getParent()), Collections.emptyList());
+        assertTrue(index.search("plums", 10).isEmpty());
+    }
+
+    @Test
+    public void repeatedSavesKeepEveryFileFindable() throws IOException {
+        Path edited = write("edited.md", "draft 0");
+        write("other.md", "draft notes");
+        SearchIndex index = newIndex();
+        index.build();
+
+        // Each update frees the file's old number; the numbers are reused once most are free
+        for (int i = 1; i <= 5; i++) {
+            Files.writeString(edited, "draft " + i);
+            assertTrue(edited.toFile().setLastModified(edited.toFile().lastModified() + 2000));
+            index.update(Collections.emptyList(), List.of(edited));
+        }
+
+        assertEquals(List.of("edited.md", "other.md"), sorted(names(index.search("draft", 10))));
+        assertEquals(List.of("edited.md"), names(index.search("5", 10)));
+        assertEquals(List.of("other.md"), names(index.search("notes", 10)));
+    }
+
+    @Test
+    public void savedIndexIsUsedByTheNextSession() throws IOException {
+        Path file = write("notes.md", "apples");
+        SearchIndex first = newIndex();
+        first.build();
+        first.save();
+        assertTrue(Files.exists(indexFile));
+
+        // Same size and time: the next session trusts the saved words without reading the file
+        long modified = file.toFile().lastModified();
+        Files.writeString(file, "grapes");
+        assertTrue(file.toFile().setLastModified(modified));
+        SearchIndex second = newIndex();
+        second.build();
+
+        assertEquals(List.of("notes.md"), names(second.search("apples", 10)));
+        assertTrue(second.isReady());
+    }
+
+    @Test
+    public void updateBeforeBuildKeepsTheSavedIndex() throws IOException {
+        write("old.md", "apples");
+        write("other.md", "apples and pears");
+        SearchIndex first = newIndex();
+        first.build();
+        first.save();
+
+        // A save reported by the watcher before the startup build has even started
+        Path added = write("new.md", "pears");
+        SearchIndex second = newIndex();
+        second.update(Collections.emptyList(), List.of(added));
+
+        assertEquals(List.of("old.md", "other.md"), sorted(names(second.search("apples", 10))));
+        assertEquals(List.of("new.md", "other.md"), sorted(names(second.search("pears", 10))));
+
+        second.build();
+        assertEquals(List.of("new.md", "other.md"), sorted(names(second.search("pears", 10))));
+        second.save();
+        SearchIndex third = newIndex();
+        third.build();
+        assertEquals(List.of("new.md", "other.md"), sorted(names(third.search("pears", 10))));
+    }
+
+    @Test
+    public void damagedIndexIsIgnored() throws IOException {
+        write("notes.md", "apples");
+        Files.createDirectories(indexFile.getParent());
+        Files.write(indexFile, new byte[] {0x4D, 0x44, 0x53, 0x31, 0, 1});
+        SearchIndex index = newIndex();
+        index.build();
+
+        assertEquals(List.of("notes.md"), names(index.search("apples", 10)));
+    }
+
+    private static List<String> sorted(List<String> names) {
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,52 @@
+package com.mdwriter.app;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkspaceFilesTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void dotFilesAreHiddenWithOrWithoutAttributes() throws IOException {
+        Path dotFile = temp.newFile(".notes.md").toPath();
+        Path dotFolder = temp.newFolder(".git").toPath();
+
+        assertTrue(WorkspaceFiles.isHidden(dotFile));
+        assertTrue(WorkspaceFiles.isHidden(dotFolder));
+        assertTrue(WorkspaceFiles.isHidden(dotFile, Files.readAttributes(dotFile, WorkspaceFiles.LISTING_ATTRIBUTES)));
+        assertTrue(WorkspaceFiles.isHidden(dotFolder, Files.readAttributes(dotFolder, BasicFileAttributes.class)));
+    }
+
+    @Test
+    public void plainFilesAreVisible() throws IOException {
+        Path file = temp.newFile("notes.md").toPath();
+
+        assertFalse(WorkspaceFiles.isHidden(file));
+        assertFalse(WorkspaceFiles.isHidden(file, Files.readAttributes(file, WorkspaceFiles.LISTING_ATTRIBUTES)));
+        // The workspace root itself has no name to check
+        assertFalse(WorkspaceFiles.isHidden(temp.getRoot().toPath().getRoot()));
+    }
+
+    @Test
+    public void cacheDirectoryIsPerWorkspace() throws IOException {
+        File first = temp.newFolder("a", "docs");
+        File second = temp.newFolder("b", "docs");
+
+        Path firstCache = WorkspaceFiles.cacheDirectory(first);
+        assertTrue(firstCache.getFileName().toString().startsWith("docs-"));
+        assertFalse(firstCache.equals(WorkspaceFiles.cacheDirectory(second)));
+        assertTrue(firstCache.equals(WorkspaceFiles.cacheDirectory(new File(first, "."))));
+    }
+}